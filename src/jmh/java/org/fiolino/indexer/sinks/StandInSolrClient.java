@@ -0,0 +1,48 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process {@link SolrClient} that accepts every request without any network traffic.
+ * <p>
+ * It only counts what it gets, so that the benchmarks measure the indexer code instead of Solr.
+ */
+public class StandInSolrClient extends SolrClient {
+
+    private static final long serialVersionUID = 6210498732401236125L;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+
+    @Override
+    public NamedList<Object> request(SolrRequest request, String collection) {
+        requests.incrementAndGet();
+        if (request instanceof UpdateRequest) {
+            List<SolrInputDocument> docs = ((UpdateRequest) request).getDocuments();
+            if (docs != null) {
+                documents.addAndGet(docs.size());
+            }
+        }
+        return new NamedList<>();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getDocumentCount() {
+        return documents.get();
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+}
@@ -0,0 +1,89 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.AggregatingSink;
+import org.fiolino.common.processing.sink.NullSink;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stages between the document factory and Solr: timestamp setting, batching and the upload itself.
+ * <p>
+ * Solr is replaced by the {@link StandInSolrClient}, so only the client side overhead is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UploadPipelineBenchmark {
+
+    @Param({"100", "1000"})
+    public int uploadChunkSize;
+
+    @Param({"1000"})
+    public int updatesBeforeCommit;
+
+    private Container metadata;
+    private TimestampSetter timestampSetter;
+    private AggregatingSink<SolrInputDocument> aggregatingSink;
+    private SolrSink solrSink;
+
+    private SolrInputDocument doc;
+    private List<SolrInputDocument> batch;
+
+    @Setup
+    public void setUp() {
+        Schema schema = new Schema("Benchmark");
+        Selector<Long> timestampSelector = schema.createSelector();
+        timestampSetter = new TimestampSetter(new NullSink<>(), timestampSelector);
+        aggregatingSink = new AggregatingSink<>(new NullSink<>(), uploadChunkSize);
+        solrSink = new SolrSink(new StandInSolrClient(), schema, updatesBeforeCommit);
+        metadata = schema.createContainer();
+        metadata.set(timestampSelector, System.currentTimeMillis());
+
+        doc = createDocument(1);
+        batch = new ArrayList<>(uploadChunkSize);
+        for (int i = 0; i < uploadChunkSize; i++) {
+            batch.add(createDocument(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        aggregatingSink.commit(metadata);
+        solrSink.commit(metadata);
+    }
+
+    private static SolrInputDocument createDocument(long id) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", "MLS_" + id);
+        doc.addField("title_t", "Title " + id);
+        doc.addField("views_l", id * 17);
+        return doc;
+    }
+
+    @Benchmark
+    public SolrInputDocument timestampSetter() throws Exception {
+        timestampSetter.accept(doc, metadata);
+        doc.removeField(TimestampSetter.TIMESTAMP_FIELD);
+        return doc;
+    }
+
+    @Benchmark
+    public void aggregatingSink() throws Exception {
+        aggregatingSink.accept(doc, metadata);
+    }
+
+    @Benchmark
+    public void solrSinkAccept() throws Exception {
+        solrSink.accept(batch, metadata);
+    }
+}
@@ -0,0 +1,349 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.common.analyzing.ModelInconsistencyException;
+import org.fiolino.common.processing.Analyzer;
+import org.fiolino.common.processing.ModelDescription;
+import org.fiolino.data.annotation.DateFacet;
+import org.fiolino.data.annotation.Facet;
+import org.fiolino.data.annotation.Indexed;
+import org.fiolino.data.base.Identified;
+import org.fiolino.indexer.SolrDocumentFiller;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Model types used by the benchmarks. Each one stresses a different part of the generated fillers.
+ */
+public final class BenchmarkModels {
+
+    private BenchmarkModels() {
+        throw new AssertionError("Static class");
+    }
+
+    /**
+     * Analyzes the given type the same way as {@link SolrSinkBuilder} does.
+     */
+    public static <T> SolrDocumentFiller<T> fillerFor(Class<T> type) {
+        return fillerFor(type, false);
+    }
+
+    /**
+     * Analyzes the given type, optionally compiling the fillers into a single class.
+     */
+    public static <T> SolrDocumentFiller<T> fillerFor(Class<T> type, boolean compiled) {
+        ModelDescription description = new ModelDescription(type, SolrDocumentFactoryBuilder.SCHEMA.createContainer());
+        SolrDocumentFactoryBuilder<T> factoryBuilder = new SolrDocumentFactoryBuilder<>(compiled);
+        try {
+            Analyzer.analyzeAll(description, factoryBuilder);
+        } catch (ModelInconsistencyException ex) {
+            throw new AssertionError(ex);
+        }
+        return factoryBuilder.getFiller();
+    }
+
+    /**
+     * Fills a fresh document, as the CreatingSink would do.
+     */
+    public static <T> SolrInputDocument fill(SolrDocumentFiller<T> filler, T model) {
+        SolrInputDocument doc = new SolrInputDocument();
+        filler.process(model, doc, 1);
+        return doc;
+    }
+
+    /**
+     * Only simple values, no relations.
+     */
+    public static class Flat implements Identified {
+        private Long id;
+        @Indexed
+        private String title;
+        @Indexed
+        private String description;
+        @Indexed
+        private String author;
+        @Indexed
+        private int pages;
+        @Indexed
+        private long views;
+        @Indexed
+        private double rating;
+        @Indexed
+        private boolean published;
+        @Indexed
+        private String language;
+
+        public Flat(long id) {
+            this.id = id;
+            title = "Title " + id;
+            description = "Some longer description text for item number " + id;
+            author = "Author " + (id % 100);
+            pages = (int) (id % 500);
+            views = id * 17;
+            rating = (id % 50) / 10.0;
+            published = id % 2 == 0;
+            language = id % 3 == 0 ? "de" : "en";
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        public long getViews() {
+            return views;
+        }
+
+        public double getRating() {
+            return rating;
+        }
+
+        public boolean isPublished() {
+            return published;
+        }
+
+        public String getLanguage() {
+            return language;
+        }
+    }
+
+    /**
+     * A chain of to-one relations, three levels deep.
+     */
+    public static class Deep implements Identified {
+        private Long id;
+        @Indexed
+        private String name;
+        @Indexed
+        private Level1 parent;
+
+        public Deep(long id) {
+            this.id = id;
+            name = "Deep " + id;
+            parent = new Level1(id);
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Level1 getParent() {
+            return parent;
+        }
+    }
+
+    public static class Level1 {
+        @Indexed
+        private String name;
+        @Indexed
+        private Level2 parent;
+
+        Level1(long id) {
+            name = "Level 1 of " + id;
+            parent = new Level2(id);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Level2 getParent() {
+            return parent;
+        }
+    }
+
+    public static class Level2 {
+        @Indexed
+        private String name;
+        @Indexed
+        private Level3 parent;
+
+        Level2(long id) {
+            name = "Level 2 of " + id;
+            parent = new Level3(id);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Level3 getParent() {
+            return parent;
+        }
+    }
+
+    public static class Level3 {
+        @Indexed
+        private String name;
+        @Indexed
+        private String code;
+
+        Level3(long id) {
+            name = "Level 3 of " + id;
+            code = "C" + (id % 1000);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCode() {
+            return code;
+        }
+    }
+
+    /**
+     * A large to-many relation and a large multi-valued field.
+     */
+    public static class ToMany implements Identified {
+        private Long id;
+        @Indexed
+        private String name;
+        @Indexed
+        private List<String> keywords;
+        @Facet("Tag")
+        private List<Tag> tags;
+
+        public ToMany(long id, int size) {
+            this.id = id;
+            name = "ToMany " + id;
+            keywords = new ArrayList<>(size);
+            tags = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                keywords.add("keyword" + i);
+                tags.add(new Tag(i));
+            }
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getKeywords() {
+            return keywords;
+        }
+
+        public List<Tag> getTags() {
+            return tags;
+        }
+    }
+
+    public static class Tag implements Identified {
+        private Long id;
+        @Indexed
+        private String label;
+
+        Tag(long id) {
+            this.id = id;
+            label = "Tag " + id;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Map-typed fields resulting in dynamic Solr field names.
+     */
+    public static class Dynamic implements Identified {
+        private Long id;
+        @Indexed
+        private Map<String, String> attributes;
+        @Indexed
+        private Map<String, List<String>> multiAttributes;
+
+        public Dynamic(long id, int size) {
+            this.id = id;
+            attributes = new HashMap<>(size * 2);
+            multiAttributes = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                attributes.put("attribute " + i, "value " + (id + i));
+                List<String> values = new ArrayList<>(3);
+                values.add("a" + i);
+                values.add("b" + i);
+                values.add("c" + i);
+                multiAttributes.put("multi " + i, values);
+            }
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public Map<String, String> getAttributes() {
+            return attributes;
+        }
+
+        public Map<String, List<String>> getMultiAttributes() {
+            return multiAttributes;
+        }
+    }
+
+    /**
+     * Date facets, which are split into year and month values.
+     */
+    public static class Dated implements Identified {
+        private Long id;
+        @DateFacet(year = "created year", month = "created month")
+        private Date created;
+        @DateFacet(year = "modified year", month = "modified month")
+        private Date modified;
+
+        public Dated(long id) {
+            this.id = id;
+            long now = System.currentTimeMillis();
+            created = new Date(now - id * 86_400_000L);
+            modified = new Date(now - id * 3_600_000L);
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        public Date getModified() {
+            return modified;
+        }
+    }
+}
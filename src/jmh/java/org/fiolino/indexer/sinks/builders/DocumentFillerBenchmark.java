@@ -0,0 +1,79 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generated {@link SolrDocumentFiller} chains for different model shapes.
+ * <p>
+ * Run with the gc profiler (the default of the jmh task) to see the allocation rate per document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DocumentFillerBenchmark {
+
+    @Param({"10", "100"})
+    public int collectionSize;
+
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    private SolrDocumentFiller<BenchmarkModels.Flat> flatFiller;
+    private SolrDocumentFiller<BenchmarkModels.Deep> deepFiller;
+    private SolrDocumentFiller<BenchmarkModels.ToMany> toManyFiller;
+    private SolrDocumentFiller<BenchmarkModels.Dynamic> dynamicFiller;
+    private SolrDocumentFiller<BenchmarkModels.Dated> datedFiller;
+
+    private BenchmarkModels.Flat flat;
+    private BenchmarkModels.Deep deep;
+    private BenchmarkModels.ToMany toMany;
+    private BenchmarkModels.Dynamic dynamic;
+    private BenchmarkModels.Dated dated;
+
+    @Setup
+    public void setUp() {
+        flatFiller = BenchmarkModels.fillerFor(BenchmarkModels.Flat.class, compiled);
+        deepFiller = BenchmarkModels.fillerFor(BenchmarkModels.Deep.class, compiled);
+        toManyFiller = BenchmarkModels.fillerFor(BenchmarkModels.ToMany.class, compiled);
+        dynamicFiller = BenchmarkModels.fillerFor(BenchmarkModels.Dynamic.class, compiled);
+        datedFiller = BenchmarkModels.fillerFor(BenchmarkModels.Dated.class, compiled);
+
+        flat = new BenchmarkModels.Flat(4711);
+        deep = new BenchmarkModels.Deep(4711);
+        toMany = new BenchmarkModels.ToMany(4711, collectionSize);
+        dynamic = new BenchmarkModels.Dynamic(4711, collectionSize);
+        dated = new BenchmarkModels.Dated(4711);
+    }
+
+    @Benchmark
+    public SolrInputDocument flatModel() {
+        return BenchmarkModels.fill(flatFiller, flat);
+    }
+
+    @Benchmark
+    public SolrInputDocument deepToOneRelations() {
+        return BenchmarkModels.fill(deepFiller, deep);
+    }
+
+    @Benchmark
+    public SolrInputDocument largeToManyRelation() {
+        return BenchmarkModels.fill(toManyFiller, toMany);
+    }
+
+    @Benchmark
+    public SolrInputDocument mapTypedFields() {
+        return BenchmarkModels.fill(dynamicFiller, dynamic);
+    }
+
+    @Benchmark
+    public SolrInputDocument dateFacets() {
+        return BenchmarkModels.fill(datedFiller, dated);
+    }
+}
@@ -0,0 +1,21 @@
+package org.fiolino.indexer;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks an indexed to-one relation whose target is shared by many documents.
+ * <p>
+ * The fields which are created from the relation target are recorded per target id, and replayed into
+ * later documents that reference the same target, instead of running the target's getters again.
+ * The cache is cleared after each run.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface CachedRelation {
+
+    /**
+     * How many targets are cached at most.
+     */
+    int value() default 1000;
+}
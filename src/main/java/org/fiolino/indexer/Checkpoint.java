@@ -0,0 +1,114 @@
+package org.fiolino.indexer;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The persisted state of an interrupted full run: its timestamp, and the position from which it resumes.
+ * <p>
+ * All items before the position were uploaded already. Resuming under the same timestamp keeps them alive
+ * when the run's {@link TimestampDeleteStragegy} cleans up in the end.
+ */
+@Immutable
+public final class Checkpoint {
+
+    private static final String TIMESTAMP = "timestamp";
+    private static final String POSITION = "position";
+
+    private final long timestamp;
+    private final long position;
+
+    public Checkpoint(long timestamp, long position) {
+        this.timestamp = timestamp;
+        this.position = position;
+    }
+
+    /**
+     * The start time of the original run.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The first ID that may not have been uploaded yet.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Reads a checkpoint.
+     *
+     * @return The checkpoint, or null if there is no such file
+     */
+    @Nullable
+    public static Checkpoint read(Path file) throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        String timestamp = p.getProperty(TIMESTAMP);
+        String position = p.getProperty(POSITION);
+        if (timestamp == null || position == null) {
+            throw new IOException("Incomplete checkpoint in " + file);
+        }
+        try {
+            return new Checkpoint(Long.parseLong(timestamp), Long.parseLong(position));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Corrupt checkpoint in " + file, ex);
+        }
+    }
+
+    /**
+     * Writes this checkpoint. The file is replaced atomically, so that a crash leaves either the old or the new one.
+     */
+    public void write(Path file) throws IOException {
+        Properties p = new Properties();
+        p.setProperty(TIMESTAMP, Long.toString(timestamp));
+        p.setProperty(POSITION, Long.toString(position));
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                p.store(out, null);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Checkpoint)) {
+            return false;
+        }
+        Checkpoint other = (Checkpoint) o;
+        return timestamp == other.timestamp && position == other.position;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(timestamp) * 31 + Long.hashCode(position);
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint at " + position + " of run " + timestamp;
+    }
+}
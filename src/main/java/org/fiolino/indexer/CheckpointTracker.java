@@ -0,0 +1,184 @@
+package org.fiolino.indexer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks which IDs of a full run were uploaded, and persists the run's progress as a {@link Checkpoint}.
+ * <p>
+ * The IDs are emitted in ascending order by a single thread, and acknowledged by the upload threads in any order.
+ * The checkpoint position is the lowest ID that was emitted but not acknowledged yet, so that everything
+ * before it is known to be in Solr.
+ * <p>
+ * The tracker is passed through the sinks in the metadata. The sinks may acknowledge the model items themselves
+ * instead of their IDs, since the uploaded documents usually don't carry the model's ID unchanged.
+ */
+@ThreadSafe
+public final class CheckpointTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointTracker.class);
+
+    private final Path file;
+    private final long timestamp;
+    private final long startPosition;
+    private final long interval;
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+    private final Map<Object, Long> items = new IdentityHashMap<>();
+    private final AtomicLong nextSave;
+    private volatile long lastEmitted;
+    private volatile boolean emittedAny;
+    private boolean finished;
+
+    /**
+     * @param file          Where the checkpoint is persisted
+     * @param timestamp     The run's timestamp
+     * @param startPosition The run starts or resumes at this ID
+     * @param interval      Persist the checkpoint at most this often, in milliseconds
+     */
+    public CheckpointTracker(Path file, long timestamp, long startPosition, long interval) {
+        this.file = file;
+        this.timestamp = timestamp;
+        this.startPosition = startPosition;
+        this.interval = interval;
+        nextSave = new AtomicLong(System.currentTimeMillis() + interval);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Called for each ID before its item is passed to the upload. Must be called in ascending order.
+     */
+    public void emitted(Object id) {
+        long value = toLong(id);
+        if (emittedAny && value < lastEmitted) {
+            throw new IllegalStateException("IDs must be emitted in ascending order, but " + value + " came after "
+                    + lastEmitted);
+        }
+        inFlight.add(value);
+        lastEmitted = value;
+        emittedAny = true;
+    }
+
+    /**
+     * Called for each model item before it's passed to the upload, like {@link #emitted(Object)}.
+     * The item can be acknowledged by identity then.
+     */
+    public void emitted(Object item, Object id) {
+        long value = toLong(id);
+        synchronized (items) {
+            items.put(item, value);
+        }
+        emitted(value);
+    }
+
+    /**
+     * Called when the item that was emitted with {@link #emitted(Object, Object)} was uploaded, or was dropped
+     * on the way. Items which are not known, or were acknowledged before, are ignored.
+     */
+    public void acknowledgedItem(Object item) {
+        Long value;
+        synchronized (items) {
+            value = items.remove(item);
+        }
+        if (value != null) {
+            acknowledged(value);
+        }
+    }
+
+    /**
+     * Called when the document with that ID was uploaded, or was skipped intentionally.
+     */
+    public void acknowledged(Object id) {
+        Long value = asLong(id);
+        if (value == null || !inFlight.remove(value)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long next = nextSave.get();
+        if (now >= next && nextSave.compareAndSet(next, now + interval)) {
+            save();
+        }
+    }
+
+    /**
+     * The lowest ID that may not be uploaded yet.
+     */
+    public long getPosition() {
+        // Read lastEmitted before checking the set; every ID up to it was added before
+        boolean any = emittedAny;
+        long last = lastEmitted;
+        Long first = inFlight.ceiling(Long.MIN_VALUE);
+        long position;
+        if (first != null) {
+            position = first;
+        } else if (any) {
+            position = last == Long.MAX_VALUE ? last : last + 1;
+        } else {
+            return startPosition;
+        }
+        return Math.max(position, startPosition);
+    }
+
+    /**
+     * Persists the current progress. Failures are logged only, since the run itself can continue.
+     */
+    public synchronized void save() {
+        if (finished) {
+            return;
+        }
+        Checkpoint checkpoint = new Checkpoint(timestamp, getPosition());
+        try {
+            checkpoint.write(file);
+        } catch (IOException ex) {
+            logger.warn("Cannot write " + checkpoint + " to " + file, ex);
+            return;
+        }
+        logger.debug("Saved " + checkpoint);
+    }
+
+    /**
+     * Deletes the checkpoint after the run was completed.
+     */
+    public synchronized void finished() throws IOException {
+        finished = true;
+        Files.deleteIfExists(file);
+    }
+
+    private static long toLong(Object id) {
+        Long value = asLong(id);
+        if (value == null) {
+            throw new IllegalArgumentException("Checkpoints need numeric IDs, but got " + id);
+        }
+        return value;
+    }
+
+    private static Long asLong(Object id) {
+        if (id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte) {
+            return ((Number) id).longValue();
+        }
+        if (id instanceof String) {
+            try {
+                return Long.parseLong((String) id);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoints of run " + timestamp + " in " + file;
+    }
+}
@@ -0,0 +1,91 @@
+package org.fiolino.indexer;
+
+import org.fiolino.indexer.sinks.builders.CollectionAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds an index into a fresh collection, and then switches the alias to it.
+ * <p>
+ * The live collection stays untouched while the new one is loaded, so that users never query a half updated
+ * index, and no deletes are needed. After the alias points to the new collection, the old one is dropped.
+ * If loading fails, the new collection is dropped instead.
+ * <p>
+ * Clients must always address the index by the alias. An alias that points to several collections is refused,
+ * since the new collection would replace all of them.
+ * <p>
+ * Updates that go to the alias while the new collection is loaded only reach the old collection, so they are lost
+ * at the switch unless the loaded data already contains them. Incremental indexing should be paused during
+ * a rebuild, or the changed items must be indexed again afterwards.
+ */
+public final class CollectionRebuild {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionRebuild.class);
+
+    /**
+     * Loads the new collection.
+     */
+    @FunctionalInterface
+    public interface Load {
+        void into(String collection) throws Exception;
+    }
+
+    private final CollectionAdmin admin;
+    private final String alias;
+
+    public CollectionRebuild(CollectionAdmin admin, String alias) {
+        this.admin = admin;
+        this.alias = alias;
+    }
+
+    /**
+     * Runs the rebuild.
+     *
+     * @param timestamp Used in the new collection's name
+     * @param load      Fills the new collection; must commit it
+     * @return The name of the new collection
+     * @throws IllegalStateException If the alias points to more than one collection
+     */
+    public String run(long timestamp, Load load) throws Exception {
+        String collection = alias + "_" + timestamp;
+        String previous = admin.getAliasTarget(alias);
+        if (previous != null) {
+            previous = previous.trim();
+            if (previous.contains(",")) {
+                throw new IllegalStateException(alias + " points to several collections (" + previous
+                        + "), but a rebuild would replace all of them.");
+            }
+        }
+        logger.info("Rebuilding " + alias + " into " + collection);
+        admin.createCollection(collection);
+        try {
+            load.into(collection);
+        } catch (Exception | Error ex) {
+            logger.warn("Rebuild of " + alias + " failed; dropping " + collection);
+            try {
+                admin.deleteCollection(collection);
+            } catch (Exception ex2) {
+                ex.addSuppressed(ex2);
+            }
+            throw ex;
+        }
+
+        admin.setAlias(alias, collection);
+        logger.info(alias + " now points to " + collection);
+        if (previous == null || previous.isEmpty() || previous.equals(collection)) {
+            return collection;
+        }
+        try {
+            admin.deleteCollection(previous);
+        } catch (Exception ex) {
+            // The new collection is live already
+            logger.warn("Cannot drop old collection " + previous, ex);
+        }
+        return collection;
+    }
+
+    @Override
+    public String toString() {
+        return "Rebuild of " + alias + " via " + admin;
+    }
+}
@@ -0,0 +1,284 @@
+package org.fiolino.indexer;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of primitive longs, which can be modified from several threads.
+ * <p>
+ * The values are distributed over a number of stripes, each one being an open addressing hash table
+ * guarded by its own lock. Compared to a synchronized HashSet of Longs, there is no boxing, no entry node
+ * per value, and concurrent threads rarely contend on the same lock.
+ */
+@ThreadSafe
+public final class ConcurrentLongSet {
+
+    /**
+     * Marks free slots. The value itself is stored in a separate flag.
+     */
+    private static final long FREE = 0L;
+
+    /**
+     * Marks removed slots. The value itself is stored in a separate flag.
+     */
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    /**
+     * Creates a set with a default number of stripes.
+     *
+     * @param expectedSize How many values are expected; the set grows if needed
+     */
+    public ConcurrentLongSet(int expectedSize) {
+        this(expectedSize, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param expectedSize How many values are expected; the set grows if needed
+     * @param concurrency  The estimated number of concurrently modifying threads
+     */
+    public ConcurrentLongSet(int expectedSize, int concurrency) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(concurrency, 256)) * 2 - 1);
+        stripes = new Stripe[stripeCount];
+        int perStripe = Math.max(MIN_CAPACITY, expectedSize / stripeCount * 2);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+        stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    private static long mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    /**
+     * @return true if the value was not contained before
+     */
+    public boolean add(long value) {
+        long h = mix(value);
+        return stripeFor(h).add(value, (int) h);
+    }
+
+    /**
+     * @return true if the value was contained before
+     */
+    public boolean remove(long value) {
+        long h = mix(value);
+        return stripeFor(h).remove(value, (int) h);
+    }
+
+    public boolean contains(long value) {
+        long h = mix(value);
+        return stripeFor(h).contains(value, (int) h);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (Stripe s : stripes) {
+            if (s.size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Iterates over all values. Each stripe is copied when the iterator reaches it, so concurrent modifications
+     * don't harm, but may not be visible.
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int nextStripe;
+            private long[] current = new long[0];
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                while (index >= current.length) {
+                    if (nextStripe >= stripes.length) {
+                        return false;
+                    }
+                    current = stripes[nextStripe++].toArray();
+                    index = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current[index++];
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentLongSet with " + size() + " values";
+    }
+
+    private static final class Stripe {
+        private long[] keys;
+        private int mask;
+        private int size;
+        private int used;
+        private boolean containsFreeValue;
+        private boolean containsRemovedValue;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            int n = Integer.highestOneBit(Math.max(MIN_CAPACITY, capacity) * 2 - 1);
+            keys = new long[n];
+            mask = n - 1;
+            used = 0;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized boolean add(long value, int hash) {
+            if (value == FREE) {
+                if (containsFreeValue) {
+                    return false;
+                }
+                containsFreeValue = true;
+                size++;
+                return true;
+            }
+            if (value == REMOVED) {
+                if (containsRemovedValue) {
+                    return false;
+                }
+                containsRemovedValue = true;
+                size++;
+                return true;
+            }
+            int idx = hash & mask;
+            int tombstone = -1;
+            long k;
+            while ((k = keys[idx]) != FREE) {
+                if (k == value) {
+                    return false;
+                }
+                if (k == REMOVED && tombstone < 0) {
+                    tombstone = idx;
+                }
+                idx = (idx + 1) & mask;
+            }
+            size++;
+            if (tombstone >= 0) {
+                keys[tombstone] = value;
+            } else {
+                keys[idx] = value;
+                if (++used > (keys.length >> 1) + (keys.length >> 2)) {
+                    rehash();
+                }
+            }
+            return true;
+        }
+
+        synchronized boolean remove(long value, int hash) {
+            if (value == FREE) {
+                if (!containsFreeValue) {
+                    return false;
+                }
+                containsFreeValue = false;
+                size--;
+                return true;
+            }
+            if (value == REMOVED) {
+                if (!containsRemovedValue) {
+                    return false;
+                }
+                containsRemovedValue = false;
+                size--;
+                return true;
+            }
+            int idx = find(value, hash);
+            if (idx < 0) {
+                return false;
+            }
+            keys[idx] = REMOVED;
+            size--;
+            return true;
+        }
+
+        synchronized boolean contains(long value, int hash) {
+            if (value == FREE) {
+                return containsFreeValue;
+            }
+            if (value == REMOVED) {
+                return containsRemovedValue;
+            }
+            return find(value, hash) >= 0;
+        }
+
+        private int find(long value, int hash) {
+            int idx = hash & mask;
+            long k;
+            while ((k = keys[idx]) != FREE) {
+                if (k == value) {
+                    return idx;
+                }
+                idx = (idx + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void rehash() {
+            long[] old = keys;
+            int live = size - (containsFreeValue ? 1 : 0) - (containsRemovedValue ? 1 : 0);
+            allocate(Math.max(live * 2, old.length >> 1));
+            for (long k : old) {
+                if (k != FREE && k != REMOVED) {
+                    int idx = (int) mix(k) & mask;
+                    while (keys[idx] != FREE) {
+                        idx = (idx + 1) & mask;
+                    }
+                    keys[idx] = k;
+                    used++;
+                }
+            }
+        }
+
+        synchronized long[] toArray() {
+            long[] values = new long[size];
+            int i = 0;
+            if (containsFreeValue) {
+                values[i++] = FREE;
+            }
+            if (containsRemovedValue) {
+                values[i++] = REMOVED;
+            }
+            for (long k : keys) {
+                if (k != FREE && k != REMOVED) {
+                    values[i++] = k;
+                }
+            }
+            return values;
+        }
+    }
+}
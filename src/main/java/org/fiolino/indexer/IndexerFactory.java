@@ -1,18 +1,29 @@
 package org.fiolino.indexer;
 
 import org.apache.solr.client.solrj.SolrClient;
+import org.fiolino.common.container.Container;
 import org.fiolino.common.container.Schema;
 import org.fiolino.common.container.Selector;
 import org.fiolino.common.ioc.Beans;
 import org.fiolino.common.processing.sink.Sink;
 import org.fiolino.data.annotation.Category;
+import org.fiolino.indexer.miners.CheckpointingMiner;
 import org.fiolino.indexer.miners.DeleteStrategyInjector;
 import org.fiolino.indexer.miners.Miner;
+import org.fiolino.indexer.miners.PartitioningMiner;
+import org.fiolino.indexer.miners.RangeMiner;
+import org.fiolino.indexer.miners.ReactiveMiner;
+import org.fiolino.indexer.miners.ReactiveMinerAdapter;
+import org.fiolino.indexer.miners.ResumableMiner;
+import org.fiolino.indexer.sinks.CollectionSolrClient;
 import org.fiolino.indexer.sinks.builders.*;
 import org.fiolino.searcher.Realm;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -34,8 +45,10 @@ public class IndexerFactory<T> {
     protected final Schema schema;
     protected final Selector<Long> timestampSelector;
     protected final Selector<DeleteStrategy> deleteStrategySelector;
+    protected final Selector<CheckpointTracker> checkpointSelector;
 
     private Miner<T> miner;
+    private Miner<T> plainMiner;
 
     private final List<Predicate<? super T>> filters = new ArrayList<>();
 
@@ -46,6 +59,7 @@ public class IndexerFactory<T> {
         schema = new Schema(type.getSimpleName());
         timestampSelector = schema.createSelector();
         deleteStrategySelector = schema.createSelector();
+        checkpointSelector = schema.createSelector();
         solrClient = realm.getSolrClient();
     }
 
@@ -66,16 +80,50 @@ public class IndexerFactory<T> {
         return type;
     }
 
+    /**
+     * Builds the document factories of all given indexers in parallel, so that the first run doesn't have to.
+     *
+     * @return Completes when all factories are built
+     */
+    public static CompletableFuture<Void> prebuild(Collection<? extends IndexerFactory<?>> factories) {
+        IndexerProperties props = Beans.get(IndexerProperties.class);
+        List<Class<?>> types = new ArrayList<>(factories.size());
+        for (IndexerFactory<?> f : factories) {
+            types.add(f.getType());
+        }
+        return DocumentFactoryCache.prebuild(types, props.isCompileFillers(), ExecutionBackend.shared(props));
+    }
+
     public void setMiner(Miner<T> miner) {
+        plainMiner = miner;
         this.miner = wrapWithDeleteStrategy(miner);
     }
 
+    /**
+     * Uses a reactive miner, which fetches only as many items as the sinks can absorb.
+     * At most one root chunk is requested in advance.
+     */
+    public void setReactiveMiner(ReactiveMiner<T> miner) {
+        IndexerProperties props = Beans.get(IndexerProperties.class);
+        setMiner(new ReactiveMinerAdapter<>(miner, props.getRootChunkSize()));
+    }
+
     protected SinkBuilder<T> instantiatePlainSinkBuilder() {
-        return new SolrSinkBuilder<>(type.getSimpleName(), type, solrClient, schema, timestampSelector);
+        return new SolrSinkBuilder<>(type.getSimpleName(), type, solrClient, schema, timestampSelector,
+                checkpointSelector);
     }
 
     protected Cleaner createCleaner() {
-        return new DefaultCleaner(solrClient);
+        IndexerProperties props = Beans.get(IndexerProperties.class);
+        return new DefaultCleaner(solrClient, props.getDeleteChunkSize(), props.getDeleteThreads(),
+                ExecutionBackend.sharedForDeletions(props), type.getSimpleName());
+    }
+
+    /**
+     * Registers the IDs at the checkpoint tracker of resumable runs.
+     */
+    protected SinkBuilder<T> addCheckpointing(SinkBuilder<T> target) {
+        return new CheckpointingSinkBuilder<>(target, checkpointSelector, idFetcher);
     }
 
     protected SinkBuilder<T> addCleaner(SinkBuilder<T> target) {
@@ -96,7 +144,7 @@ public class IndexerFactory<T> {
 
     protected SinkBuilder<T> createSinkBuilder() {
         SinkBuilder<T> main = instantiatePlainSinkBuilder();
-        SinkBuilder<T> withCleaner = addCleaner(main);
+        SinkBuilder<T> withCleaner = addCleaner(addCheckpointing(main));
         return addFiltersTo(withCleaner);
     }
 
@@ -111,8 +159,31 @@ public class IndexerFactory<T> {
         return null;
     }
 
+    /**
+     * Injects the delete strategy. Full runs of a {@link ResumableMiner} are checkpointed if a checkpoint
+     * directory is configured.
+     */
     protected Miner<T> wrapWithDeleteStrategy(Miner<T> miner) {
-        return new DeleteStrategyInjector<>(miner, timestampSelector, deleteStrategySelector);
+        IndexerProperties props = Beans.get(IndexerProperties.class);
+        String directory = props.getCheckpointDirectory();
+        if (miner instanceof ResumableMiner && !directory.isEmpty()) {
+            return new CheckpointingMiner<>((ResumableMiner<T>) miner, timestampSelector, deleteStrategySelector,
+                    checkpointSelector, Paths.get(directory, type.getSimpleName() + ".checkpoint"),
+                    props.getCheckpointInterval());
+        }
+        return new DeleteStrategyInjector<>(partition(miner), timestampSelector, deleteStrategySelector);
+    }
+
+    /**
+     * Digs the key ranges of a {@link RangeMiner} concurrently if several mining threads are configured.
+     */
+    protected Miner<T> partition(Miner<T> miner) {
+        IndexerProperties props = Beans.get(IndexerProperties.class);
+        if (miner instanceof RangeMiner && props.getMiningThreads() > 1) {
+            return new PartitioningMiner<>((RangeMiner<T>) miner, props.getRootChunkSize(),
+                    PartitioningMiner.sharedPool(props.getMiningThreads()));
+        }
+        return miner;
     }
 
     protected Miner<T> createMiner() {
@@ -120,6 +191,56 @@ public class IndexerFactory<T> {
         return wrapWithDeleteStrategy(miner);
     }
 
+    /**
+     * Creates the sink builder that uploads into a fresh collection during a rebuild.
+     */
+    protected SinkBuilder<T> instantiateRebuildSinkBuilder(String collection) {
+        return new RebuildSinkBuilder<>(type.getSimpleName(), type, new CollectionSolrClient(solrClient, collection),
+                schema, timestampSelector);
+    }
+
+    /**
+     * Creates the admin that creates and drops the collections of a rebuild.
+     *
+     * @param alias The rebuilt alias; used as the config name if none is configured
+     */
+    protected CollectionAdmin createCollectionAdmin(String alias) {
+        IndexerProperties props = Beans.get(IndexerProperties.class);
+        String configName = props.getRebuildConfigName().isEmpty() ? alias : props.getRebuildConfigName();
+        return new SolrCollectionAdmin(solrClient, configName, props.getRebuildShards(), props.getRebuildReplicas());
+    }
+
+    /**
+     * Rebuilds the whole index into a fresh collection, and switches the alias to it when that is complete.
+     * <p>
+     * This is an alternative to a full run of the indexer: Users never see a half updated index, and nothing
+     * needs to be deleted. The alias must only contain this type, since all others would be missing afterwards,
+     * and it must point to a single collection.
+     * <p>
+     * Incremental updates of the same indexer during the rebuild still go to the old collection, and are lost
+     * when the alias is switched. Pause them while rebuilding, or index the changed IDs again afterwards.
+     *
+     * @param alias The alias by which the index is queried
+     * @return The name of the new collection
+     */
+    public String rebuild(String alias) throws IndexerException {
+        Miner<T> m = plainMiner == null ? instantiatePlainMiner() : plainMiner;
+        CollectionRebuild rebuild = new CollectionRebuild(createCollectionAdmin(alias), alias);
+        long startTime = System.currentTimeMillis();
+        try {
+            return rebuild.run(startTime, collection -> {
+                Sink<T> sink = addFiltersTo(instantiateRebuildSinkBuilder(collection)).createSink();
+                Container metadata = schema.createContainer();
+                // The documents get timestamps, so that later full runs can delete them
+                metadata.set(timestampSelector, startTime);
+                // Commits when done
+                m.digAllInto(sink, metadata);
+            });
+        } catch (Exception ex) {
+            throw new IndexerException("Rebuild of " + alias + " failed", ex);
+        }
+    }
+
     public Indexer<T> createIndexer() {
         if (miner == null) {
             miner = createMiner();
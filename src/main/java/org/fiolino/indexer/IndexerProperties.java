@@ -2,6 +2,7 @@ package org.fiolino.indexer;
 
 import org.fiolino.common.ioc.Component;
 import org.fiolino.common.ioc.Property;
+import org.fiolino.indexer.sinks.builders.ExecutionBackend;
 
 import java.util.Collections;
 import java.util.HashSet;
@@ -19,6 +20,39 @@ public class IndexerProperties {
     private final int solrThreads;
     private final long factoryTimeout;
     private final Set<String> ignoredAnalyticsLabels;
+    private final boolean compileFillers;
+    private final boolean softCommit;
+    private final long commitInterval;
+    private final long hardCommitInterval;
+    private final int commitWithin;
+    private final int deleteChunkSize;
+    private final int deleteThreads;
+    private final boolean skipUnchanged;
+    private final ExecutionBackend.Kind executor;
+    private final int executorThreads;
+    private final boolean adaptiveBatching;
+    private final int minUploadChunkSize;
+    private final int maxUploadChunkSize;
+    private final long targetUploadLatency;
+    private final long maxUploadBytes;
+    private final long uploadLinger;
+    private final long memoryBudget;
+    private final long estimatedItemSize;
+    private final boolean profileFillers;
+    private final int profileSampleRate;
+    private final int facetCacheSize;
+    private final Set<String> cachedRelations;
+    private final int relationCacheSize;
+    private final boolean directEncoding;
+    private final String spoolDirectory;
+    private final int spoolSegmentSize;
+    private final long spoolMaxBytes;
+    private final String checkpointDirectory;
+    private final long checkpointInterval;
+    private final String rebuildConfigName;
+    private final int rebuildShards;
+    private final int rebuildReplicas;
+    private final int miningThreads;
 
     public IndexerProperties(@Property(value = "org.fiolino.jdbc.windowSize", defaultValue = "500") int rootChunkSize,
                              @Property(value = "org.fiolino.document.fetchsize", defaultValue = "50") int documentFetchSize,
@@ -26,13 +60,86 @@ public class IndexerProperties {
                              @Property(value = "org.fiolino.solr.updatesBeforeCommit", defaultValue = "1000") int updatesBeforeCommit,
                              @Property(value = "org.fiolino.solr.threads", defaultValue = "-1") int solrThreads,
                              @Property(value = "org.fiolino.analytics.ignored.labels", defaultValue = "") String ignoredLabelsString,
-                             @Property(value = "org.fiolino.solr.warntime", defaultValue = "2500") long factoryTimeout) {
+                             @Property(value = "org.fiolino.solr.warntime", defaultValue = "2500") long factoryTimeout,
+                             @Property(value = "org.fiolino.indexer.compileFillers", defaultValue = "false") boolean compileFillers,
+                             @Property(value = "org.fiolino.solr.softCommit", defaultValue = "false") boolean softCommit,
+                             @Property(value = "org.fiolino.solr.commitInterval", defaultValue = "-1") long commitInterval,
+                             @Property(value = "org.fiolino.solr.hardCommitInterval", defaultValue = "-1") long hardCommitInterval,
+                             @Property(value = "org.fiolino.solr.commitWithin", defaultValue = "-1") int commitWithin,
+                             @Property(value = "org.fiolino.solr.deleteChunkSize", defaultValue = "1000") int deleteChunkSize,
+                             @Property(value = "org.fiolino.solr.deleteThreads", defaultValue = "1") int deleteThreads,
+                             @Property(value = "org.fiolino.solr.skipUnchanged", defaultValue = "false") boolean skipUnchanged,
+                             @Property(value = "org.fiolino.indexer.executor", defaultValue = "platform") String executor,
+                             @Property(value = "org.fiolino.indexer.executorThreads", defaultValue = "64") int executorThreads,
+                             @Property(value = "org.fiolino.solr.adaptivePageSize", defaultValue = "false") boolean adaptiveBatching,
+                             @Property(value = "org.fiolino.solr.minPageSize", defaultValue = "10") int minUploadChunkSize,
+                             @Property(value = "org.fiolino.solr.maxPageSize", defaultValue = "1000") int maxUploadChunkSize,
+                             @Property(value = "org.fiolino.solr.targetUploadLatency", defaultValue = "1000") long targetUploadLatency,
+                             @Property(value = "org.fiolino.solr.maxUploadBytes", defaultValue = "-1") long maxUploadBytes,
+                             @Property(value = "org.fiolino.solr.uploadLinger", defaultValue = "-1") long uploadLinger,
+                             @Property(value = "org.fiolino.indexer.memoryBudget", defaultValue = "-1") long memoryBudget,
+                             @Property(value = "org.fiolino.indexer.estimatedItemSize", defaultValue = "8192") long estimatedItemSize,
+                             @Property(value = "org.fiolino.indexer.profileFillers", defaultValue = "false") boolean profileFillers,
+                             @Property(value = "org.fiolino.indexer.profileSampleRate", defaultValue = "16") int profileSampleRate,
+                             @Property(value = "org.fiolino.indexer.facetCacheSize", defaultValue = "0") int facetCacheSize,
+                             @Property(value = "org.fiolino.indexer.cachedRelations", defaultValue = "") String cachedRelationsString,
+                             @Property(value = "org.fiolino.indexer.relationCacheSize", defaultValue = "1000") int relationCacheSize,
+                             @Property(value = "org.fiolino.solr.directEncoding", defaultValue = "false") boolean directEncoding,
+                             @Property(value = "org.fiolino.solr.spoolDirectory", defaultValue = "") String spoolDirectory,
+                             @Property(value = "org.fiolino.solr.spoolSegmentSize", defaultValue = "67108864") int spoolSegmentSize,
+                             @Property(value = "org.fiolino.solr.spoolMaxBytes", defaultValue = "1073741824") long spoolMaxBytes,
+                             @Property(value = "org.fiolino.indexer.checkpointDirectory", defaultValue = "") String checkpointDirectory,
+                             @Property(value = "org.fiolino.indexer.checkpointInterval", defaultValue = "60000") long checkpointInterval,
+                             @Property(value = "org.fiolino.solr.rebuildConfigName", defaultValue = "") String rebuildConfigName,
+                             @Property(value = "org.fiolino.solr.rebuildShards", defaultValue = "1") int rebuildShards,
+                             @Property(value = "org.fiolino.solr.rebuildReplicas", defaultValue = "1") int rebuildReplicas,
+                             @Property(value = "org.fiolino.indexer.miningThreads", defaultValue = "1") int miningThreads) {
         this.rootChunkSize = rootChunkSize;
         this.documentFetchSize = documentFetchSize;
         this.uploadChunkSize = uploadChunkSize;
         this.updatesBeforeCommit = updatesBeforeCommit;
         this.solrThreads = solrThreads;
         this.factoryTimeout = factoryTimeout;
+        this.compileFillers = compileFillers;
+        this.softCommit = softCommit;
+        this.commitInterval = commitInterval;
+        this.hardCommitInterval = hardCommitInterval;
+        this.commitWithin = commitWithin;
+        this.deleteChunkSize = deleteChunkSize;
+        this.deleteThreads = deleteThreads;
+        this.skipUnchanged = skipUnchanged;
+        this.executor = ExecutionBackend.Kind.valueOf(executor.trim().toUpperCase());
+        this.executorThreads = executorThreads;
+        this.adaptiveBatching = adaptiveBatching;
+        this.minUploadChunkSize = minUploadChunkSize;
+        this.maxUploadChunkSize = maxUploadChunkSize;
+        this.targetUploadLatency = targetUploadLatency;
+        this.maxUploadBytes = maxUploadBytes;
+        this.uploadLinger = uploadLinger;
+        this.memoryBudget = memoryBudget;
+        this.estimatedItemSize = estimatedItemSize;
+        this.profileFillers = profileFillers;
+        this.profileSampleRate = profileSampleRate;
+        this.facetCacheSize = facetCacheSize;
+        HashSet<String> relations = new HashSet<>();
+        for (String r : cachedRelationsString.split(",")) {
+            r = r.trim();
+            if (!r.isEmpty()) {
+                relations.add(r);
+            }
+        }
+        this.cachedRelations = Collections.unmodifiableSet(relations);
+        this.relationCacheSize = relationCacheSize;
+        this.directEncoding = directEncoding;
+        this.spoolDirectory = spoolDirectory.trim();
+        this.spoolSegmentSize = spoolSegmentSize;
+        this.spoolMaxBytes = spoolMaxBytes;
+        this.checkpointDirectory = checkpointDirectory.trim();
+        this.checkpointInterval = checkpointInterval;
+        this.rebuildConfigName = rebuildConfigName.trim();
+        this.rebuildShards = rebuildShards;
+        this.rebuildReplicas = rebuildReplicas;
+        this.miningThreads = miningThreads;
         HashSet<String> ignoredLabels = new HashSet<>();
         for (String l : ignoredLabelsString.split(",")) {
             ignoredLabels.add(l.toLowerCase());
@@ -68,6 +175,241 @@ public class IndexerProperties {
         return factoryTimeout;
     }
 
+    /**
+     * If set, the document fillers of each model type are compiled into a single generated class.
+     */
+    public boolean isCompileFillers() {
+        return compileFillers;
+    }
+
+    /**
+     * If set, commits during the run are soft commits; only the final commit is a hard one.
+     */
+    public boolean isSoftCommit() {
+        return softCommit;
+    }
+
+    /**
+     * Commit at least every this many milliseconds while documents are pending, or -1.
+     */
+    public long getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * Do a hard commit at least every this many milliseconds, even if soft commits are used, or -1.
+     */
+    public long getHardCommitInterval() {
+        return hardCommitInterval;
+    }
+
+    /**
+     * The commitWithin parameter for each update in milliseconds, or -1.
+     */
+    public int getCommitWithin() {
+        return commitWithin;
+    }
+
+    /**
+     * How many IDs are deleted with a single request.
+     */
+    public int getDeleteChunkSize() {
+        return deleteChunkSize;
+    }
+
+    /**
+     * How many delete requests may be sent in parallel.
+     */
+    public int getDeleteThreads() {
+        return deleteThreads;
+    }
+
+    /**
+     * If set, documents whose content fingerprint equals the indexed one are not uploaded again.
+     * Needs a long field named "fingerprint" in the Solr schema.
+     */
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    /**
+     * Which threads run the parallel uploads: platform, bounded or virtual.
+     */
+    public ExecutionBackend.Kind getExecutor() {
+        return executor;
+    }
+
+    /**
+     * The number of threads if the executor is bounded.
+     */
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    /**
+     * If set, the upload chunk size adapts to the observed upload latency, starting with the page size.
+     */
+    public boolean isAdaptiveBatching() {
+        return adaptiveBatching;
+    }
+
+    /**
+     * The minimum upload chunk size if batching is adaptive.
+     */
+    public int getMinUploadChunkSize() {
+        return minUploadChunkSize;
+    }
+
+    /**
+     * The maximum upload chunk size if batching is adaptive.
+     */
+    public int getMaxUploadChunkSize() {
+        return maxUploadChunkSize;
+    }
+
+    /**
+     * How many milliseconds a single upload should take at most if batching is adaptive.
+     */
+    public long getTargetUploadLatency() {
+        return targetUploadLatency;
+    }
+
+    /**
+     * Send an upload chunk when its documents have approximately this many bytes, or -1 for no limit.
+     */
+    public long getMaxUploadBytes() {
+        return maxUploadBytes;
+    }
+
+    /**
+     * Send an upload chunk when its first document is this many milliseconds old, or -1 for no limit.
+     */
+    public long getUploadLinger() {
+        return uploadLinger;
+    }
+
+    /**
+     * How many bytes all queued items of all indexers may take together, or -1 for no limit.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * The estimated number of bytes of a queued model item, including its Solr document.
+     */
+    public long getEstimatedItemSize() {
+        return estimatedItemSize;
+    }
+
+    /**
+     * If set, the costs of each field and relation filler are measured and logged after each run.
+     */
+    public boolean isProfileFillers() {
+        return profileFillers;
+    }
+
+    /**
+     * When profiling fillers, only one of this many calls is measured.
+     */
+    public int getProfileSampleRate() {
+        return profileSampleRate;
+    }
+
+    /**
+     * How many serialized facet relations are cached during a run, or 0 to serialize them for every document.
+     * Disabled by default.
+     */
+    public int getFacetCacheSize() {
+        return facetCacheSize;
+    }
+
+    /**
+     * The simple names of the model types whose to-one relations are cached as if they were annotated
+     * with {@link CachedRelation}.
+     */
+    public Set<String> getCachedRelations() {
+        return cachedRelations;
+    }
+
+    /**
+     * How many targets of each relation in {@link #getCachedRelations()} are cached.
+     */
+    public int getRelationCacheSize() {
+        return relationCacheSize;
+    }
+
+    /**
+     * If set, documents are encoded directly into the upload requests instead of building SolrInputDocuments.
+     * Only sink builders which support it use this; subclasses have to enable it explicitly.
+     */
+    public boolean isDirectEncoding() {
+        return directEncoding;
+    }
+
+    /**
+     * If not empty, upload chunks are spooled to this local directory and uploaded asynchronously.
+     */
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * The size of each spool segment file in bytes.
+     */
+    public int getSpoolSegmentSize() {
+        return spoolSegmentSize;
+    }
+
+    /**
+     * Spooling blocks while this many bytes are not uploaded yet, or -1 for no limit.
+     */
+    public long getSpoolMaxBytes() {
+        return spoolMaxBytes;
+    }
+
+    /**
+     * If not empty, full runs of resumable miners persist checkpoints to this local directory.
+     */
+    public String getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    /**
+     * How often a checkpoint is persisted during a full run, in milliseconds.
+     */
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * The config set of collections created by a rebuild; if empty, it's named like the alias.
+     */
+    public String getRebuildConfigName() {
+        return rebuildConfigName;
+    }
+
+    /**
+     * The number of shards of collections created by a rebuild.
+     */
+    public int getRebuildShards() {
+        return rebuildShards;
+    }
+
+    /**
+     * The replication factor of collections created by a rebuild.
+     */
+    public int getRebuildReplicas() {
+        return rebuildReplicas;
+    }
+
+    /**
+     * How many threads dig the key ranges of a full run concurrently, if the miner supports that.
+     */
+    public int getMiningThreads() {
+        return miningThreads;
+    }
+
     @Override
     public String toString() {
         return "Properties";
@@ -7,8 +7,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Michael Kuhlmann on 14.01.2016.
@@ -17,32 +21,121 @@ public class RemainingIDsDeleteStrategy implements DeleteStrategy {
 
     private static final Logger logger = LoggerFactory.getLogger(RemainingIDsDeleteStrategy.class);
 
+    /**
+     * How many of the deleted IDs are logged.
+     */
+    private static final int LOGGED_SAMPLE_SIZE = 10;
+
+    /**
+     * Used for non-numeric IDs; null if numericIDs is used.
+     */
     private final Set<Object> idsToUpdate;
 
+    /**
+     * Used for numeric IDs; null if idsToUpdate is used.
+     */
+    private final ConcurrentLongSet numericIDs;
+
+    /**
+     * @param idsToUpdate Must be thread safe if the indexer is running in parallel
+     */
     public RemainingIDsDeleteStrategy(Set<Object> idsToUpdate) {
         this.idsToUpdate = idsToUpdate;
+        this.numericIDs = null;
+    }
+
+    public RemainingIDsDeleteStrategy(ConcurrentLongSet numericIDs) {
+        this.idsToUpdate = null;
+        this.numericIDs = numericIDs;
+    }
+
+    /**
+     * Creates a strategy for the requested IDs. Numeric IDs are kept as primitives.
+     */
+    public static RemainingIDsDeleteStrategy forIDs(Object... ids) {
+        if (allNumeric(ids)) {
+            ConcurrentLongSet set = new ConcurrentLongSet(ids.length);
+            for (Object id : ids) {
+                set.add(((Number) id).longValue());
+            }
+            return new RemainingIDsDeleteStrategy(set);
+        }
+        Set<Object> set = Collections.newSetFromMap(new ConcurrentHashMap<>(ids.length * 2));
+        Collections.addAll(set, ids);
+        return new RemainingIDsDeleteStrategy(set);
+    }
+
+    private static boolean allNumeric(Object[] ids) {
+        for (Object id : ids) {
+            if (!isIntegral(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIntegral(Object id) {
+        return id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte;
     }
 
     @Override
     public void accept(Object id) {
-        idsToUpdate.remove(id);
+        if (numericIDs == null) {
+            idsToUpdate.remove(id);
+        } else if (isIntegral(id)) {
+            numericIDs.remove(((Number) id).longValue());
+        }
     }
 
     @Override
     public boolean deleteRemaining(Cleaner cleaner) throws SolrServerException, IOException {
-        if (idsToUpdate.isEmpty()) {
+        int remaining = numericIDs == null ? idsToUpdate.size() : numericIDs.size();
+        if (remaining == 0) {
             return false;
         }
-        List<String> idList = new ArrayList<>(idsToUpdate.size());
-        for (Object id : idsToUpdate) {
-            idList.add(makeStringID(id));
+        List<String> sample = new ArrayList<>(LOGGED_SAMPLE_SIZE);
+        Iterator<String> it = remainingIDs();
+        while (it.hasNext() && sample.size() < LOGGED_SAMPLE_SIZE) {
+            sample.add(it.next());
         }
-        logger.info("Removing these unprocessed but requested ids: " + idList);
-        cleaner.deleteByIDs(idList);
-        return true;
+        logger.info("Removing " + remaining + " unprocessed but requested ids, e.g. " + sample);
+        long deleted = cleaner.deleteByIDs(remainingIDs());
+        return deleted > 0;
+    }
+
+    private Iterator<String> remainingIDs() {
+        if (numericIDs == null) {
+            Iterator<Object> it = idsToUpdate.iterator();
+            return new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    return makeStringID(it.next());
+                }
+            };
+        }
+        PrimitiveIterator.OfLong it = numericIDs.iterator();
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return makeStringID(it.nextLong());
+            }
+        };
     }
 
-    private String makeStringID(Object id) {
+    /**
+     * The value of Solr's unique key field for the given model ID.
+     */
+    public static String makeStringID(Object id) {
         return "MLS_" + id;
     }
 }
@@ -0,0 +1,9 @@
+package org.fiolino.indexer.metrics;
+
+/**
+ * JMX view of a live value.
+ */
+public interface GaugeMBean {
+
+    long getValue();
+}
@@ -0,0 +1,30 @@
+package org.fiolino.indexer.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the distribution of some value of a pipeline stage, like a latency or a batch size.
+ * <p>
+ * Implementations must be thread safe and cheap, since they are called in the hot path.
+ */
+@FunctionalInterface
+public interface Histogram {
+
+    /**
+     * Records nothing.
+     */
+    Histogram NONE = value -> {
+        // Nothing to record
+    };
+
+    void record(long value);
+
+    /**
+     * Records the time since some start, in microseconds.
+     *
+     * @param startNanos The value of {@link System#nanoTime()} when the measured operation started
+     */
+    default void recordSince(long startNanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+}
@@ -0,0 +1,86 @@
+package org.fiolino.indexer.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps {@link StageHistogram}s and registers them, together with all gauges, in the platform MBean server.
+ * <p>
+ * The object names are like org.fiolino.indexer:type=Stage,stage=solr.add,model=Article.
+ */
+@ThreadSafe
+public class JmxMetricsRegistry implements MetricsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(JmxMetricsRegistry.class);
+
+    private static final String DOMAIN = "org.fiolino.indexer";
+
+    private final MBeanServer server;
+    private final ConcurrentMap<String, StageHistogram> histograms = new ConcurrentHashMap<>();
+
+    public JmxMetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxMetricsRegistry(MBeanServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public Histogram histogram(String stage, String type) {
+        return histograms.computeIfAbsent(stage + '/' + type, k -> {
+            StageHistogram h = new StageHistogram();
+            register(h, "Stage", stage, type);
+            return h;
+        });
+    }
+
+    @Override
+    public void gauge(String stage, String type, LongSupplier value) {
+        register(new Gauge(value), "Gauge", stage, type);
+    }
+
+    /**
+     * The histogram of this stage and type, or null if it wasn't created yet.
+     */
+    public StageHistogram getHistogram(String stage, String type) {
+        return histograms.get(stage + '/' + type);
+    }
+
+    private void register(Object mbean, String kind, String stage, String type) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + kind + ",stage=" + ObjectName.quote(stage)
+                    + ",model=" + ObjectName.quote(type));
+            synchronized (server) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(mbean, name);
+            }
+        } catch (JMException ex) {
+            logger.warn("Cannot register " + stage + " of " + type + " in JMX.", ex);
+        }
+    }
+
+    public static final class Gauge implements GaugeMBean {
+        private final LongSupplier value;
+
+        Gauge(LongSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public long getValue() {
+            return value.getAsLong();
+        }
+    }
+}
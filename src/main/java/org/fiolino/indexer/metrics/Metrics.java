@@ -0,0 +1,41 @@
+package org.fiolino.indexer.metrics;
+
+/**
+ * Holds the registry all indexer stages report to.
+ */
+public final class Metrics {
+
+    public static final String CREATE_DOCUMENT = "document.create";
+    public static final String EXISTING_LOOKUP = "existing.lookup";
+    public static final String BATCH_WAIT = "batch.wait";
+    public static final String BATCH_SIZE = "batch.size";
+    public static final String SOLR_ADD = "solr.add";
+    public static final String SOLR_COMMIT = "solr.commit";
+    public static final String COMMIT_RETRIES = "solr.commit.retries";
+    public static final String DELETE = "solr.delete";
+    public static final String DELETED_IDS = "solr.delete.ids";
+    public static final String QUEUE_DEPTH = "queue.depth";
+    public static final String EXECUTOR_THREADS = "executor.threads";
+    public static final String EXECUTOR_QUEUE = "executor.queue";
+    public static final String EXECUTOR_DELAYED = "executor.delayed";
+    public static final String MEMORY_USED = "memory.used";
+    public static final String MEMORY_THROTTLED = "memory.throttled";
+    public static final String SPOOL_PENDING = "spool.pending";
+
+    private static volatile MetricsRegistry registry = new JmxMetricsRegistry();
+
+    private Metrics() {
+        throw new AssertionError("Static class");
+    }
+
+    public static MetricsRegistry get() {
+        return registry;
+    }
+
+    /**
+     * Installs another registry. Only stages that are created afterwards will use it.
+     */
+    public static void set(MetricsRegistry newRegistry) {
+        registry = newRegistry;
+    }
+}
@@ -0,0 +1,39 @@
+package org.fiolino.indexer.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Creates the histograms and gauges of the indexer stages.
+ * <p>
+ * Each metric is identified by the stage name, like "solr.add", and the indexed type.
+ * Latencies are recorded in microseconds.
+ * <p>
+ * The default implementation is {@link JmxMetricsRegistry}; others can be installed with {@link Metrics#set}.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * A registry that records nothing.
+     */
+    MetricsRegistry NONE = new MetricsRegistry() {
+        @Override
+        public Histogram histogram(String stage, String type) {
+            return Histogram.NONE;
+        }
+
+        @Override
+        public void gauge(String stage, String type, LongSupplier value) {
+            // Nothing to register
+        }
+    };
+
+    /**
+     * Gets or creates the histogram for this stage and type.
+     */
+    Histogram histogram(String stage, String type);
+
+    /**
+     * Registers some live value, like a queue depth. A gauge registered again replaces the previous one.
+     */
+    void gauge(String stage, String type, LongSupplier value);
+}
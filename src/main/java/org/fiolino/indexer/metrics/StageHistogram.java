@@ -0,0 +1,106 @@
+package org.fiolino.indexer.metrics;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram with power-of-two buckets. Percentiles are approximated by the upper bound
+ * of their bucket, which is precise enough to find a bottleneck.
+ */
+@ThreadSafe
+public final class StageHistogram implements Histogram, StageHistogramMBean {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    @Override
+    public void record(long value) {
+        long v = Math.max(0, value);
+        count.increment();
+        sum.add(v);
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+        long m;
+        while (v > (m = max.get())) {
+            if (max.compareAndSet(m, v)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getSum() {
+        return sum.sum();
+    }
+
+    @Override
+    public double getMean() {
+        long c = count.sum();
+        return c == 0 ? 0.0 : (double) sum.sum() / c;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public long getP50() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public long getP95() {
+        return percentile(0.95);
+    }
+
+    @Override
+    public long getP99() {
+        return percentile(0.99);
+    }
+
+    private long percentile(double p) {
+        long total = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : Math.min(max.get(), (1L << i) - 1);
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        sum.reset();
+        max.set(0);
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMean() + ", p50=" + getP50() + ", p99=" + getP99()
+                + ", max=" + getMax();
+    }
+}
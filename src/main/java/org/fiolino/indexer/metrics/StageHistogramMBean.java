@@ -0,0 +1,23 @@
+package org.fiolino.indexer.metrics;
+
+/**
+ * JMX view of a {@link StageHistogram}. Latencies are in microseconds.
+ */
+public interface StageHistogramMBean {
+
+    long getCount();
+
+    long getSum();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP95();
+
+    long getP99();
+
+    void reset();
+}
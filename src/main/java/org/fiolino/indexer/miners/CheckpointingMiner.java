@@ -0,0 +1,91 @@
+package org.fiolino.indexer.miners;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.Checkpoint;
+import org.fiolino.indexer.CheckpointTracker;
+import org.fiolino.indexer.DeleteStrategy;
+import org.fiolino.indexer.TimestampDeleteStragegy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+
+/**
+ * Injects the delete strategy like the {@link DeleteStrategyInjector}, and makes full runs resumable.
+ * <p>
+ * A full run persists its progress in a checkpoint file. If a checkpoint exists when a full run starts,
+ * then the previous run was interrupted; this one continues at the checkpoint's position, and uses the
+ * original timestamp, so that the final cleanup keeps the documents that were uploaded before.
+ * The checkpoint is deleted when the run was committed.
+ */
+public class CheckpointingMiner<T> extends DeleteStrategyInjector<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointingMiner.class);
+
+    private final ResumableMiner<? extends T> target;
+    private final Selector<Long> timestampSelector;
+    private final Selector<DeleteStrategy> deleteStrategySelector;
+    private final Selector<CheckpointTracker> checkpointSelector;
+    private final Path checkpointFile;
+    private final long checkpointInterval;
+
+    /**
+     * @param checkpointFile     Where the checkpoint is stored
+     * @param checkpointInterval Persist the checkpoint at most this often, in milliseconds
+     */
+    public CheckpointingMiner(ResumableMiner<? extends T> target,
+                              Selector<Long> timestampSelector,
+                              Selector<DeleteStrategy> deleteStrategySelector,
+                              Selector<CheckpointTracker> checkpointSelector,
+                              Path checkpointFile, long checkpointInterval) {
+        super(target, timestampSelector, deleteStrategySelector);
+        this.target = target;
+        this.timestampSelector = timestampSelector;
+        this.deleteStrategySelector = deleteStrategySelector;
+        this.checkpointSelector = checkpointSelector;
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    @Override
+    public void digAllInto(Sink<? super T> targetSink, Container metadata) throws Exception {
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+        long startTime;
+        long position;
+        if (checkpoint == null) {
+            startTime = System.currentTimeMillis();
+            position = Long.MIN_VALUE;
+        } else {
+            logger.info("Resuming interrupted run from " + checkpoint);
+            startTime = checkpoint.getTimestamp();
+            position = checkpoint.getPosition();
+        }
+        metadata.set(timestampSelector, startTime);
+        metadata.set(deleteStrategySelector, new TimestampDeleteStragegy(startTime));
+        CheckpointTracker tracker = new CheckpointTracker(checkpointFile, startTime, position, checkpointInterval);
+        metadata.set(checkpointSelector, tracker);
+        // Keep the timestamp even if the run dies before the first interval
+        tracker.save();
+
+        try {
+            target.digAllInto(targetSink, metadata, position);
+        } catch (Exception | Error ex) {
+            tracker.save();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void digIDsInto(Sink<? super T> targetSink, Container metadata, Object[] ids) throws Exception {
+        // Single updates are not checkpointed
+        metadata.remove(checkpointSelector);
+        super.digIDsInto(targetSink, metadata, ids);
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpointing " + target;
+    }
+}
@@ -0,0 +1,192 @@
+package org.fiolino.indexer.miners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the items of a cursor or paged source, fetching only as many as were requested.
+ * <p>
+ * Subclasses only implement {@link #fetch(int)}. Each fetch is limited by the outstanding demand and the
+ * maximum page size. Fetching and emitting run on the executor, one task at a time; when there is no demand,
+ * no thread is occupied.
+ * <p>
+ * A cursor can be read only once, so there may be only one subscriber.
+ * <p>
+ * If the subscriber throws from onNext, which it must not, the subscription is cancelled, and the exception is
+ * signalled with onError.
+ */
+public abstract class CursorPublisher<T> implements Flow.Publisher<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CursorPublisher.class);
+
+    private final Executor executor;
+    private final int maxPageSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param executor    Where the cursor is read
+     * @param maxPageSize Fetch at most this many items at once
+     */
+    protected CursorPublisher(Executor executor, int maxPageSize) {
+        if (maxPageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + maxPageSize);
+        }
+        this.executor = executor;
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Fetches the next items.
+     *
+     * @param max Fetch at most this many
+     * @return The items, or an empty list if the cursor is exhausted
+     */
+    protected abstract List<? extends T> fetch(int max) throws Exception;
+
+    /**
+     * Releases the cursor. Called once when it's exhausted, failed, or the subscription was cancelled.
+     */
+    protected void close() throws Exception {
+        // Nothing to release by default
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(this + " was subscribed already"));
+            return;
+        }
+        CursorSubscription subscription = new CursorSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class CursorSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingRuns = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile long illegalRequest;
+
+        // Only accessed by the running task
+        private boolean done;
+
+        CursorSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                illegalRequest = n;
+            } else {
+                demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (pendingRuns.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = pendingRuns.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            long d;
+            while (!cancelled && illegalRequest == 0 && (d = demand.get()) > 0) {
+                List<? extends T> page;
+                try {
+                    page = fetch((int) Math.min(d, maxPageSize));
+                } catch (Exception ex) {
+                    finish(ex, true);
+                    return;
+                }
+                if (page.isEmpty()) {
+                    finish(null, true);
+                    return;
+                }
+                int emitted = 0;
+                for (T item : page) {
+                    if (cancelled) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(item);
+                    } catch (Throwable t) {
+                        cancelled = true;
+                        finish(t, true);
+                        return;
+                    }
+                    emitted++;
+                }
+                demand.addAndGet(-emitted);
+            }
+            if (illegalRequest != 0) {
+                finish(new IllegalArgumentException("Requested " + illegalRequest + " items"), true);
+            } else if (cancelled) {
+                finish(null, false);
+            }
+        }
+
+        private void finish(Throwable error, boolean signal) {
+            done = true;
+            try {
+                close();
+            } catch (Exception ex) {
+                if (error == null) {
+                    error = ex;
+                } else {
+                    error.addSuppressed(ex);
+                }
+            }
+            if (!signal) {
+                if (error != null) {
+                    logger.warn("Cannot close cancelled " + CursorPublisher.this, error);
+                }
+                return;
+            }
+            try {
+                if (error == null) {
+                    subscriber.onComplete();
+                } else {
+                    subscriber.onError(error);
+                }
+            } catch (Throwable t) {
+                // Nothing else can be done; the subscription is finished anyway
+                logger.error("Subscriber of " + CursorPublisher.this + " failed on its final signal", t);
+            }
+        }
+    }
+}
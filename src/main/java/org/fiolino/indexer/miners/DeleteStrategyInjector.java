@@ -7,10 +7,6 @@ import org.fiolino.indexer.DeleteStrategy;
 import org.fiolino.indexer.RemainingIDsDeleteStrategy;
 import org.fiolino.indexer.TimestampDeleteStragegy;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Created by Kuli on 14/10/2016.
  */
@@ -39,9 +35,7 @@ public class DeleteStrategyInjector<T> extends WrappedMiner<T> {
     public void digIDsInto(Sink<? super T> targetSink, Container metadata, Object[] ids) throws Exception {
         long startTime = System.currentTimeMillis();
         metadata.set(timestampSelector, startTime);
-        Set<Object> idSet = new HashSet<>(ids.length * 2);
-        Collections.addAll(idSet, ids);
-        metadata.set(deleteStrategySelector, new RemainingIDsDeleteStrategy(idSet));
+        metadata.set(deleteStrategySelector, RemainingIDsDeleteStrategy.forIDs(ids));
 
         super.digIDsInto(targetSink, metadata, ids);
     }
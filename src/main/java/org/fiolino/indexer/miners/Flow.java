@@ -0,0 +1,54 @@
+package org.fiolino.indexer.miners;
+
+/**
+ * The reactive streams interfaces, with the same signatures and rules as java.util.concurrent.Flow,
+ * which isn't available before Java 9.
+ */
+public final class Flow {
+
+    private Flow() {
+        throw new AssertionError("Static class");
+    }
+
+    /**
+     * Produces items for subscribers, but only as many as they requested.
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+
+        /**
+         * Adds a subscriber, which gets {@link Subscriber#onSubscribe(Subscription)} first.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receives items. The methods are called one at a time, never concurrently.
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and one subscriber.
+     */
+    public interface Subscription {
+
+        /**
+         * Signals demand for n more items. A non positive n is an error.
+         */
+        void request(long n);
+
+        /**
+         * Stops sending items, maybe after some which were sent already.
+         */
+        void cancel();
+    }
+}
@@ -20,7 +20,7 @@ public interface Miner<T> {
     void digIDsInto(Sink<? super T> targetSink, Container metadata, Object[] ids) throws Exception;
 
     /**
-     * Digs all data into the sink.
+     * Digs all data into the sink. Commits after being finished.
      *
      * @param targetSink Where to put the data
      * @param metadata   The metadata for the sink
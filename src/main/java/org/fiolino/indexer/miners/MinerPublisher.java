@@ -0,0 +1,142 @@
+package org.fiolino.indexer.miners;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.Sink;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes the items of a plain {@link Miner}.
+ * <p>
+ * The miner runs on the executor and pushes into a sink that blocks while there is no demand.
+ * When the subscription is cancelled, the next item fails with a {@link CancellationException},
+ * which ends the miner.
+ */
+public final class MinerPublisher<T> implements Flow.Publisher<T> {
+
+    private final Miner<? extends T> miner;
+    private final Container metadata;
+    private final Object[] ids;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param ids The IDs to dig for, or null for all
+     */
+    public MinerPublisher(Miner<? extends T> miner, Container metadata, @Nullable Object[] ids, Executor executor) {
+        this.miner = miner;
+        this.metadata = metadata;
+        this.ids = ids;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(this + " was subscribed already"));
+            return;
+        }
+        DemandSink sink = new DemandSink(subscriber);
+        subscriber.onSubscribe(sink);
+        executor.execute(sink);
+    }
+
+    /**
+     * Waits for demand before it passes an item on. The miner's commit is ignored; the end of the run is signalled
+     * when the miner returns.
+     */
+    private final class DemandSink implements Sink<T>, Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super T> subscriber;
+
+        // Guarded by this
+        private long demand;
+        private boolean cancelled;
+        private long illegalRequest;
+
+        DemandSink(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                illegalRequest = n;
+                cancelled = true;
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        @Override
+        public void accept(T value, Container metadata) throws InterruptedException {
+            synchronized (this) {
+                while (demand == 0 && !cancelled) {
+                    wait();
+                }
+                if (cancelled) {
+                    throw new CancellationException("Subscription was cancelled");
+                }
+                demand--;
+            }
+            subscriber.onNext(value);
+        }
+
+        @Override
+        public void commit(Container metadata) {
+            // The subscriber decides when to commit
+        }
+
+        @Override
+        public void run() {
+            Throwable failure = null;
+            try {
+                if (ids == null) {
+                    miner.digAllInto(this, metadata);
+                } else {
+                    miner.digIDsInto(this, metadata, ids);
+                }
+            } catch (Exception | Error ex) {
+                failure = ex;
+            }
+            long illegal;
+            boolean wasCancelled;
+            synchronized (this) {
+                illegal = illegalRequest;
+                wasCancelled = cancelled;
+            }
+            if (illegal != 0) {
+                subscriber.onError(new IllegalArgumentException("Requested " + illegal + " items"));
+            } else if (wasCancelled) {
+                // Nobody listens anymore
+            } else if (failure != null) {
+                subscriber.onError(failure);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Publisher of " + miner;
+    }
+}
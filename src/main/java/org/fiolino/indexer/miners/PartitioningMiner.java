@@ -0,0 +1,147 @@
+package org.fiolino.indexer.miners;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Digs the key space of a {@link RangeMiner} in ranges, which are mined concurrently on a work stealing pool.
+ * <p>
+ * All ranges share the same metadata, so they have the same timestamp and delete strategy as injected by the
+ * {@link DeleteStrategyInjector} around this. The items are passed to the target sink one at a time, since
+ * the sinks expect a single producer; only the digging itself runs in parallel.
+ * The sink is committed once when all ranges are done.
+ */
+public class PartitioningMiner<T> extends WrappedMiner<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitioningMiner.class);
+
+    private static ForkJoinPool sharedPool;
+
+    private final RangeMiner<? extends T> target;
+    private final int rangeSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param rangeSize How many keys each range spans
+     * @param pool      Where the ranges are mined
+     */
+    public PartitioningMiner(RangeMiner<? extends T> target, int rangeSize, ForkJoinPool pool) {
+        super(target);
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("Range size must be positive: " + rangeSize);
+        }
+        this.target = target;
+        this.rangeSize = rangeSize;
+        this.pool = pool;
+    }
+
+    /**
+     * The pool that is shared by all partitioning miners. Its parallelism is set on the first call.
+     */
+    public static synchronized ForkJoinPool sharedPool(int parallelism) {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(parallelism);
+        }
+        return sharedPool;
+    }
+
+    @Override
+    public void digAllInto(Sink<? super T> targetSink, Container metadata) throws Exception {
+        long min = target.getMinKey();
+        long max = target.getMaxKey();
+        if (min <= max) {
+            long span;
+            try {
+                span = Math.subtractExact(max, min);
+            } catch (ArithmeticException ex) {
+                // Billions of ranges even with the largest range size, so this can't be meant
+                throw new IllegalStateException("Keys " + min + " to " + max + " of " + target
+                        + " span more than " + Long.MAX_VALUE + " keys", ex);
+            }
+            long ranges = span / rangeSize + 1;
+            logger.info("Mining " + target + " in " + ranges + " ranges of " + rangeSize + " keys with parallelism "
+                    + pool.getParallelism());
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Sink<T> handOver = new HandOverSink<>(targetSink);
+            pool.invoke(new RangeTask(handOver, metadata, min, ranges, failure));
+            Exception ex = failure.get();
+            if (ex != null) {
+                throw ex;
+            }
+        }
+        targetSink.commit(metadata);
+    }
+
+    /**
+     * Mines a number of consecutive ranges, splitting them as long as there is more than one.
+     */
+    private final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Sink<T> sink;
+        private final Container metadata;
+        private final long first;
+        private final long count;
+        private final AtomicReference<Exception> failure;
+
+        RangeTask(Sink<T> sink, Container metadata, long first, long count, AtomicReference<Exception> failure) {
+            this.sink = sink;
+            this.metadata = metadata;
+            this.first = first;
+            this.count = count;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (failure.get() != null) {
+                return;
+            }
+            if (count > 1) {
+                long half = count / 2;
+                invokeAll(new RangeTask(sink, metadata, first, half, failure),
+                        new RangeTask(sink, metadata, first + half * rangeSize, count - half, failure));
+                return;
+            }
+            long last = first + rangeSize - 1;
+            if (last < first) {
+                // Overflow at the top of the key space
+                last = Long.MAX_VALUE;
+            }
+            try {
+                target.digRangeInto(sink, metadata, first, last);
+            } catch (Exception ex) {
+                if (!failure.compareAndSet(null, ex)) {
+                    failure.get().addSuppressed(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the items of all ranges to the target one at a time.
+     */
+    private static final class HandOverSink<T> extends ChainedSink<T, T> {
+
+        HandOverSink(Sink<? super T> target) {
+            super(target);
+        }
+
+        @Override
+        public synchronized void accept(T value, Container metadata) throws Exception {
+            getTarget().accept(value, metadata);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Partitioning " + target;
+    }
+}
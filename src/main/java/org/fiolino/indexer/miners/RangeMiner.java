@@ -0,0 +1,32 @@
+package org.fiolino.indexer.miners;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.Sink;
+
+/**
+ * A miner that can dig parts of its numeric key space separately, so that these can be mined concurrently.
+ */
+public interface RangeMiner<T> extends Miner<T> {
+
+    /**
+     * The lowest existing key.
+     */
+    long getMinKey() throws Exception;
+
+    /**
+     * The highest existing key.
+     */
+    long getMaxKey() throws Exception;
+
+    /**
+     * Digs all items with keys in the given range into the sink. Doesn't commit.
+     * <p>
+     * May be called from several threads at the same time.
+     *
+     * @param targetSink Where to put the data
+     * @param metadata   The metadata for the sink
+     * @param from       The lowest key, inclusive
+     * @param to         The highest key, inclusive
+     */
+    void digRangeInto(Sink<? super T> targetSink, Container metadata, long from, long to) throws Exception;
+}
@@ -0,0 +1,51 @@
+package org.fiolino.indexer.miners;
+
+import org.fiolino.common.container.Container;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A miner that publishes its items instead of pushing them into a sink, so that it fetches only as many items
+ * as the subscriber requested.
+ * <p>
+ * Use a {@link ReactiveMinerAdapter} to run it as a plain {@link Miner}.
+ */
+public interface ReactiveMiner<T> {
+
+    /**
+     * Publishes the items with the given IDs.
+     *
+     * @param metadata The metadata of the run
+     * @param ids      The ids to look for
+     */
+    Flow.Publisher<T> publishIDs(Container metadata, Object[] ids);
+
+    /**
+     * Publishes all items.
+     *
+     * @param metadata The metadata of the run
+     */
+    Flow.Publisher<T> publishAll(Container metadata);
+
+    /**
+     * Publishes the items of a plain miner. The miner runs on the executor, and blocks while there is no demand.
+     */
+    static <T> ReactiveMiner<T> of(Miner<? extends T> miner, Executor executor) {
+        return new ReactiveMiner<T>() {
+            @Override
+            public Flow.Publisher<T> publishIDs(Container metadata, Object[] ids) {
+                return new MinerPublisher<>(miner, metadata, ids, executor);
+            }
+
+            @Override
+            public Flow.Publisher<T> publishAll(Container metadata) {
+                return new MinerPublisher<>(miner, metadata, null, executor);
+            }
+
+            @Override
+            public String toString() {
+                return "Reactive " + miner;
+            }
+        };
+    }
+}
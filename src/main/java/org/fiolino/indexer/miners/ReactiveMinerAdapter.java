@@ -0,0 +1,50 @@
+package org.fiolino.indexer.miners;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.Sink;
+
+/**
+ * Runs a {@link ReactiveMiner} as a plain {@link Miner}, so that it can be wrapped and used like any other.
+ * <p>
+ * The items are passed into the sink by a {@link SinkSubscriber}, which signals demand only when the sink has
+ * absorbed them. The sink is committed by the calling thread when the publisher is done.
+ * <p>
+ * This is neither a {@link ResumableMiner} nor a {@link RangeMiner}, so full runs are neither checkpointed
+ * nor partitioned; only the delete strategy is injected as usual.
+ */
+public class ReactiveMinerAdapter<T> implements Miner<T> {
+
+    private final ReactiveMiner<? extends T> target;
+    private final int prefetch;
+
+    /**
+     * @param prefetch How many items may be requested before the sink accepted them
+     */
+    public ReactiveMinerAdapter(ReactiveMiner<? extends T> target, int prefetch) {
+        this.target = target;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public void digIDsInto(Sink<? super T> targetSink, Container metadata, Object[] ids) throws Exception {
+        drain(target.publishIDs(metadata, ids), targetSink, metadata);
+    }
+
+    @Override
+    public void digAllInto(Sink<? super T> targetSink, Container metadata) throws Exception {
+        drain(target.publishAll(metadata), targetSink, metadata);
+    }
+
+    private void drain(Flow.Publisher<? extends T> publisher, Sink<? super T> targetSink,
+                       Container metadata) throws Exception {
+        SinkSubscriber<T> subscriber = new SinkSubscriber<>(targetSink, metadata, prefetch);
+        publisher.subscribe(subscriber);
+        subscriber.await();
+        targetSink.commit(metadata);
+    }
+
+    @Override
+    public String toString() {
+        return "Adapted " + target;
+    }
+}
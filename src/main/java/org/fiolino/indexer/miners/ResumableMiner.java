@@ -0,0 +1,26 @@
+package org.fiolino.indexer.miners;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.Sink;
+
+/**
+ * A miner whose full runs can be resumed after they were interrupted.
+ * <p>
+ * It digs the items ordered by their numeric ID, so that the run can continue from the last checkpoint.
+ */
+public interface ResumableMiner<T> extends Miner<T> {
+
+    /**
+     * Digs all items whose ID is at least the given position, in ascending order of their IDs.
+     *
+     * @param targetSink Where to put the data
+     * @param metadata   The metadata for the sink
+     * @param position   The first ID to dig for
+     */
+    void digAllInto(Sink<? super T> targetSink, Container metadata, long position) throws Exception;
+
+    @Override
+    default void digAllInto(Sink<? super T> targetSink, Container metadata) throws Exception {
+        digAllInto(targetSink, metadata, Long.MIN_VALUE);
+    }
+}
@@ -0,0 +1,124 @@
+package org.fiolino.indexer.miners;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.Sink;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Passes published items into a sink, and requests more only when the sink has absorbed them.
+ * <p>
+ * At most the prefetch number of items is requested but not yet accepted. Since the sink blocks while its
+ * queues are full or the memory budget is exhausted, no more demand is signalled upstream then.
+ * <p>
+ * The sink isn't committed here; that's up to whoever awaits the end.
+ */
+public final class SinkSubscriber<T> implements Flow.Subscriber<T> {
+
+    private final Sink<? super T> sink;
+    private final Container metadata;
+    private final int prefetch;
+    private final int replenish;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // Also read by the awaiting thread to cancel
+    private volatile Flow.Subscription subscription;
+
+    // Only accessed within the serial signals
+    private int consumed;
+    private boolean cancelled;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param prefetch How many items may be requested in advance
+     */
+    public SinkSubscriber(Sink<? super T> sink, Container metadata, int prefetch) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("Prefetch must be positive: " + prefetch);
+        }
+        this.sink = sink;
+        this.metadata = metadata;
+        this.prefetch = prefetch;
+        replenish = Math.max(1, prefetch / 2);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (cancelled) {
+            return;
+        }
+        try {
+            sink.accept(item, metadata);
+        } catch (Throwable ex) {
+            // Also errors; onNext must not throw, or the publisher would be left in an undefined state
+            cancelled = true;
+            subscription.cancel();
+            failure = ex;
+            done.countDown();
+            return;
+        }
+        if (++consumed >= replenish) {
+            int n = consumed;
+            consumed = 0;
+            subscription.request(n);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (!cancelled) {
+            failure = throwable;
+            done.countDown();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        done.countDown();
+    }
+
+    /**
+     * Waits until the publisher is done.
+     *
+     * @throws Exception If the publisher failed, or the sink didn't accept some item
+     */
+    public void await() throws Exception {
+        try {
+            done.await();
+        } catch (InterruptedException ex) {
+            Flow.Subscription s = subscription;
+            if (s != null) {
+                s.cancel();
+            }
+            throw ex;
+        }
+        Throwable t = failure;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new ExecutionException(t);
+    }
+
+    @Override
+    public String toString() {
+        return "Subscriber for " + sink;
+    }
+}
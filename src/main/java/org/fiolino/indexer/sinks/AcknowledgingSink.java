@@ -0,0 +1,85 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.CloneableSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.CheckpointTracker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Acknowledges model items at the run's {@link CheckpointTracker} after its target accepted them.
+ * <p>
+ * Behind the batching sink, this acknowledges the items that the documents of each upload chunk were created from.
+ * On the lanes, this acknowledges model items which didn't become a document, e.g. because their filler timed out,
+ * so that they don't hold back the checkpoint.
+ */
+public final class AcknowledgingSink<T> extends ChainedSink<T, T> implements CloneableSink<T, AcknowledgingSink<T>> {
+
+    private final Selector<CheckpointTracker> selector;
+    private final DocumentOrigins origins;
+    private final Function<? super T, ? extends Iterable<?>> items;
+    private final boolean documents;
+
+    private AcknowledgingSink(Sink<? super T> target, Selector<CheckpointTracker> selector, DocumentOrigins origins,
+                              Function<? super T, ? extends Iterable<?>> items, boolean documents) {
+        super(target);
+        this.selector = selector;
+        this.origins = origins;
+        this.items = items;
+        this.documents = documents;
+    }
+
+    /**
+     * Acknowledges the origins of the documents in each uploaded chunk.
+     */
+    public static <E> AcknowledgingSink<List<E>> acknowledgingDocuments(Sink<? super List<E>> target,
+                                                                         Selector<CheckpointTracker> selector,
+                                                                         DocumentOrigins origins) {
+        // Copied, because the target may remove some of them
+        return new AcknowledgingSink<>(target, selector, origins, ArrayList::new, true);
+    }
+
+    /**
+     * Acknowledges each model item that has no document after the target processed it.
+     */
+    public static <T> AcknowledgingSink<T> acknowledgingDropped(Sink<? super T> target,
+                                                                Selector<CheckpointTracker> selector,
+                                                                DocumentOrigins origins) {
+        return new AcknowledgingSink<>(target, selector, origins, Collections::singleton, false);
+    }
+
+    @Override
+    public void accept(T value, Container metadata) throws Exception {
+        Iterable<?> accepted = items.apply(value);
+        getTarget().accept(value, metadata);
+        CheckpointTracker tracker = metadata.get(selector);
+        for (Object item : accepted) {
+            if (documents) {
+                Object origin = origins.remove(item);
+                if (tracker != null && origin != null) {
+                    tracker.acknowledgedItem(origin);
+                }
+            } else if (tracker != null && !origins.hasDocument(item)) {
+                tracker.acknowledgedItem(item);
+            }
+        }
+    }
+
+    @Override
+    public AcknowledgingSink<T> createClone() {
+        return new AcknowledgingSink<>(targetForCloning(), selector, origins, items, documents);
+    }
+
+    @Override
+    public void partialCommit(Container metadata) throws Exception {
+        if (getTarget() instanceof CloneableSink) {
+            ((CloneableSink<?, ?>) getTarget()).partialCommit(metadata);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.fiolino.indexer.sinks;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls the batch size by the observed upload latency, in an additive-increase/multiplicative-decrease manner.
+ * <p>
+ * As long as batches are uploaded faster than the target latency, the size grows by a fixed step.
+ * If an upload is slower, or if it fails, the size is halved. The size always stays within the given bounds.
+ * <p>
+ * One instance is shared by all lanes uploading to the same Solr core.
+ */
+@ThreadSafe
+public final class AdaptiveBatchSize {
+
+    private final int min;
+    private final int max;
+    private final int step;
+    private final long targetNanos;
+
+    private volatile int current;
+
+    /**
+     * @param initial       The size to start with
+     * @param min           The minimum size
+     * @param max           The maximum size
+     * @param targetLatency How long one upload should take at most
+     * @param unit          The unit of targetLatency
+     */
+    public AdaptiveBatchSize(int initial, int min, int max, long targetLatency, TimeUnit unit) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Invalid bounds: " + min + " - " + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.step = Math.max(1, min / 2);
+        this.targetNanos = unit.toNanos(targetLatency);
+        this.current = Math.max(min, Math.min(max, initial));
+    }
+
+    /**
+     * The number of items a batch should have now.
+     */
+    public int current() {
+        return current;
+    }
+
+    /**
+     * Reports an upload.
+     *
+     * @param count  How many items were uploaded
+     * @param nanos  How long it took
+     * @param failed Whether it failed
+     */
+    public synchronized void record(int count, long nanos, boolean failed) {
+        int size = current;
+        if (failed || nanos > targetNanos) {
+            current = Math.max(min, size / 2);
+        } else if (count >= size) {
+            // Only grow if the batch was really full; small final batches say nothing about the limit
+            current = Math.min(max, size + step);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Adaptive batch size " + current + " (" + min + " - " + max + ")";
+    }
+}
@@ -0,0 +1,39 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.metrics.Histogram;
+
+import java.util.List;
+
+/**
+ * Collects items into batches whose size is controlled by an {@link AdaptiveBatchSize}.
+ */
+public final class AdaptiveBatchingSink<T> extends BatchingSink<T, AdaptiveBatchingSink<T>> {
+
+    private final AdaptiveBatchSize batchSize;
+
+    public AdaptiveBatchingSink(Sink<List<T>> target, AdaptiveBatchSize batchSize) {
+        this(target, batchSize, Histogram.NONE, Histogram.NONE);
+    }
+
+    public AdaptiveBatchingSink(Sink<List<T>> target, AdaptiveBatchSize batchSize,
+                                Histogram batchWaitMetrics, Histogram batchSizeMetrics) {
+        super(target, batchWaitMetrics, batchSizeMetrics);
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected boolean isFull(int count) {
+        return count >= batchSize.current();
+    }
+
+    @Override
+    protected void batchSent(int count, long nanos, boolean failed) {
+        batchSize.record(count, nanos, failed);
+    }
+
+    @Override
+    public AdaptiveBatchingSink<T> createClone() {
+        return new AdaptiveBatchingSink<>(targetForCloning(), batchSize, getBatchWait(), getBatchSize());
+    }
+}
@@ -0,0 +1,300 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient.RemoteSolrException;
+import org.fiolino.indexer.metrics.Histogram;
+import org.fiolino.indexer.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Commits to Solr in a dedicated thread, as decided by some {@link CommitPolicy}.
+ * <p>
+ * The uploading threads only report how many documents they added; they never wait for a commit.
+ * Commit requests from all of them are coalesced, so that there is at most one commit in flight.
+ * <p>
+ * A failed background commit is retried later, with a growing delay. If it still failed when the run is finished,
+ * {@link #commitNow()} throws that failure.
+ */
+@ThreadSafe
+public class BackgroundCommitter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundCommitter.class);
+
+    /**
+     * How often a commit is tried when Solr answers with "try again later".
+     */
+    private static final int MAX_RETRIES = 10;
+
+    /**
+     * The default delay after the first failed background commit. It's doubled with each further failure.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final SolrClient solrClient;
+    private final CommitPolicy policy;
+    private final String name;
+    private final long initialBackoffMillis;
+
+    private final AtomicInteger pendingSinceSoft = new AtomicInteger();
+    private final AtomicInteger pendingSinceHard = new AtomicInteger();
+    private volatile long lastSoftCommit = System.currentTimeMillis();
+    private volatile long lastHardCommit = lastSoftCommit;
+
+    /**
+     * Set while a commit is queued or running.
+     */
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+
+    /**
+     * Set while the run is being finished; no further background commits are started then.
+     */
+    private volatile boolean finishing;
+
+    /**
+     * The last background commit failure, if no commit succeeded since then.
+     */
+    private volatile Exception lastFailure;
+
+    // Only accessed by the committer thread
+    private int consecutiveFailures;
+
+    private ScheduledExecutorService executor;
+
+    private final Histogram commitLatency;
+    private final Histogram commitRetries;
+
+    public BackgroundCommitter(SolrClient solrClient, CommitPolicy policy, String name) {
+        this(solrClient, policy, name, INITIAL_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param initialBackoffMillis How long to wait after the first failed background commit
+     */
+    BackgroundCommitter(SolrClient solrClient, CommitPolicy policy, String name, long initialBackoffMillis) {
+        this.solrClient = solrClient;
+        this.policy = policy;
+        this.name = name;
+        this.initialBackoffMillis = initialBackoffMillis;
+        commitLatency = Metrics.get().histogram(Metrics.SOLR_COMMIT, name);
+        commitRetries = Metrics.get().histogram(Metrics.COMMIT_RETRIES, name);
+    }
+
+    public CommitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Called by the uploading threads after documents were added. Never blocks on a commit.
+     */
+    public void documentsAdded(int count) {
+        pendingSinceSoft.addAndGet(count);
+        pendingSinceHard.addAndGet(count);
+        checkPolicy();
+    }
+
+    private CommitState currentState() {
+        long now = System.currentTimeMillis();
+        return new CommitState(pendingSinceSoft.get(), pendingSinceHard.get(), now - lastSoftCommit, now - lastHardCommit);
+    }
+
+    private void checkPolicy() {
+        if (commitScheduled.get() || policy.decide(currentState()) == CommitPolicy.Action.NONE) {
+            return;
+        }
+        if (commitScheduled.compareAndSet(false, true)) {
+            try {
+                executor().execute(this::commitWhileNeeded);
+            } catch (RejectedExecutionException ex) {
+                // The run is being finished right now, so the final commit will do the job
+                commitScheduled.set(false);
+            }
+        }
+    }
+
+    private synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "Solr committer (" + name + ")");
+                t.setDaemon(true);
+                return t;
+            });
+            // A retry that's still waiting is dropped; the final commit will do it
+            e.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor = e;
+            long interval = policy.getCheckInterval();
+            if (interval > 0) {
+                executor.scheduleWithFixedDelay(this::checkPolicy, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Runs in the committer thread. Keeps committing as long as the policy wants to, so that requests arriving
+     * during a running commit are handled by the next one.
+     * <p>
+     * After a failure, the next attempt is scheduled with a growing delay; until then, no other commit is started.
+     */
+    private void commitWhileNeeded() {
+        try {
+            CommitPolicy.Action action;
+            while (!finishing && (action = policy.decide(currentState())) != CommitPolicy.Action.NONE) {
+                if (!commit(action)) {
+                    scheduleRetry();
+                    return;
+                }
+            }
+        } catch (RuntimeException | Error ex) {
+            commitScheduled.set(false);
+            throw ex;
+        }
+        commitScheduled.set(false);
+        // Documents may have arrived between the last check and the reset
+        checkPolicy();
+    }
+
+    private void scheduleRetry() {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << Math.min(consecutiveFailures - 1, 16));
+        try {
+            executor().schedule(this::commitWhileNeeded, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // The run is being finished right now, so the final commit will do the job
+            commitScheduled.set(false);
+        }
+    }
+
+    /**
+     * @return false if the commit failed
+     */
+    private boolean commit(CommitPolicy.Action action) {
+        int soft = pendingSinceSoft.getAndSet(0);
+        int hard = action == CommitPolicy.Action.HARD ? pendingSinceHard.getAndSet(0) : 0;
+        try {
+            commitWithRetries(action == CommitPolicy.Action.SOFT);
+        } catch (IOException | SolrServerException | RuntimeException ex) {
+            consecutiveFailures++;
+            logger.warn("Background commit in " + name + " failed " + consecutiveFailures
+                    + " times; documents remain pending.", ex);
+            lastFailure = ex;
+            pendingSinceSoft.addAndGet(soft);
+            pendingSinceHard.addAndGet(hard);
+            return false;
+        }
+        consecutiveFailures = 0;
+        lastFailure = null;
+        long now = System.currentTimeMillis();
+        lastSoftCommit = now;
+        if (action == CommitPolicy.Action.HARD) {
+            lastHardCommit = now;
+        }
+        return true;
+    }
+
+    private void commitWithRetries(boolean softCommit) throws IOException, SolrServerException {
+        // fix maxWarmingSearchers exception (BM-10630)
+        int count = 0;
+        long start = System.nanoTime();
+        while (true) {
+            try {
+                solrClient.commit(true, true, softCommit);
+                commitLatency.recordSince(start);
+                commitRetries.record(count);
+                return;
+            } catch (RemoteSolrException e) {
+                if (count++ >= MAX_RETRIES || e.getMessage() == null || !e.getMessage().contains("try again later")) {
+                    throw e;
+                }
+                logger.warn("Got exception from solr and will try commit later...", e);
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finishes the run: Waits for a running commit, then does a final hard commit if anything is not durable yet,
+     * or if the last background commit failed.
+     * The background thread is stopped; it will be restarted when new documents arrive.
+     * <p>
+     * A failed background commit is only logged if the final commit succeeds, since then all documents are durable.
+     *
+     * @return The number of documents that were committed with this call
+     * @throws IOException         If the final commit failed; the last background failure is suppressed then
+     * @throws SolrServerException If the final commit failed; the last background failure is suppressed then
+     */
+    public int commitNow() throws IOException, SolrServerException {
+        shutdown();
+        Exception backgroundFailure = lastFailure;
+        lastFailure = null;
+        int pending = pendingSinceHard.getAndSet(0);
+        pendingSinceSoft.set(0);
+        if (pending > 0 || backgroundFailure != null) {
+            try {
+                commitWithRetries(false);
+            } catch (IOException | SolrServerException | RuntimeException ex) {
+                if (backgroundFailure != null) {
+                    ex.addSuppressed(backgroundFailure);
+                }
+                throw ex;
+            }
+            long now = System.currentTimeMillis();
+            lastSoftCommit = now;
+            lastHardCommit = now;
+        }
+        if (backgroundFailure != null) {
+            logger.info("Final commit in " + name + " succeeded after a failed background commit: " + backgroundFailure);
+        }
+        return pending;
+    }
+
+    private void shutdown() {
+        ScheduledExecutorService e;
+        synchronized (this) {
+            e = executor;
+        }
+        if (e == null) {
+            return;
+        }
+        finishing = true;
+        e.shutdown();
+        try {
+            while (!e.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("Still waiting for running commit in " + name);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finishing = false;
+        }
+        synchronized (this) {
+            if (executor == e) {
+                executor = null;
+            }
+        }
+        // A dropped retry didn't reset these
+        consecutiveFailures = 0;
+        commitScheduled.set(false);
+    }
+
+    @Override
+    public String toString() {
+        return "Committer for " + name + " (" + policy + ")";
+    }
+}
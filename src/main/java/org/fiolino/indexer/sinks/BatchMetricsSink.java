@@ -0,0 +1,58 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.CloneableSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.metrics.Histogram;
+
+import java.util.List;
+
+/**
+ * Records the batches of an AggregatingSink, which can't be observed from inside. It's put between the
+ * AggregatingSink and its target.
+ * <p>
+ * The batch wait is the time since the lane handed over its previous batch, or since the lane was created.
+ * <p>
+ * Instances are not thread safe; each parallel lane gets its own clone.
+ */
+public final class BatchMetricsSink<T> extends ChainedSink<List<T>, List<T>>
+        implements CloneableSink<List<T>, BatchMetricsSink<T>> {
+
+    private final Histogram batchWait;
+    private final Histogram batchSize;
+    private long lastHandover = System.nanoTime();
+
+    /**
+     * @param batchWait Records how long each batch was filled
+     * @param batchSize Records the number of items per batch
+     */
+    public BatchMetricsSink(Sink<? super List<T>> target, Histogram batchWait, Histogram batchSize) {
+        super(target);
+        this.batchWait = batchWait;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void accept(List<T> value, Container metadata) throws Exception {
+        batchWait.recordSince(lastHandover);
+        batchSize.record(value.size());
+        try {
+            getTarget().accept(value, metadata);
+        } finally {
+            lastHandover = System.nanoTime();
+        }
+    }
+
+    @Override
+    public BatchMetricsSink<T> createClone() {
+        return new BatchMetricsSink<>(targetForCloning(), batchWait, batchSize);
+    }
+
+    @Override
+    public void partialCommit(Container metadata) throws Exception {
+        if (getTarget() instanceof CloneableSink) {
+            ((CloneableSink<?, ?>) getTarget()).partialCommit(metadata);
+        }
+    }
+}
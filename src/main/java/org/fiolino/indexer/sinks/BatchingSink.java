@@ -0,0 +1,181 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.CloneableSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.metrics.Histogram;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects incoming items into batches, like an AggregatingSink, but lets subclasses decide when a batch is full.
+ * <p>
+ * Each batch upload is measured, so that subclasses can adapt to the observed latency. The time items wait
+ * in the batch and the batch sizes are recorded in the given histograms.
+ * <p>
+ * Instances are not thread safe; each parallel lane gets its own clone.
+ */
+public abstract class BatchingSink<T, S extends BatchingSink<T, S>> implements CloneableSink<T, S> {
+
+    private final Sink<List<T>> target;
+    private final Histogram batchWait;
+    private final Histogram batchSize;
+    private List<T> batch;
+    private Container lastMetadata;
+    private long batchStarted;
+
+    protected BatchingSink(Sink<List<T>> target) {
+        this(target, Histogram.NONE, Histogram.NONE);
+    }
+
+    /**
+     * @param batchWait Records how long the first item of each batch waited
+     * @param batchSize Records the number of items per batch
+     */
+    protected BatchingSink(Sink<List<T>> target, Histogram batchWait, Histogram batchSize) {
+        this.target = target;
+        this.batchWait = batchWait;
+        this.batchSize = batchSize;
+        batch = new ArrayList<>();
+    }
+
+    protected final Histogram getBatchWait() {
+        return batchWait;
+    }
+
+    protected final Histogram getBatchSize() {
+        return batchSize;
+    }
+
+    protected final Sink<List<T>> getTarget() {
+        return target;
+    }
+
+    protected final Sink<List<T>> targetForCloning() {
+        return ChainedSink.targetForCloning(target);
+    }
+
+    @Override
+    public void accept(T value, Container metadata) throws Exception {
+        Batch full = add(value, metadata);
+        if (full != null) {
+            full.send();
+        }
+    }
+
+    /**
+     * Adds an item to the current batch.
+     *
+     * @return The batch, if it's full now and must be sent; null otherwise
+     */
+    @Nullable
+    protected final Batch add(T value, Container metadata) {
+        if (batch.isEmpty()) {
+            batchStarted = System.nanoTime();
+        }
+        batch.add(value);
+        lastMetadata = metadata;
+        added(value, batch.size());
+        return isFull(batch.size()) ? detach() : null;
+    }
+
+    /**
+     * Called for each item after it was added to the current batch.
+     *
+     * @param count The number of items in the current batch, including this one
+     */
+    protected void added(T value, int count) {
+        // Nothing to do by default
+    }
+
+    /**
+     * Decides whether the current batch shall be sent now.
+     *
+     * @param count The number of items in the current batch
+     */
+    protected abstract boolean isFull(int count);
+
+    /**
+     * Called after a batch was sent to the target, or failed to do so.
+     *
+     * @param count  The number of items in that batch
+     * @param nanos  How long the target needed
+     * @param failed Whether the target threw an exception
+     */
+    protected void batchSent(int count, long nanos, boolean failed) {
+        // Nothing to do by default
+    }
+
+    /**
+     * Sends the current batch to the target, if there's any.
+     */
+    protected final void flush() throws Exception {
+        Batch pending = detach();
+        if (pending != null) {
+            pending.send();
+        }
+    }
+
+    /**
+     * Takes the current batch out, so that it can be sent later. New items go into a new batch then.
+     *
+     * @return The batch, or null if there are no pending items
+     */
+    @Nullable
+    protected final Batch detach() {
+        if (batch.isEmpty()) {
+            return null;
+        }
+        Batch detached = new Batch(batch, lastMetadata);
+        batch = new ArrayList<>(detached.items.size());
+        lastMetadata = null;
+        batchWait.recordSince(batchStarted);
+        batchSize.record(detached.items.size());
+        return detached;
+    }
+
+    /**
+     * A batch which was taken out of the sink, but not sent yet.
+     */
+    protected final class Batch {
+        private final List<T> items;
+        private final Container metadata;
+
+        private Batch(List<T> items, Container metadata) {
+            this.items = items;
+            this.metadata = metadata;
+        }
+
+        /**
+         * Sends the items to the target.
+         */
+        public void send() throws Exception {
+            int count = items.size();
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                target.accept(items, metadata);
+                failed = false;
+            } finally {
+                batchSent(count, System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    @Override
+    public void partialCommit(Container metadata) throws Exception {
+        flush();
+        if (target instanceof CloneableSink) {
+            ((CloneableSink<?, ?>) target).partialCommit(metadata);
+        }
+    }
+
+    @Override
+    public void commit(Container metadata) throws Exception {
+        flush();
+        target.commit(metadata);
+    }
+}
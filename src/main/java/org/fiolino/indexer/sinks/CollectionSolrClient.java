@@ -0,0 +1,47 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.util.NamedList;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+
+/**
+ * Sends all requests without an explicit collection to a fixed one, using a shared client.
+ * <p>
+ * Closing this client doesn't close the shared one.
+ */
+@ThreadSafe
+public final class CollectionSolrClient extends SolrClient {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SolrClient delegate;
+    private final String collection;
+
+    public CollectionSolrClient(SolrClient delegate, String collection) {
+        this.delegate = delegate;
+        this.collection = collection;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    @Override
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+        return delegate.request(request, collection == null ? this.collection : collection);
+    }
+
+    @Override
+    public void close() {
+        // The delegate is shared
+    }
+
+    @Override
+    public String toString() {
+        return delegate + " on " + collection;
+    }
+}
@@ -0,0 +1,44 @@
+package org.fiolino.indexer.sinks;
+
+/**
+ * Two policies, where the stronger commit wins.
+ */
+final class CombinedCommitPolicy implements CommitPolicy {
+    private final CommitPolicy first;
+    private final CommitPolicy second;
+
+    CombinedCommitPolicy(CommitPolicy first, CommitPolicy second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public Action decide(CommitState state) {
+        return first.decide(state).max(second.decide(state));
+    }
+
+    @Override
+    public long getCheckInterval() {
+        return minPositive(first.getCheckInterval(), second.getCheckInterval());
+    }
+
+    @Override
+    public int getCommitWithin() {
+        return (int) minPositive(first.getCommitWithin(), second.getCommitWithin());
+    }
+
+    private static long minPositive(long a, long b) {
+        if (a <= 0) {
+            return b;
+        }
+        if (b <= 0) {
+            return a;
+        }
+        return Math.min(a, b);
+    }
+
+    @Override
+    public String toString() {
+        return first + " or " + second;
+    }
+}
@@ -0,0 +1,36 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.Sink;
+
+import java.util.function.Consumer;
+
+/**
+ * Passes everything to its target, and runs some action after the target was committed, even if that failed.
+ * <p>
+ * Used on the producer side, where commit is called once per run.
+ */
+public final class CommitHookSink<T> extends ChainedSink<T, T> {
+
+    private final Consumer<? super Container> afterCommit;
+
+    public CommitHookSink(Sink<? super T> target, Consumer<? super Container> afterCommit) {
+        super(target);
+        this.afterCommit = afterCommit;
+    }
+
+    @Override
+    public void accept(T value, Container metadata) throws Exception {
+        getTarget().accept(value, metadata);
+    }
+
+    @Override
+    public void commit(Container metadata) throws Exception {
+        try {
+            super.commit(metadata);
+        } finally {
+            afterCommit.accept(metadata);
+        }
+    }
+}
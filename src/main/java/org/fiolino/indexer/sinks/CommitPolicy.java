@@ -0,0 +1,168 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.indexer.IndexerProperties;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the {@link BackgroundCommitter} shall commit the documents uploaded so far.
+ * <p>
+ * Policies can be combined with {@link #or(CommitPolicy)}, e.g. a soft commit every 1000 documents
+ * together with a hard commit every ten minutes.
+ * <p>
+ * A final hard commit is always done when the sink gets committed, independent of the policy.
+ */
+public interface CommitPolicy {
+
+    /**
+     * What kind of commit shall be done. Later values are stronger than previous ones.
+     */
+    enum Action {
+        NONE, SOFT, HARD;
+
+        Action max(Action other) {
+            return compareTo(other) >= 0 ? this : other;
+        }
+    }
+
+    /**
+     * Decides which commit is needed now.
+     *
+     * @param state The number of pending documents and the time since the last commits
+     */
+    Action decide(CommitState state);
+
+    /**
+     * How often (in milliseconds) the committer shall ask this policy even if no new documents arrive.
+     * Needed for time based policies; negative if documents arriving are the only trigger.
+     */
+    default long getCheckInterval() {
+        return -1;
+    }
+
+    /**
+     * The commitWithin value in milliseconds which will be sent with each update, or a negative value if none.
+     */
+    default int getCommitWithin() {
+        return -1;
+    }
+
+    /**
+     * Combines this with another policy. The stronger commit wins.
+     */
+    default CommitPolicy or(CommitPolicy other) {
+        return new CombinedCommitPolicy(this, other);
+    }
+
+    /**
+     * Never commits during the run; only the final commit will be done.
+     */
+    static CommitPolicy onlyAtEnd() {
+        return new CommitPolicy() {
+            @Override
+            public Action decide(CommitState state) {
+                return Action.NONE;
+            }
+
+            @Override
+            public String toString() {
+                return "only at end";
+            }
+        };
+    }
+
+    /**
+     * Commits as soon as some number of documents were uploaded since the last commit of this kind.
+     */
+    static CommitPolicy everyDocuments(int documents, Action action) {
+        if (documents <= 0) {
+            throw new IllegalArgumentException("Number of documents must be positive: " + documents);
+        }
+        return new CommitPolicy() {
+            @Override
+            public Action decide(CommitState state) {
+                return state.getPendingDocuments(action) >= documents ? action : Action.NONE;
+            }
+
+            @Override
+            public String toString() {
+                return action + " commit every " + documents + " documents";
+            }
+        };
+    }
+
+    /**
+     * Commits when documents are pending and the last commit of this kind is at least some time ago.
+     */
+    static CommitPolicy everyInterval(long interval, TimeUnit unit, Action action) {
+        long millis = unit.toMillis(interval);
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval + " " + unit);
+        }
+        return new CommitPolicy() {
+            @Override
+            public Action decide(CommitState state) {
+                return state.getPendingDocuments(action) > 0 && state.getMillisSinceCommit(action) >= millis
+                        ? action : Action.NONE;
+            }
+
+            @Override
+            public long getCheckInterval() {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return action + " commit every " + millis + " ms";
+            }
+        };
+    }
+
+    /**
+     * Lets Solr commit by itself, by sending the commitWithin parameter with each update.
+     */
+    static CommitPolicy commitWithin(int millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("commitWithin must be positive: " + millis);
+        }
+        return new CommitPolicy() {
+            @Override
+            public Action decide(CommitState state) {
+                return Action.NONE;
+            }
+
+            @Override
+            public int getCommitWithin() {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return "commitWithin " + millis + " ms";
+            }
+        };
+    }
+
+    /**
+     * Creates the policy as configured in the properties.
+     * <p>
+     * Without further configuration, this is a hard commit every updatesBeforeCommit documents.
+     */
+    static CommitPolicy fromProperties(IndexerProperties properties) {
+        Action action = properties.isSoftCommit() ? Action.SOFT : Action.HARD;
+        CommitPolicy policy = onlyAtEnd();
+        if (properties.getUpdatesBeforeCommit() > 0) {
+            policy = everyDocuments(properties.getUpdatesBeforeCommit(), action);
+        }
+        if (properties.getCommitInterval() > 0) {
+            policy = policy.or(everyInterval(properties.getCommitInterval(), TimeUnit.MILLISECONDS, action));
+        }
+        if (properties.getHardCommitInterval() > 0) {
+            policy = policy.or(everyInterval(properties.getHardCommitInterval(), TimeUnit.MILLISECONDS, Action.HARD));
+        }
+        if (properties.getCommitWithin() > 0) {
+            policy = policy.or(commitWithin(properties.getCommitWithin()));
+        }
+        return policy;
+    }
+}
@@ -0,0 +1,39 @@
+package org.fiolino.indexer.sinks;
+
+/**
+ * A snapshot of the committer's state, given to the {@link CommitPolicy}.
+ * <p>
+ * A hard commit also counts as a soft commit, since it makes the documents visible as well.
+ */
+public final class CommitState {
+    private final int pendingSinceSoft;
+    private final int pendingSinceHard;
+    private final long millisSinceSoft;
+    private final long millisSinceHard;
+
+    CommitState(int pendingSinceSoft, int pendingSinceHard, long millisSinceSoft, long millisSinceHard) {
+        this.pendingSinceSoft = pendingSinceSoft;
+        this.pendingSinceHard = pendingSinceHard;
+        this.millisSinceSoft = millisSinceSoft;
+        this.millisSinceHard = millisSinceHard;
+    }
+
+    /**
+     * How many documents were uploaded since the last commit of that kind.
+     */
+    public int getPendingDocuments(CommitPolicy.Action kind) {
+        return kind == CommitPolicy.Action.HARD ? pendingSinceHard : pendingSinceSoft;
+    }
+
+    /**
+     * How many milliseconds passed since the last commit of that kind, or since the start.
+     */
+    public long getMillisSinceCommit(CommitPolicy.Action kind) {
+        return kind == CommitPolicy.Action.HARD ? millisSinceHard : millisSinceSoft;
+    }
+
+    @Override
+    public String toString() {
+        return pendingSinceSoft + " docs since soft commit, " + pendingSinceHard + " since hard commit";
+    }
+}
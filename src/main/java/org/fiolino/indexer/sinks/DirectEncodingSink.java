@@ -0,0 +1,136 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.CloneableSink;
+import org.fiolino.indexer.CheckpointTracker;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.fiolino.indexer.metrics.Histogram;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills model items directly into a javabin update request, without building SolrInputDocuments, and uploads
+ * the request when it contains enough documents or bytes.
+ * <p>
+ * Each parallel lane gets its own clone with its own reusable writer and buffer.
+ * The timestamp is added like the {@link TimestampSetter} does, unless no timestamp selector is given. If a checkpoint selector is given, the items
+ * are acknowledged at the run's {@link CheckpointTracker} after each upload.
+ */
+public final class DirectEncodingSink<T> implements CloneableSink<T, DirectEncodingSink<T>> {
+
+    private final SolrSink solrSink;
+    private final SolrDocumentFiller<T> filler;
+    private final Selector<Long> timestampSelector;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final Histogram createTime;
+    private final Histogram batchSize;
+    private final Selector<CheckpointTracker> checkpointSelector;
+    private final List<Object> items = new ArrayList<>();
+    private final JavabinDocumentWriter writer = new JavabinDocumentWriter();
+    private final JavabinUpdateBuffer buffer = new JavabinUpdateBuffer();
+
+    public DirectEncodingSink(SolrSink solrSink, SolrDocumentFiller<T> filler, Selector<Long> timestampSelector,
+                              int maxDocuments, long maxBytes, Histogram createTime, Histogram batchSize) {
+        this(solrSink, filler, timestampSelector, maxDocuments, maxBytes, createTime, batchSize, null);
+    }
+
+    /**
+     * @param timestampSelector  Where the run's timestamp is found, or null if documents get no timestamp
+     * @param maxDocuments       Upload when the request contains this many documents
+     * @param maxBytes           Upload when the request has at least this many bytes, or -1 for no limit
+     * @param createTime         Records how long it takes to fill a document
+     * @param batchSize          Records the number of documents per request
+     * @param checkpointSelector Where the run's checkpoint tracker is found, or null
+     */
+    public DirectEncodingSink(SolrSink solrSink, SolrDocumentFiller<T> filler,
+                              @Nullable Selector<Long> timestampSelector,
+                              int maxDocuments, long maxBytes, Histogram createTime, Histogram batchSize,
+                              @Nullable Selector<CheckpointTracker> checkpointSelector) {
+        if (maxDocuments <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxDocuments);
+        }
+        this.solrSink = solrSink;
+        this.filler = filler;
+        this.timestampSelector = timestampSelector;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.createTime = createTime;
+        this.batchSize = batchSize;
+        this.checkpointSelector = checkpointSelector;
+    }
+
+    @Override
+    public void accept(T value, Container metadata) throws Exception {
+        Long timestamp = null;
+        if (timestampSelector != null) {
+            timestamp = metadata.get(timestampSelector);
+            if (timestamp == null) {
+                throw new IllegalStateException("No timestamp given!");
+            }
+        }
+        writer.reset();
+        long start = System.nanoTime();
+        filler.process(value, writer, 1);
+        createTime.recordSince(start);
+        if (timestamp != null) {
+            writer.addField(TimestampSetter.TIMESTAMP_FIELD, timestamp);
+        }
+        writer.writeTo(buffer);
+        if (checkpointSelector != null) {
+            items.add(value);
+        }
+
+        if (buffer.getDocumentCount() >= maxDocuments || maxBytes > 0 && buffer.size() >= maxBytes) {
+            flush(metadata);
+        }
+    }
+
+    private void flush(Container metadata) throws Exception {
+        int n = buffer.getDocumentCount();
+        if (n == 0) {
+            return;
+        }
+        try {
+            solrSink.acceptEncoded(buffer, metadata);
+            acknowledge(metadata);
+        } finally {
+            buffer.reset();
+            items.clear();
+        }
+        batchSize.record(n);
+    }
+
+    private void acknowledge(Container metadata) {
+        if (checkpointSelector == null) {
+            return;
+        }
+        CheckpointTracker tracker = metadata.get(checkpointSelector);
+        if (tracker == null) {
+            return;
+        }
+        for (Object item : items) {
+            tracker.acknowledgedItem(item);
+        }
+    }
+
+    @Override
+    public DirectEncodingSink<T> createClone() {
+        return new DirectEncodingSink<>(solrSink, filler, timestampSelector, maxDocuments, maxBytes, createTime,
+                batchSize, checkpointSelector);
+    }
+
+    @Override
+    public void partialCommit(Container metadata) throws Exception {
+        flush(metadata);
+    }
+
+    @Override
+    public void commit(Container metadata) throws Exception {
+        flush(metadata);
+        solrSink.commit(metadata);
+    }
+}
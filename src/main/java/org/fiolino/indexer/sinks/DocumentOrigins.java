@@ -0,0 +1,71 @@
+package org.fiolino.indexer.sinks;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which model item each Solr document was created from, until the document is uploaded.
+ * <p>
+ * The upload acknowledges the model items at the run's {@link org.fiolino.indexer.CheckpointTracker},
+ * since only they are known there.
+ * <p>
+ * Items and documents are identified by identity. Documents which are dropped on the way are kept until
+ * {@link #clear()} is called at the end of the run.
+ */
+@ThreadSafe
+public final class DocumentOrigins {
+
+    private final Map<Object, Object> itemsByDocument = new IdentityHashMap<>();
+    private final Map<Object, Object> documentsByItem = new IdentityHashMap<>();
+
+    /**
+     * Called when the document was created from the item.
+     */
+    public synchronized void created(Object item, Object document) {
+        itemsByDocument.put(document, item);
+        documentsByItem.put(item, document);
+    }
+
+    /**
+     * Forgets the document.
+     *
+     * @return The item it was created from, or null if it's not known
+     */
+    @Nullable
+    public synchronized Object remove(Object document) {
+        Object item = itemsByDocument.remove(document);
+        if (item != null) {
+            documentsByItem.remove(item);
+        }
+        return item;
+    }
+
+    /**
+     * Whether a document was created from the item, and wasn't removed yet.
+     */
+    public synchronized boolean hasDocument(Object item) {
+        return documentsByItem.containsKey(item);
+    }
+
+    /**
+     * Forgets all documents, usually at the end of a run.
+     */
+    public synchronized void clear() {
+        itemsByDocument.clear();
+        documentsByItem.clear();
+    }
+
+    /**
+     * The number of documents that are not removed yet.
+     */
+    public synchronized int size() {
+        return itemsByDocument.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Origins of " + size() + " documents";
+    }
+}
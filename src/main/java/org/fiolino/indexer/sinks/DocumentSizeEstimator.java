@@ -0,0 +1,95 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Estimates how many bytes a {@link SolrInputDocument} takes when it's sent to Solr.
+ * <p>
+ * This is only a rough guess, without serializing anything: Strings count with their UTF-8 length, numbers and
+ * dates with eight bytes, plus some overhead per field. Good enough to keep request sizes within bounds.
+ */
+public final class DocumentSizeEstimator {
+
+    private static final int DOCUMENT_OVERHEAD = 16;
+    private static final int FIELD_OVERHEAD = 8;
+    private static final int VALUE_OVERHEAD = 2;
+
+    private DocumentSizeEstimator() {
+        throw new AssertionError("Static class");
+    }
+
+    public static long estimate(SolrInputDocument doc) {
+        long size = DOCUMENT_OVERHEAD;
+        for (SolrInputField field : doc) {
+            size += FIELD_OVERHEAD + utf8Length(field.getName());
+            Collection<Object> values = field.getValues();
+            if (values != null) {
+                for (Object v : values) {
+                    size += estimateValue(v);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long estimateValue(Object value) {
+        if (value == null) {
+            return VALUE_OVERHEAD;
+        }
+        if (value instanceof CharSequence) {
+            return VALUE_OVERHEAD + utf8Length((CharSequence) value);
+        }
+        if (value instanceof Number || value instanceof Date) {
+            return VALUE_OVERHEAD + 8;
+        }
+        if (value instanceof Boolean) {
+            return VALUE_OVERHEAD + 1;
+        }
+        if (value instanceof Map) {
+            // Atomic update
+            long size = VALUE_OVERHEAD;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                size += VALUE_OVERHEAD + utf8Length(String.valueOf(e.getKey()));
+                Object v = e.getValue();
+                if (v instanceof Collection) {
+                    for (Object x : (Collection<?>) v) {
+                        size += estimateValue(x);
+                    }
+                } else {
+                    size += estimateValue(v);
+                }
+            }
+            return size;
+        }
+        if (value instanceof byte[]) {
+            return VALUE_OVERHEAD + ((byte[]) value).length;
+        }
+        return VALUE_OVERHEAD + utf8Length(value.toString());
+    }
+
+    /**
+     * The number of bytes when encoded in UTF-8, without creating the bytes.
+     */
+    static long utf8Length(CharSequence s) {
+        int n = s.length();
+        long length = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // Three bytes, or four for a surrogate pair of two chars
+                length += 2;
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    i++;
+                }
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+}
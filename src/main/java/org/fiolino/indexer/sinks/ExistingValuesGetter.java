@@ -3,38 +3,181 @@ package org.fiolino.indexer.sinks;
 import org.fiolino.common.container.Container;
 import org.fiolino.common.container.Selector;
 import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.CloneableSink;
 import org.fiolino.common.processing.sink.Sink;
 import org.fiolino.data.base.Identified;
 import org.fiolino.indexer.DeleteStrategy;
+import org.fiolino.indexer.metrics.Metrics;
 import org.fiolino.searcher.Realm;
 import org.fiolino.searcher.searcher.Searcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /**
  * Created by Kuli on 4/20/2016.
  */
-public class ExistingValuesGetter<T extends Identified> extends ChainedSink<List<T>, List<UpdatePair<T>>> {
+public class ExistingValuesGetter<T extends Identified> extends ChainedSink<List<T>, List<UpdatePair<T>>>
+        implements CloneableSink<List<T>, ExistingValuesGetter<T>> {
 
     private static final Logger logger = LoggerFactory.getLogger(ExistingValuesGetter.class);
 
-    private final Realm realm;
-    private final Searcher<T> searcher;
+    private final ExistingValuesLookup<T> lookup;
 
     private final Selector<DeleteStrategy> deleteStrategySelector;
 
+    /**
+     * How many lookups may run ahead of the chunk currently passed to the target. Zero means synchronous lookups.
+     */
+    private final int maxInFlight;
+    private final Executor executor;
+
+    /**
+     * The running lookups, in the order of their chunks.
+     */
+    private final Deque<PendingLookup<T>> inFlight = new ArrayDeque<>();
+
+    /**
+     * Set while some thread passes a result to the target, so that the results keep their order.
+     * Guarded by inFlight; the target itself is called without holding the lock.
+     */
+    private boolean forwarding;
+
     public ExistingValuesGetter(Sink<List<UpdatePair<T>>> target, Realm realm, Searcher<T> searcher,
                                 Selector<DeleteStrategy> deleteStrategySelector) {
+        this(target, realm, searcher, deleteStrategySelector, 0, Runnable::run);
+    }
+
+    /**
+     * Uses a custom lookup, e.g. a {@link ProjectedLookup} that only fetches the needed fields.
+     */
+    public ExistingValuesGetter(Sink<List<UpdatePair<T>>> target, ExistingValuesLookup<T> lookup,
+                                Selector<DeleteStrategy> deleteStrategySelector) {
+        this(target, lookup, deleteStrategySelector, 0, Runnable::run);
+    }
+
+    /**
+     * Creates a pipelined getter: The lookup for the next chunks is already running while the previous ones
+     * are processed by the target.
+     *
+     * @param maxInFlight How many lookups may run ahead; 0 for synchronous lookups
+     * @param executor    Runs the lookups
+     */
+    public ExistingValuesGetter(Sink<List<UpdatePair<T>>> target, Realm realm, Searcher<T> searcher,
+                                Selector<DeleteStrategy> deleteStrategySelector,
+                                int maxInFlight, Executor executor) {
+        this(target, ids -> searcher.searchByIDs(realm, "id", ids), deleteStrategySelector, maxInFlight, executor);
+    }
+
+    /**
+     * Creates a pipelined getter whose lookup times are recorded.
+     *
+     * @param name        The indexed type, as in the other metrics of this type
+     * @param maxInFlight How many lookups may run ahead; 0 for synchronous lookups
+     * @param executor    Runs the lookups
+     */
+    public ExistingValuesGetter(Sink<List<UpdatePair<T>>> target, Realm realm, Searcher<T> searcher,
+                                Selector<DeleteStrategy> deleteStrategySelector,
+                                int maxInFlight, Executor executor, String name) {
+        this(target, ExistingValuesLookup.timed(ids -> searcher.searchByIDs(realm, "id", ids),
+                Metrics.get().histogram(Metrics.EXISTING_LOOKUP, name)),
+                deleteStrategySelector, maxInFlight, executor);
+    }
+
+    /**
+     * Creates a pipelined getter with a custom lookup.
+     *
+     * @param maxInFlight How many lookups may run ahead; 0 for synchronous lookups
+     * @param executor    Runs the lookups
+     */
+    public ExistingValuesGetter(Sink<List<UpdatePair<T>>> target, ExistingValuesLookup<T> lookup,
+                                Selector<DeleteStrategy> deleteStrategySelector,
+                                int maxInFlight, Executor executor) {
         super(target);
-        this.realm = realm;
-        this.searcher = searcher;
+        this.lookup = lookup;
         this.deleteStrategySelector = deleteStrategySelector;
+        this.maxInFlight = maxInFlight;
+        this.executor = executor;
+    }
+
+    @Override
+    public ExistingValuesGetter<T> createClone() {
+        return new ExistingValuesGetter<>(targetForCloning(), lookup, deleteStrategySelector, maxInFlight, executor);
     }
 
     @Override
     public void accept(List<T> values, Container metadata) throws Exception {
+        DeleteStrategy deleteStrategy = deleteStrategySelector.get(metadata);
+        if (maxInFlight <= 0) {
+            getTarget().accept(findExisting(values).complete(deleteStrategy), metadata);
+            return;
+        }
+
+        CompletableFuture<Lookup<T>> result = CompletableFuture.supplyAsync(() -> findExisting(values), executor);
+        synchronized (inFlight) {
+            inFlight.add(new PendingLookup<>(result, deleteStrategy, metadata));
+        }
+        forward(false);
+    }
+
+    @Override
+    public void partialCommit(Container metadata) throws Exception {
+        forward(true);
+        if (getTarget() instanceof CloneableSink) {
+            ((CloneableSink<?, ?>) getTarget()).partialCommit(metadata);
+        }
+    }
+
+    @Override
+    public void commit(Container metadata) throws Exception {
+        forward(true);
+        super.commit(metadata);
+    }
+
+    /**
+     * Passes finished lookups to the target, in their original order.
+     * <p>
+     * Only one thread forwards at a time, but the lock is not held while waiting for a lookup or calling the target.
+     * A thread that finds another one forwarding leaves the work to it, unless it has to wait anyway.
+     *
+     * @param all If set, waits for all lookups; otherwise only as long as too many are running
+     */
+    private void forward(boolean all) throws Exception {
+        while (true) {
+            PendingLookup<T> next;
+            synchronized (inFlight) {
+                while (forwarding) {
+                    if (!all && inFlight.size() <= maxInFlight) {
+                        return;
+                    }
+                    inFlight.wait();
+                }
+                next = inFlight.peek();
+                if (next == null || !all && inFlight.size() <= maxInFlight && !next.result.isDone()) {
+                    return;
+                }
+                inFlight.poll();
+                forwarding = true;
+            }
+            try {
+                getTarget().accept(next.get(), next.metadata);
+            } finally {
+                synchronized (inFlight) {
+                    forwarding = false;
+                    inFlight.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the lookup. The delete strategy is not touched here, since this may run in the executor.
+     */
+    private Lookup<T> findExisting(List<T> values) {
         Long[] ids = new Long[values.size()];
         int i = 0;
         for (T each : values) {
@@ -42,16 +185,19 @@ public class ExistingValuesGetter<T extends Identified> extends ChainedSink<List
         }
         List<T> existing;
         try {
-            existing = searcher.searchByIDs(realm, "id", ids);
+            existing = lookup.findByIDs(ids);
         } catch (RuntimeException ex) {
             logger.error("Cannot load existing documents!", ex);
-            getTarget().accept(combine(values, Collections.<Long, T>emptyMap()), metadata);
-            return;
+            return new Lookup<>(combine(values, Collections.<Long, T>emptyMap()), new Long[0]);
         }
-        DeleteStrategy deleteStrategy = deleteStrategySelector.get(metadata);
-        Map<Long, T> map = createIDMap(existing, deleteStrategy, ids);
-
-        getTarget().accept(combine(values, map), metadata);
+        Map<Long, T> map = createIDMap(existing);
+        List<Long> missing = new ArrayList<>();
+        for (Long requested : ids) {
+            if (!map.containsKey(requested)) {
+                missing.add(requested);
+            }
+        }
+        return new Lookup<>(combine(values, map), missing.toArray(new Long[missing.size()]));
     }
 
     private List<UpdatePair<T>> combine(List<T> updated, Map<Long, T> existing) {
@@ -82,4 +228,53 @@ public class ExistingValuesGetter<T extends Identified> extends ChainedSink<List
         }
         return map;
     }
+
+    /**
+     * The result of one lookup, with the IDs that were not found.
+     */
+    private static final class Lookup<T> {
+        final List<UpdatePair<T>> pairs;
+        final Long[] missing;
+
+        Lookup(List<UpdatePair<T>> pairs, Long[] missing) {
+            this.pairs = pairs;
+            this.missing = missing;
+        }
+
+        /**
+         * Registers the missing IDs at the delete strategy, in the calling thread.
+         */
+        List<UpdatePair<T>> complete(DeleteStrategy deleteStrategy) {
+            for (Long id : missing) {
+                deleteStrategy.accept(id);
+            }
+            return pairs;
+        }
+    }
+
+    private static final class PendingLookup<T> {
+        final CompletableFuture<Lookup<T>> result;
+        final DeleteStrategy deleteStrategy;
+        final Container metadata;
+
+        PendingLookup(CompletableFuture<Lookup<T>> result, DeleteStrategy deleteStrategy, Container metadata) {
+            this.result = result;
+            this.deleteStrategy = deleteStrategy;
+            this.metadata = metadata;
+        }
+
+        List<UpdatePair<T>> get() throws Exception {
+            Lookup<T> lookup;
+            try {
+                lookup = result.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw ex;
+            }
+            return lookup.complete(deleteStrategy);
+        }
+    }
 }
@@ -0,0 +1,34 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.indexer.metrics.Histogram;
+
+import java.util.List;
+
+/**
+ * Loads the currently indexed version of some items, as needed by the {@link ExistingValuesGetter}.
+ */
+@FunctionalInterface
+public interface ExistingValuesLookup<T> {
+
+    /**
+     * Finds the existing items. Missing IDs are simply not contained in the result.
+     *
+     * @param ids The requested IDs
+     * @return The found items, in any order
+     */
+    List<T> findByIDs(Long[] ids);
+
+    /**
+     * Records the time of each lookup in some histogram.
+     */
+    static <T> ExistingValuesLookup<T> timed(ExistingValuesLookup<T> lookup, Histogram histogram) {
+        return ids -> {
+            long start = System.nanoTime();
+            try {
+                return lookup.findByIDs(ids);
+            } finally {
+                histogram.recordSince(start);
+            }
+        };
+    }
+}
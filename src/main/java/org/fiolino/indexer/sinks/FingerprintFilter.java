@@ -0,0 +1,201 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.common.processing.sink.ThreadsafeSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops documents that didn't change since they were indexed the last time.
+ * <p>
+ * A stable hash over all fields except the timestamp is stored in the fingerprint field. Before uploading a batch,
+ * the fingerprints of these documents are fetched from Solr, and all documents with an equal fingerprint are dropped.
+ * <p>
+ * Dropped documents still get their timestamp updated by a small atomic update, so that the timestamp based
+ * delete strategy doesn't remove them. Therefore this must be placed after the {@link TimestampSetter}.
+ * <p>
+ * This works on whole batches, so that there's only one lookup per upload request.
+ */
+@ThreadSafe
+public class FingerprintFilter implements ThreadsafeSink<List<SolrInputDocument>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FingerprintFilter.class);
+
+    public static final String FINGERPRINT_FIELD = "fingerprint";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Sink<List<SolrInputDocument>> target;
+    private final SolrClient solrClient;
+    private final String idField;
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * @param target     Where the changed documents and timestamp updates go to
+     * @param solrClient Used to fetch the indexed fingerprints
+     * @param idField    The unique key field
+     */
+    public FingerprintFilter(Sink<List<SolrInputDocument>> target, SolrClient solrClient, String idField) {
+        this.target = target;
+        this.solrClient = solrClient;
+        this.idField = idField;
+    }
+
+    @Override
+    public void accept(List<SolrInputDocument> docs, Container metadata) throws Exception {
+        if (docs.isEmpty()) {
+            return;
+        }
+        // Keyed by the ID's string form, since the response's type may differ from the input's
+        Map<String, Long> fingerprints = new HashMap<>(docs.size() * 2);
+        for (SolrInputDocument doc : docs) {
+            if (PartialUpdateSink.isAtomicUpdate(doc)) {
+                // The full content is unknown here, so the next run must upload the document again
+                doc.setField(FINGERPRINT_FIELD, Collections.singletonMap("set", null));
+                continue;
+            }
+            long fingerprint = fingerprintOf(doc);
+            doc.setField(FINGERPRINT_FIELD, fingerprint);
+            Object id = doc.getFieldValue(idField);
+            if (id != null) {
+                fingerprints.put(id.toString(), fingerprint);
+            }
+        }
+        Set<String> unchanged = findUnchanged(fingerprints);
+        if (unchanged.isEmpty()) {
+            target.accept(docs, metadata);
+            return;
+        }
+
+        List<SolrInputDocument> result = new ArrayList<>(docs.size());
+        for (SolrInputDocument doc : docs) {
+            Object id = doc.getFieldValue(idField);
+            if (id == null || !unchanged.contains(id.toString())) {
+                result.add(doc);
+                continue;
+            }
+            Object timestamp = doc.getFieldValue(TimestampSetter.TIMESTAMP_FIELD);
+            if (timestamp != null) {
+                result.add(createTimestampUpdate(id, timestamp));
+            }
+        }
+        skipped.addAndGet(unchanged.size());
+        target.accept(result, metadata);
+    }
+
+    private SolrInputDocument createTimestampUpdate(Object id, Object timestamp) {
+        SolrInputDocument update = new SolrInputDocument();
+        update.addField(idField, id);
+        update.addField(TimestampSetter.TIMESTAMP_FIELD, Collections.singletonMap("set", timestamp));
+        return update;
+    }
+
+    private Set<String> findUnchanged(Map<String, Long> fingerprints) throws Exception {
+        if (fingerprints.isEmpty()) {
+            return Collections.emptySet();
+        }
+        StringBuilder terms = new StringBuilder("{!terms f=").append(idField).append('}');
+        boolean first = true;
+        for (String id : fingerprints.keySet()) {
+            if (first) {
+                first = false;
+            } else {
+                terms.append(',');
+            }
+            terms.append(id);
+        }
+        SolrQuery query = new SolrQuery("*:*");
+        query.addFilterQuery(terms.toString());
+        query.setFields(idField, FINGERPRINT_FIELD);
+        query.setRows(fingerprints.size());
+
+        Set<String> unchanged = new HashSet<>();
+        for (SolrDocument existing : solrClient.query(query, SolrRequest.METHOD.POST).getResults()) {
+            Object id = existing.getFieldValue(idField);
+            Object indexed = existing.getFieldValue(FINGERPRINT_FIELD);
+            if (id == null || !(indexed instanceof Number)) {
+                continue;
+            }
+            String key = id.toString();
+            Long fingerprint = fingerprints.get(key);
+            if (fingerprint != null && fingerprint == ((Number) indexed).longValue()) {
+                unchanged.add(key);
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Computes a stable hash over all fields except the timestamp and the fingerprint itself.
+     * The order in which the fields were added doesn't matter.
+     */
+    public static long fingerprintOf(SolrInputDocument doc) {
+        List<String> names = new ArrayList<>(doc.getFieldNames());
+        Collections.sort(names);
+        long h = hash(FNV_OFFSET, Float.floatToIntBits(doc.getDocumentBoost()));
+        for (String name : names) {
+            if (TimestampSetter.TIMESTAMP_FIELD.equals(name) || FINGERPRINT_FIELD.equals(name)) {
+                continue;
+            }
+            SolrInputField field = doc.getField(name);
+            h = hash(h, name);
+            h = hash(h, Float.floatToIntBits(field.getBoost()));
+            Collection<Object> values = field.getValues();
+            if (values == null) {
+                continue;
+            }
+            h = hash(h, values.size());
+            for (Object v : values) {
+                h = hashValue(h, v);
+            }
+        }
+        return h;
+    }
+
+    private static long hashValue(long h, Object value) {
+        if (value == null) {
+            return hash(h, 0);
+        }
+        if (value instanceof Date) {
+            return hash(h, ((Date) value).getTime());
+        }
+        return hash(h, value.toString());
+    }
+
+    private static long hash(long h, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash(h, value.length());
+    }
+
+    private static long hash(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h = (h ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return h;
+    }
+
+    @Override
+    public void commit(Container metadata) throws Exception {
+        long n = skipped.getAndSet(0);
+        if (n > 0) {
+            logger.info("Skipped " + n + " unchanged docs.");
+        }
+        target.commit(metadata);
+    }
+}
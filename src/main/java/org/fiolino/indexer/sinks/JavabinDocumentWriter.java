@@ -0,0 +1,370 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.solr.common.util.JavaBinCodec.ARR;
+import static org.apache.solr.common.util.JavaBinCodec.SOLRINPUTDOC;
+
+/**
+ * A document that doesn't build any SolrInputFields, but only records what's added, so that it can be written
+ * directly into a {@link JavabinUpdateBuffer}.
+ * <p>
+ * All arrays are kept between documents; call {@link #reset()} before filling the next one.
+ * Adding fields, reading a field's first value and the document boost are cheap. Any other access, like
+ * setting, removing or iterating fields, copies the recorded fields into a regular SolrInputDocument first,
+ * which is used for the rest of this document. Child documents are not supported.
+ */
+@NotThreadSafe
+public final class JavabinDocumentWriter extends SolrInputDocument {
+
+    private static final long serialVersionUID = 1L;
+
+    // The added values, chained per field
+    private Object[] values = new Object[64];
+    private int[] nextValue = new int[64];
+    private int valueCount;
+
+    // The fields in the order of their first value
+    private String[] names = new String[32];
+    private float[] boosts = new float[32];
+    private int[] firstValue = new int[32];
+    private int[] lastValue = new int[32];
+    private int[] fieldSizes = new int[32];
+    private int fieldCount;
+
+    // Open addressing from the field name's hash to the field index + 1
+    private int[] table = new int[64];
+
+    // Set when the recorded fields were copied into the SolrInputDocument
+    private boolean inflated;
+
+    /**
+     * Clears the recorded fields for the next document.
+     */
+    public void reset() {
+        Arrays.fill(values, 0, valueCount, null);
+        valueCount = 0;
+        Arrays.fill(names, 0, fieldCount, null);
+        fieldCount = 0;
+        Arrays.fill(table, 0);
+        if (inflated) {
+            super.clear();
+            inflated = false;
+        }
+        setDocumentBoost(1.0f);
+    }
+
+    @Override
+    public void addField(String name, Object value) {
+        addField(name, value, 1.0f);
+    }
+
+    @Override
+    public void addField(String name, Object value, float boost) {
+        if (inflated) {
+            super.addField(name, value, boost);
+            return;
+        }
+        int field = fieldIndex(name);
+        boosts[field] *= boost;
+        if (value instanceof Iterable) {
+            for (Object v : (Iterable<?>) value) {
+                addValue(field, v);
+            }
+        } else if (value instanceof Object[]) {
+            for (Object v : (Object[]) value) {
+                addValue(field, v);
+            }
+        } else {
+            addValue(field, value);
+        }
+    }
+
+    /**
+     * Copies the recorded fields into the SolrInputDocument, which holds them from now on.
+     */
+    private void inflate() {
+        if (inflated) {
+            return;
+        }
+        inflated = true;
+        for (int i = 0; i < fieldCount; i++) {
+            int v = firstValue[i];
+            super.addField(names[i], values[v], boosts[i]);
+            for (v = nextValue[v]; v >= 0; v = nextValue[v]) {
+                super.addField(names[i], values[v], 1.0f);
+            }
+        }
+    }
+
+    @Override
+    public void setField(String name, Object value) {
+        setField(name, value, 1.0f);
+    }
+
+    @Override
+    public void setField(String name, Object value, float boost) {
+        inflate();
+        super.setField(name, value, boost);
+    }
+
+    @Override
+    public SolrInputField removeField(String name) {
+        inflate();
+        return super.removeField(name);
+    }
+
+    @Override
+    public SolrInputField getField(String field) {
+        inflate();
+        return super.getField(field);
+    }
+
+    @Override
+    public Collection<Object> getFieldValues(String name) {
+        inflate();
+        return super.getFieldValues(name);
+    }
+
+    @Override
+    public Collection<String> getFieldNames() {
+        inflate();
+        return super.getFieldNames();
+    }
+
+    @Override
+    public Iterator<SolrInputField> iterator() {
+        inflate();
+        return super.iterator();
+    }
+
+    @Override
+    public void clear() {
+        inflate();
+        super.clear();
+    }
+
+    @Override
+    public int size() {
+        return inflated ? super.size() : fieldCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        inflate();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        inflate();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public SolrInputField get(Object key) {
+        inflate();
+        return super.get(key);
+    }
+
+    @Override
+    public SolrInputField put(String key, SolrInputField value) {
+        inflate();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends SolrInputField> t) {
+        inflate();
+        super.putAll(t);
+    }
+
+    @Override
+    public SolrInputField remove(Object key) {
+        inflate();
+        return super.remove(key);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        inflate();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<SolrInputField> values() {
+        inflate();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, SolrInputField>> entrySet() {
+        inflate();
+        return super.entrySet();
+    }
+
+    @Override
+    public SolrInputDocument deepCopy() {
+        inflate();
+        return super.deepCopy();
+    }
+
+    @Override
+    public String toString() {
+        inflate();
+        return super.toString();
+    }
+
+    @Override
+    public void addChildDocument(SolrInputDocument child) {
+        throw new UnsupportedOperationException("Child documents can't be encoded directly");
+    }
+
+    @Override
+    public void addChildDocuments(Collection<SolrInputDocument> children) {
+        throw new UnsupportedOperationException("Child documents can't be encoded directly");
+    }
+
+    /**
+     * Returns the first value of the field, or null.
+     */
+    @Override
+    public Object getFieldValue(String name) {
+        if (inflated) {
+            return super.getFieldValue(name);
+        }
+        int mask = table.length - 1;
+        int slot = name.hashCode() & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (name.equals(names[entry - 1])) {
+                int v = firstValue[entry - 1];
+                return v < 0 ? null : values[v];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private int fieldIndex(String name) {
+        int mask = table.length - 1;
+        int slot = name.hashCode() & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (name.equals(names[entry - 1])) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int field = fieldCount++;
+        if (field == names.length) {
+            int n = field * 2;
+            names = Arrays.copyOf(names, n);
+            boosts = Arrays.copyOf(boosts, n);
+            firstValue = Arrays.copyOf(firstValue, n);
+            lastValue = Arrays.copyOf(lastValue, n);
+            fieldSizes = Arrays.copyOf(fieldSizes, n);
+        }
+        names[field] = name;
+        boosts[field] = 1.0f;
+        firstValue[field] = -1;
+        fieldSizes[field] = 0;
+        table[slot] = field + 1;
+        if (fieldCount * 2 > table.length) {
+            rehash();
+        }
+        return field;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < fieldCount; i++) {
+            int slot = names[i].hashCode() & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    private void addValue(int field, Object value) {
+        int v = valueCount++;
+        if (v == values.length) {
+            values = Arrays.copyOf(values, v * 2);
+            nextValue = Arrays.copyOf(nextValue, v * 2);
+        }
+        values[v] = value;
+        nextValue[v] = -1;
+        if (firstValue[field] < 0) {
+            firstValue[field] = v;
+        } else {
+            nextValue[lastValue[field]] = v;
+        }
+        lastValue[field] = v;
+        fieldSizes[field]++;
+    }
+
+    /**
+     * Appends the recorded document to the buffer, in the same format as JavaBinCodec writes a SolrInputDocument.
+     */
+    public void writeTo(JavabinUpdateBuffer buffer) {
+        if (inflated) {
+            writeInflatedTo(buffer);
+            return;
+        }
+        buffer.writeTag(SOLRINPUTDOC, fieldCount);
+        buffer.writeFloat(getDocumentBoost());
+        for (int i = 0; i < fieldCount; i++) {
+            if (boosts[i] != 1.0f) {
+                buffer.writeFloat(boosts[i]);
+            }
+            buffer.writeString(names[i]);
+            int n = fieldSizes[i];
+            if (n == 1) {
+                buffer.writeValue(values[firstValue[i]]);
+            } else {
+                buffer.writeTag(ARR, n);
+                for (int v = firstValue[i]; v >= 0; v = nextValue[v]) {
+                    buffer.writeValue(values[v]);
+                }
+            }
+        }
+        buffer.documentWritten();
+    }
+
+    private void writeInflatedTo(JavabinUpdateBuffer buffer) {
+        buffer.writeTag(SOLRINPUTDOC, super.size());
+        buffer.writeFloat(getDocumentBoost());
+        for (SolrInputField f : super.values()) {
+            if (f.getBoost() != 1.0f) {
+                buffer.writeFloat(f.getBoost());
+            }
+            buffer.writeString(f.getName());
+            Object value = f.getValue();
+            if (value instanceof Collection) {
+                Collection<?> c = (Collection<?>) value;
+                buffer.writeTag(ARR, c.size());
+                for (Object v : c) {
+                    buffer.writeValue(v);
+                }
+            } else {
+                buffer.writeValue(value);
+            }
+        }
+        buffer.documentWritten();
+    }
+}
@@ -0,0 +1,231 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.common.util.ContentStreamBase;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.apache.solr.common.util.JavaBinCodec.*;
+
+/**
+ * A reusable buffer that contains a javabin encoded update request, as Solr's /update handler reads it.
+ * <p>
+ * Documents are appended one by one via {@link JavabinDocumentWriter}; the buffer grows as needed and keeps
+ * its size for the next request, so that uploading many chunks doesn't create garbage.
+ */
+@NotThreadSafe
+public final class JavabinUpdateBuffer {
+
+    public static final String CONTENT_TYPE = "application/javabin";
+
+    /**
+     * The javabin version that JavaBinCodec writes and accepts; its own constant isn't visible.
+     */
+    private static final byte JAVABIN_VERSION = 2;
+
+    private byte[] buffer;
+    private int size;
+    private int documentCount;
+    private boolean finished;
+
+    public JavabinUpdateBuffer() {
+        this(64 * 1024);
+    }
+
+    public JavabinUpdateBuffer(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+        reset();
+    }
+
+    /**
+     * Starts a new update request, dropping everything written before.
+     */
+    public void reset() {
+        size = 0;
+        documentCount = 0;
+        finished = false;
+        writeByte(JAVABIN_VERSION);
+        writeTag(NAMED_LST, 2);
+        writeString("params");
+        writeTag(NAMED_LST, 0);
+        writeString("docs");
+        writeByte(ITERATOR);
+    }
+
+    /**
+     * The number of documents in the current request.
+     */
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * The number of bytes of the current request.
+     */
+    public int size() {
+        return size;
+    }
+
+    void documentWritten() {
+        documentCount++;
+    }
+
+    /**
+     * Terminates the request and returns it as a content stream. The stream is valid until the next reset.
+     */
+    public ContentStream finish() {
+        if (!finished) {
+            writeByte(END);
+            finished = true;
+        }
+        // ContentStreamBase has its own size field, so don't access the fields from inside
+        byte[] bytes = buffer;
+        int length = size;
+        ContentStreamBase stream = new ContentStreamBase() {
+            @Override
+            public InputStream getStream() {
+                return new ByteArrayInputStream(bytes, 0, length);
+            }
+        };
+        stream.setContentType(CONTENT_TYPE);
+        stream.setSize((long) length);
+        return stream;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (finished) {
+            throw new IllegalStateException("Request is already finished");
+        }
+        int needed = size + additional;
+        if (needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+        }
+    }
+
+    void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+    }
+
+    private void writeRaw(long value, int bytes) {
+        ensureCapacity(bytes);
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    void writeVInt(int value) {
+        while ((value & ~0x7f) != 0) {
+            writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    /**
+     * Writes a tag with its size, like JavaBinCodec does.
+     */
+    void writeTag(byte tag, int size) {
+        if ((tag & 0xe0) != 0) {
+            if (size < 0x1f) {
+                writeByte(tag | size);
+            } else {
+                writeByte(tag | 0x1f);
+                writeVInt(size - 0x1f);
+            }
+        } else {
+            writeByte(tag);
+            writeVInt(size);
+        }
+    }
+
+    void writeFloat(float value) {
+        writeByte(FLOAT);
+        writeRaw(Float.floatToIntBits(value), 4);
+    }
+
+    void writeString(String s) {
+        int length = s.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        writeTag(STR, utf8Length);
+        ensureCapacity(utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xc0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer[size++] = (byte) (0xf0 | (cp >> 18));
+                buffer[size++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[size++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (cp & 0x3f));
+            } else {
+                // Unpaired surrogates are encoded like any other char
+                buffer[size++] = (byte) (0xe0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Writes a single field value. Types that javabin doesn't know are written as their string representation.
+     */
+    void writeValue(Object value) {
+        if (value == null) {
+            writeByte(NULL);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Long) {
+            writeByte(LONG);
+            writeRaw((Long) value, 8);
+        } else if (value instanceof Integer) {
+            writeByte(INT);
+            writeRaw((Integer) value, 4);
+        } else if (value instanceof Float) {
+            writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            writeByte(DOUBLE);
+            writeRaw(Double.doubleToLongBits((Double) value), 8);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? BOOL_TRUE : BOOL_FALSE);
+        } else if (value instanceof Date) {
+            writeByte(DATE);
+            writeRaw(((Date) value).getTime(), 8);
+        } else if (value instanceof Short) {
+            writeByte(SHORT);
+            writeRaw((Short) value, 2);
+        } else if (value instanceof Byte) {
+            writeByte(BYTE);
+            writeByte((Byte) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            writeTag(BYTEARR, bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        } else {
+            writeString(value.toString());
+        }
+    }
+}
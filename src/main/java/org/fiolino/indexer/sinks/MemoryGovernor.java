@@ -0,0 +1,146 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.indexer.IndexerProperties;
+import org.fiolino.indexer.metrics.Metrics;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the estimated number of bytes of all items which are queued in the indexer pipelines.
+ * <p>
+ * Producers acquire the estimated size of an item before handing it over to a parallel sink, and block
+ * while the budget is exhausted. The lanes reserve the size of the documents they create, and release it when
+ * they are added to an upload chunk; see {@link MemoryLedger}. So the budget limits the queued items and the
+ * documents being built; the partial upload chunks are limited by the lane count and the chunk size instead.
+ * <p>
+ * An item is always accepted if nothing else is in flight, even if it's larger than the whole budget.
+ */
+@ThreadSafe
+public final class MemoryGovernor {
+
+    private static MemoryGovernor shared;
+
+    private final long budget;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long used;
+
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final AtomicLong throttleCount = new AtomicLong();
+
+    /**
+     * @param budget The maximum number of bytes in flight
+     */
+    public MemoryGovernor(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + budget);
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * The process wide governor as configured in the properties, or null if there is no budget.
+     * Its gauges are registered once, when it's created.
+     */
+    public static synchronized MemoryGovernor shared(IndexerProperties properties) {
+        if (properties.getMemoryBudget() <= 0) {
+            return null;
+        }
+        if (shared == null) {
+            shared = new MemoryGovernor(properties.getMemoryBudget());
+            Metrics.get().gauge(Metrics.MEMORY_USED, "all", shared::getUsedBytes);
+            Metrics.get().gauge(Metrics.MEMORY_THROTTLED, "all", shared::getThrottledMillis);
+        }
+        return shared;
+    }
+
+    /**
+     * Acquires some bytes from the budget; blocks until enough is available.
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        lock.lock();
+        try {
+            if (used > 0 && used + bytes > budget) {
+                throttleCount.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    do {
+                        released.await();
+                    } while (used > 0 && used + bytes > budget);
+                } finally {
+                    throttledNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+            used += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes some bytes from the budget without waiting, even if that exceeds it.
+     * Used for items that are already in memory and will be released without further input.
+     */
+    public void reserve(long bytes) {
+        lock.lock();
+        try {
+            used += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives some bytes back to the budget.
+     */
+    public void release(long bytes) {
+        lock.lock();
+        try {
+            used = Math.max(0, used - bytes);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * The estimated bytes currently in flight.
+     */
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * How long producers were blocked in total.
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    /**
+     * How often producers were blocked.
+     */
+    public long getThrottleCount() {
+        return throttleCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Memory governor: " + getUsedBytes() + " of " + budget + " bytes used, throttled "
+                + getThrottleCount() + " times for " + getThrottledMillis() + " ms";
+    }
+}
@@ -0,0 +1,144 @@
+package org.fiolino.indexer.sinks;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers how many bytes of a {@link MemoryGovernor}'s budget each item holds, from the producer until
+ * its document is batched for upload.
+ * <p>
+ * A model item acquires its estimated size before it's queued. When its Solr document is created, the
+ * reservation is transferred to the document with the document's estimated size, and released when the
+ * document was added to an upload chunk. Each release gives back exactly what was taken, even if
+ * the estimates changed in between.
+ * <p>
+ * Items are identified by identity. Items which are dropped on the way, e.g. documents of a timed out filler,
+ * keep their reservation until {@link #releaseAll()} is called at the end of the run.
+ * <p>
+ * The items are spread over several independently locked stripes, so that the lanes don't contend on
+ * a single lock.
+ */
+@ThreadSafe
+public final class MemoryLedger {
+
+    private static final int STRIPES = 16;
+
+    private final MemoryGovernor governor;
+    private final Map<Object, Long>[] held;
+
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong transferredCount = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public MemoryLedger(MemoryGovernor governor) {
+        this.governor = governor;
+        held = new Map[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            held[i] = new IdentityHashMap<>();
+        }
+    }
+
+    private Map<Object, Long> stripeOf(Object item) {
+        int h = System.identityHashCode(item);
+        return held[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    public MemoryGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Acquires some bytes for the item; blocks until enough is available.
+     */
+    public void acquire(Object item, long bytes) throws InterruptedException {
+        governor.acquire(bytes);
+        hold(item, bytes);
+    }
+
+    /**
+     * Moves the reservation of some item to another one with a new size, without blocking.
+     * The new item is usually already in memory, so waiting wouldn't help.
+     */
+    public void transfer(Object from, Object to, long bytes) {
+        Long previous = remove(from);
+        if (previous == null) {
+            // Not throttled, so nothing to transfer
+            return;
+        }
+        governor.reserve(bytes);
+        hold(to, bytes);
+        governor.release(previous);
+        transferredBytes.addAndGet(bytes);
+        transferredCount.incrementAndGet();
+    }
+
+    private void hold(Object item, long bytes) {
+        Map<Object, Long> stripe = stripeOf(item);
+        synchronized (stripe) {
+            stripe.merge(item, bytes, Long::sum);
+        }
+    }
+
+    private Long remove(Object item) {
+        Map<Object, Long> stripe = stripeOf(item);
+        synchronized (stripe) {
+            return stripe.remove(item);
+        }
+    }
+
+    /**
+     * Gives back what the item holds, if anything.
+     */
+    public void release(Object item) {
+        Long bytes = remove(item);
+        if (bytes != null) {
+            governor.release(bytes);
+        }
+    }
+
+    /**
+     * Gives back everything that is still held, usually at the end of a run.
+     */
+    public void releaseAll() {
+        List<Long> all = new ArrayList<>();
+        for (Map<Object, Long> stripe : held) {
+            synchronized (stripe) {
+                all.addAll(stripe.values());
+                stripe.clear();
+            }
+        }
+        for (Long bytes : all) {
+            governor.release(bytes);
+        }
+    }
+
+    /**
+     * The number of items that hold some bytes.
+     */
+    public int getHeldCount() {
+        int count = 0;
+        for (Map<Object, Long> stripe : held) {
+            synchronized (stripe) {
+                count += stripe.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The average size of all transferred items, or the default if nothing was transferred yet.
+     */
+    public long getAverageTransferredSize(long defaultSize) {
+        long count = transferredCount.get();
+        return count == 0 ? defaultSize : transferredBytes.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "Ledger of " + getHeldCount() + " items in " + governor;
+    }
+}
@@ -0,0 +1,200 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.CloneableSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.SolrDocumentFiller;
+
+import java.util.*;
+
+/**
+ * Creates Solr documents from update pairs, and sends atomic updates if possible.
+ * <p>
+ * Both the updated and the existing item are converted into documents. If they only differ in some declared
+ * fields, e.g. analytics values, then only these fields are sent as atomic "set", "add" or "remove" operations.
+ * Otherwise, or if there is no existing item, the full document is sent.
+ * <p>
+ * Declared field names may end with an asterisk to match all fields with that prefix, like dynamic fields.
+ * <p>
+ * Multi-valued partial fields are compared regardless of their order: values are added or removed wherever they
+ * are, and appended ones end up at the end in Solr.
+ * <p>
+ * Plain values added later, like the timestamp, are treated as "set" operations by Solr.
+ */
+public final class PartialUpdateSink<T> extends ChainedSink<UpdatePair<T>, SolrInputDocument>
+        implements CloneableSink<UpdatePair<T>, PartialUpdateSink<T>> {
+
+    private final SolrDocumentFiller<T> filler;
+    private final String idField;
+    private final Set<String> partialFields;
+    private final String[] partialPrefixes;
+
+    public PartialUpdateSink(Sink<? super SolrInputDocument> target, SolrDocumentFiller<T> filler, String idField,
+                             Collection<String> partialFields) {
+        super(target);
+        this.filler = filler;
+        this.idField = idField;
+        Set<String> fields = new HashSet<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String f : partialFields) {
+            if (f.endsWith("*")) {
+                prefixes.add(f.substring(0, f.length() - 1));
+            } else {
+                fields.add(f);
+            }
+        }
+        this.partialFields = fields;
+        this.partialPrefixes = prefixes.toArray(new String[prefixes.size()]);
+    }
+
+    private PartialUpdateSink(Sink<? super SolrInputDocument> target, PartialUpdateSink<T> original) {
+        super(target);
+        this.filler = original.filler;
+        this.idField = original.idField;
+        this.partialFields = original.partialFields;
+        this.partialPrefixes = original.partialPrefixes;
+    }
+
+    @Override
+    public void accept(UpdatePair<T> value, Container metadata) throws Exception {
+        SolrInputDocument doc = createDocument(value.getUpdate());
+        T existing = value.getExisting();
+        if (existing != null) {
+            SolrInputDocument atomic = createAtomicUpdate(doc, createDocument(existing));
+            if (atomic != null) {
+                doc = atomic;
+            }
+        }
+        getTarget().accept(doc, metadata);
+    }
+
+    private SolrInputDocument createDocument(T model) {
+        SolrInputDocument doc = new SolrInputDocument();
+        filler.process(model, doc, 1);
+        return doc;
+    }
+
+    private boolean isPartial(String fieldName) {
+        if (partialFields.contains(fieldName)) {
+            return true;
+        }
+        for (String p : partialPrefixes) {
+            if (fieldName.startsWith(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the atomic update document, or returns null if the full document must be sent.
+     */
+    private SolrInputDocument createAtomicUpdate(SolrInputDocument update, SolrInputDocument existing) {
+        Object id = update.getFieldValue(idField);
+        if (id == null || !id.equals(existing.getFieldValue(idField))
+                || update.getDocumentBoost() != existing.getDocumentBoost()) {
+            return null;
+        }
+        SolrInputDocument atomic = null;
+        for (SolrInputField field : update) {
+            String name = field.getName();
+            List<Object> newValues = valuesOf(field);
+            List<Object> oldValues = valuesOf(existing.getField(name));
+            if (newValues.equals(oldValues)) {
+                continue;
+            }
+            if (!isPartial(name)) {
+                return null;
+            }
+            if (atomic == null) {
+                atomic = new SolrInputDocument();
+                atomic.addField(idField, id);
+            }
+            atomic.addField(name, operationFor(newValues, oldValues));
+        }
+        for (SolrInputField field : existing) {
+            String name = field.getName();
+            if (update.getField(name) != null || valuesOf(field).isEmpty()) {
+                continue;
+            }
+            if (!isPartial(name)) {
+                return null;
+            }
+            if (atomic == null) {
+                atomic = new SolrInputDocument();
+                atomic.addField(idField, id);
+            }
+            atomic.addField(name, Collections.singletonMap("set", null));
+        }
+        // If nothing changed at all, the full document is sent, because a document with only the ID
+        // would replace the existing one
+        return atomic;
+    }
+
+    private static Map<String, Object> operationFor(List<Object> newValues, List<Object> oldValues) {
+        if (newValues.isEmpty()) {
+            return Collections.singletonMap("set", null);
+        }
+        if (!oldValues.isEmpty()) {
+            // Compare as multisets: what remains in added is new, what ends up in removed is gone
+            List<Object> added = new ArrayList<>(newValues);
+            List<Object> removed = new ArrayList<>();
+            for (Object v : oldValues) {
+                if (!added.remove(v)) {
+                    removed.add(v);
+                }
+            }
+            if (removed.isEmpty() && !added.isEmpty()) {
+                return Collections.singletonMap("add", added);
+            }
+            // Solr removes all occurrences of a value, so only if none of them shall be kept
+            if (added.isEmpty() && !removed.isEmpty() && Collections.disjoint(removed, newValues)) {
+                return Collections.singletonMap("remove", removed);
+            }
+        }
+        return Collections.singletonMap("set", newValues.size() == 1 ? newValues.get(0) : newValues);
+    }
+
+    private static List<Object> valuesOf(SolrInputField field) {
+        if (field == null) {
+            return Collections.emptyList();
+        }
+        Collection<Object> values = field.getValues();
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        if (values instanceof List) {
+            @SuppressWarnings("unchecked")
+            List<Object> list = (List<Object>) values;
+            return list;
+        }
+        return new ArrayList<>(values);
+    }
+
+    /**
+     * Checks whether the given document is an atomic update instead of a full document.
+     */
+    public static boolean isAtomicUpdate(SolrInputDocument doc) {
+        for (SolrInputField field : doc) {
+            if (field.getValue() instanceof Map) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public PartialUpdateSink<T> createClone() {
+        return new PartialUpdateSink<>(targetForCloning(), this);
+    }
+
+    @Override
+    public void partialCommit(Container metadata) throws Exception {
+        if (getTarget() instanceof CloneableSink) {
+            ((CloneableSink<?, ?>) getTarget()).partialCommit(metadata);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.fiolino.indexer.RemainingIDsDeleteStrategy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Looks up existing documents, but only fetches the ID and a given list of fields.
+ * <p>
+ * This is meant for carrying over externally sourced data like document content or analytics:
+ * Large stored fields that are not needed aren't transferred, and instead of deserializing the full model,
+ * the given factory only creates what's needed from the few loaded fields.
+ * <p>
+ * The Searcher always loads and deserializes complete models, so this queries Solr directly with a terms filter
+ * on the unique key.
+ */
+public class ProjectedLookup<T> implements ExistingValuesLookup<T> {
+
+    private final SolrClient solrClient;
+    private final String idField;
+    private final Function<? super Long, String> idToTerm;
+    private final String[] fieldList;
+    private final Function<? super SolrDocument, ? extends T> factory;
+
+    /**
+     * Looks up by the unique key "id", which contains the model ID as written by the indexer.
+     *
+     * @param solrClient Where to look
+     * @param factory    Creates the item from the projected document; the ID is in the "id" field
+     * @param fields     The fields needed from the existing document; may contain wildcards
+     */
+    public ProjectedLookup(SolrClient solrClient, Function<? super SolrDocument, ? extends T> factory,
+                           String... fields) {
+        this(solrClient, "id", RemainingIDsDeleteStrategy::makeStringID, factory, fields);
+    }
+
+    /**
+     * @param solrClient Where to look
+     * @param idField    The field containing the numeric ID
+     * @param factory    Creates the item from the projected document
+     * @param fields     The fields needed from the existing document; may contain wildcards
+     */
+    public ProjectedLookup(SolrClient solrClient, String idField,
+                           Function<? super SolrDocument, ? extends T> factory, String... fields) {
+        this(solrClient, idField, String::valueOf, factory, fields);
+    }
+
+    /**
+     * @param solrClient Where to look
+     * @param idField    The field to look up
+     * @param idToTerm   Converts the model ID into the value of the ID field
+     * @param factory    Creates the item from the projected document
+     * @param fields     The fields needed from the existing document; may contain wildcards
+     */
+    public ProjectedLookup(SolrClient solrClient, String idField, Function<? super Long, String> idToTerm,
+                           Function<? super SolrDocument, ? extends T> factory, String... fields) {
+        this.solrClient = solrClient;
+        this.idField = idField;
+        this.idToTerm = idToTerm;
+        this.factory = factory;
+        fieldList = new String[fields.length + 1];
+        fieldList[0] = idField;
+        System.arraycopy(fields, 0, fieldList, 1, fields.length);
+    }
+
+    @Override
+    public List<T> findByIDs(Long[] ids) {
+        if (ids.length == 0) {
+            return new ArrayList<>(0);
+        }
+        SolrQuery query = new SolrQuery("*:*");
+        query.addFilterQuery(termsQuery(ids));
+        query.setFields(fieldList);
+        query.setRows(ids.length);
+
+        QueryResponse response;
+        try {
+            response = solrClient.query(query, SolrRequest.METHOD.POST);
+        } catch (SolrServerException | IOException ex) {
+            throw new IllegalStateException("Cannot load existing documents for " + Arrays.toString(fieldList), ex);
+        }
+        SolrDocumentList docs = response.getResults();
+        List<T> result = new ArrayList<>(docs.size());
+        for (SolrDocument d : docs) {
+            result.add(factory.apply(d));
+        }
+        return result;
+    }
+
+    private String termsQuery(Long[] ids) {
+        StringBuilder sb = new StringBuilder(ids.length * 12 + 20);
+        sb.append("{!terms f=").append(idField).append('}');
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(idToTerm.apply(ids[i]));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Lookup of " + Arrays.toString(fieldList);
+    }
+}
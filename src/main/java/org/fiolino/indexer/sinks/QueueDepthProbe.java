@@ -0,0 +1,76 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.CloneableSink;
+import org.fiolino.common.processing.sink.Sink;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the items between two points of a sink chain, usually the items queued in a parallel sink.
+ * <p>
+ * The producer side is wrapped with {@link #enqueueing(Sink)}, the lanes with {@link #dequeueing(Sink)}.
+ */
+@ThreadSafe
+public final class QueueDepthProbe {
+
+    private final AtomicLong depth = new AtomicLong();
+
+    /**
+     * The number of items that entered but didn't leave yet.
+     */
+    public long getDepth() {
+        return depth.get();
+    }
+
+    public <T> Sink<T> enqueueing(Sink<? super T> target) {
+        return new Enqueueing<>(target);
+    }
+
+    public <T> Sink<T> dequeueing(Sink<? super T> target) {
+        return new Dequeueing<>(target);
+    }
+
+    private final class Enqueueing<T> extends ChainedSink<T, T> {
+        Enqueueing(Sink<? super T> target) {
+            super(target);
+        }
+
+        @Override
+        public void accept(T value, Container metadata) throws Exception {
+            depth.incrementAndGet();
+            try {
+                getTarget().accept(value, metadata);
+            } catch (Exception | Error ex) {
+                depth.decrementAndGet();
+                throw ex;
+            }
+        }
+    }
+
+    private final class Dequeueing<T> extends ChainedSink<T, T> implements CloneableSink<T, Dequeueing<T>> {
+        Dequeueing(Sink<? super T> target) {
+            super(target);
+        }
+
+        @Override
+        public void accept(T value, Container metadata) throws Exception {
+            depth.decrementAndGet();
+            getTarget().accept(value, metadata);
+        }
+
+        @Override
+        public Dequeueing<T> createClone() {
+            return new Dequeueing<>(targetForCloning());
+        }
+
+        @Override
+        public void partialCommit(Container metadata) throws Exception {
+            if (getTarget() instanceof CloneableSink) {
+                ((CloneableSink<?, ?>) getTarget()).partialCommit(metadata);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.CloneableSink;
+import org.fiolino.common.processing.sink.Sink;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * Releases what the items hold in a {@link MemoryLedger} after they were processed by the target.
+ * The counterpart of a {@link ThrottlingSink}.
+ * <p>
+ * On the lanes, this releases model items which were not transferred to a document. In front of the batching sink,
+ * this releases each document once it's added to an upload chunk. Documents must not hold their reservation
+ * while they're waiting in a partial chunk, since only further input would flush them, and the producer
+ * is blocked then.
+ */
+public final class ReleasingSink<T> extends ChainedSink<T, T> implements CloneableSink<T, ReleasingSink<T>> {
+
+    private final MemoryLedger ledger;
+    private final Function<? super T, ? extends Iterable<?>> heldItems;
+
+    private ReleasingSink(Sink<? super T> target, MemoryLedger ledger,
+                          Function<? super T, ? extends Iterable<?>> heldItems) {
+        super(target);
+        this.ledger = ledger;
+        this.heldItems = heldItems;
+    }
+
+    /**
+     * Releases each item itself.
+     */
+    public static <T> ReleasingSink<T> releasingItems(Sink<? super T> target, MemoryLedger ledger) {
+        return new ReleasingSink<>(target, ledger, Collections::singleton);
+    }
+
+    @Override
+    public void accept(T value, Container metadata) throws Exception {
+        Iterable<?> held = heldItems.apply(value);
+        try {
+            getTarget().accept(value, metadata);
+        } finally {
+            for (Object item : held) {
+                ledger.release(item);
+            }
+        }
+    }
+
+    @Override
+    public ReleasingSink<T> createClone() {
+        return new ReleasingSink<>(targetForCloning(), ledger, heldItems);
+    }
+
+    @Override
+    public void partialCommit(Container metadata) throws Exception {
+        if (getTarget() instanceof CloneableSink) {
+            ((CloneableSink<?, ?>) getTarget()).partialCommit(metadata);
+        }
+    }
+}
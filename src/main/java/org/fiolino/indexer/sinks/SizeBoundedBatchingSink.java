@@ -0,0 +1,232 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.CloneableSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Collects items into batches and sends them when the first of these limits is hit:
+ * <ul>
+ * <li>The estimated number of bytes</li>
+ * <li>The number of items, either fixed or controlled by an {@link AdaptiveBatchSize}</li>
+ * <li>The time since the first item of the batch arrived</li>
+ * </ul>
+ * A batch that exceeds the linger time is sent by a background thread, even if no further items arrive.
+ * <p>
+ * The current batch is guarded by this sink's lock, which is only held to add items or to take a batch out.
+ * Batches are sent outside of it, but one at a time and in the order they were taken out, so the lane can
+ * keep collecting while a lingering batch is uploaded.
+ */
+public final class SizeBoundedBatchingSink<T> extends BatchingSink<T, SizeBoundedBatchingSink<T>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SizeBoundedBatchingSink.class);
+
+    private static final ScheduledExecutorService lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Batch linger timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Sends the lingering batches, so that a slow upload doesn't delay the timer.
+     */
+    private static final ExecutorService lingerFlusher = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Batch linger flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ToLongFunction<? super T> sizeEstimator;
+    private final long maxBytes;
+    private final int maxCount;
+    @Nullable
+    private final AdaptiveBatchSize adaptiveCount;
+    private final long lingerMillis;
+
+    /**
+     * Held while a batch is sent. Acquired while still holding the sink's lock, so batches are sent in order.
+     */
+    private final Lock sendLock = new ReentrantLock();
+
+    // Guarded by this
+    private long bytes;
+
+    /**
+     * Counts the batches, so that a linger task knows whether its batch is still pending.
+     */
+    private long generation;
+
+    /**
+     * A failure of a timed flush; thrown with the next call from the producer.
+     */
+    private Exception timedFlushFailure;
+
+    /**
+     * @param target        Where the batches go to
+     * @param sizeEstimator Estimates the bytes of an item
+     * @param maxBytes      Send the batch when it has this many bytes; non-positive for no limit
+     * @param maxCount      Send the batch when it has this many items
+     * @param adaptiveCount If not null, this determines the number of items instead of maxCount
+     * @param lingerMillis  Send the batch when its first item is that old; non-positive for no limit
+     */
+    public SizeBoundedBatchingSink(Sink<List<T>> target, ToLongFunction<? super T> sizeEstimator,
+                                   long maxBytes, int maxCount, @Nullable AdaptiveBatchSize adaptiveCount,
+                                   long lingerMillis) {
+        this(target, sizeEstimator, maxBytes, maxCount, adaptiveCount, lingerMillis, Histogram.NONE, Histogram.NONE);
+    }
+
+    public SizeBoundedBatchingSink(Sink<List<T>> target, ToLongFunction<? super T> sizeEstimator,
+                                   long maxBytes, int maxCount, @Nullable AdaptiveBatchSize adaptiveCount,
+                                   long lingerMillis, Histogram batchWaitMetrics, Histogram batchSizeMetrics) {
+        super(target, batchWaitMetrics, batchSizeMetrics);
+        this.sizeEstimator = sizeEstimator;
+        this.maxBytes = maxBytes;
+        this.maxCount = maxCount;
+        this.adaptiveCount = adaptiveCount;
+        this.lingerMillis = lingerMillis;
+    }
+
+    @Override
+    public void accept(T value, Container metadata) throws Exception {
+        Batch full;
+        synchronized (this) {
+            rethrowTimedFailure();
+            full = add(value, metadata);
+            if (full == null) {
+                return;
+            }
+            sendLock.lock();
+        }
+        sendAndUnlock(full);
+    }
+
+    @Override
+    protected void added(T value, int count) {
+        if (count == 1) {
+            bytes = 0;
+            generation++;
+            if (lingerMillis > 0) {
+                long g = generation;
+                lingerTimer.schedule(() -> lingerFlusher.execute(() -> flushLingering(g)),
+                        lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        bytes += sizeEstimator.applyAsLong(value);
+    }
+
+    @Override
+    protected boolean isFull(int count) {
+        if (maxBytes > 0 && bytes >= maxBytes) {
+            return true;
+        }
+        return count >= (adaptiveCount == null ? maxCount : adaptiveCount.current());
+    }
+
+    @Override
+    protected void batchSent(int count, long nanos, boolean failed) {
+        if (adaptiveCount != null) {
+            adaptiveCount.record(count, nanos, failed);
+        }
+    }
+
+    private void flushLingering(long g) {
+        Batch lingering;
+        synchronized (this) {
+            if (g != generation) {
+                return;
+            }
+            lingering = detach();
+            if (lingering == null) {
+                return;
+            }
+            sendLock.lock();
+        }
+        try {
+            // The batch carries the metadata of its last item, as if the lane had sent it
+            sendAndUnlock(lingering);
+        } catch (Exception ex) {
+            logger.error("Sending lingering batch failed.", ex);
+            synchronized (this) {
+                if (timedFlushFailure == null) {
+                    timedFlushFailure = ex;
+                }
+            }
+        }
+    }
+
+    private void sendAndUnlock(Batch batch) throws Exception {
+        try {
+            batch.send();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void rethrowTimedFailure() throws Exception {
+        Exception ex = timedFlushFailure;
+        if (ex != null) {
+            timedFlushFailure = null;
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes out the pending batch, and waits until a lingering batch is sent.
+     *
+     * @return The batch, or null if there is none; the send lock is held in both cases
+     */
+    @Nullable
+    private synchronized Batch detachForCommit() throws Exception {
+        rethrowTimedFailure();
+        Batch pending = detach();
+        sendLock.lock();
+        return pending;
+    }
+
+    @Override
+    public void partialCommit(Container metadata) throws Exception {
+        Batch pending = detachForCommit();
+        try {
+            if (pending != null) {
+                pending.send();
+            }
+            if (getTarget() instanceof CloneableSink) {
+                ((CloneableSink<?, ?>) getTarget()).partialCommit(metadata);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    @Override
+    public void commit(Container metadata) throws Exception {
+        Batch pending = detachForCommit();
+        try {
+            if (pending != null) {
+                pending.send();
+            }
+            getTarget().commit(metadata);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    @Override
+    public SizeBoundedBatchingSink<T> createClone() {
+        return new SizeBoundedBatchingSink<>(targetForCloning(), sizeEstimator, maxBytes, maxCount, adaptiveCount,
+                lingerMillis, getBatchWait(), getBatchSize());
+    }
+}
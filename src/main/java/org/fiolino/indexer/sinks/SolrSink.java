@@ -2,19 +2,21 @@ package org.fiolino.indexer.sinks;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.impl.HttpSolrClient.RemoteSolrException;
+import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.UpdateParams;
 import org.fiolino.common.container.Container;
 import org.fiolino.common.container.Schema;
 import org.fiolino.common.container.Selector;
 import org.fiolino.common.processing.sink.ThreadsafeSink;
+import org.fiolino.indexer.metrics.Histogram;
+import org.fiolino.indexer.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -27,15 +29,33 @@ public class SolrSink implements ThreadsafeSink<List<SolrInputDocument>> {
 
     private final SolrClient solrClient;
 
-    private final int updatesBeforeCommit;
+    private final BackgroundCommitter committer;
+
+    private final int commitWithin;
 
     private final Selector<AtomicInteger> docCounter;
-    private final AtomicInteger commitCounter = new AtomicInteger();
+
+    private final Histogram addLatency;
 
     public SolrSink(SolrClient solrClient, Schema schema, int updatesBeforeCommit) {
+        this(solrClient, schema, updatesBeforeCommit > 0
+                ? CommitPolicy.everyDocuments(updatesBeforeCommit, CommitPolicy.Action.HARD)
+                : CommitPolicy.onlyAtEnd());
+    }
+
+    public SolrSink(SolrClient solrClient, Schema schema, CommitPolicy commitPolicy) {
+        this(solrClient, schema, commitPolicy, schema.toString());
+    }
+
+    /**
+     * @param name The indexed type; used for logging and metrics
+     */
+    public SolrSink(SolrClient solrClient, Schema schema, CommitPolicy commitPolicy, String name) {
         this.solrClient = solrClient;
-        this.updatesBeforeCommit = updatesBeforeCommit;
+        committer = new BackgroundCommitter(solrClient, commitPolicy, name);
+        commitWithin = commitPolicy.getCommitWithin();
         docCounter = schema.createLazilyInitializedSelector(AtomicInteger::new);
+        addLatency = Metrics.get().histogram(Metrics.SOLR_ADD, name);
     }
 
     @Override
@@ -45,52 +65,42 @@ public class SolrSink implements ThreadsafeSink<List<SolrInputDocument>> {
             return;
         }
 
-        solrClient.add(docs);
-        int n = docs.size();
-        int updateCount = commitCounter.addAndGet(n);
-        while (updateCount >= updatesBeforeCommit) {
-            if (commitCounter.compareAndSet(updateCount, 0)) {
-                AtomicInteger c = metadata.get(docCounter);
-                c.getAndAdd(updateCount);
-
-                // fix maxWarmingSearchers exception (BM-10630)
-                int count = 0;
-                do {
-                    try {
-                        solrClient.commit();
-                    } catch (RemoteSolrException e) {
-                        if (e.getMessage().contains("try again later")) {
-                            try {
-                                logger.warn("Got exception from solr and will try commit later...", e);
-                                TimeUnit.SECONDS.sleep(1);
-                            } catch (InterruptedException e1) {
-                                // do nothing
-                                Thread.currentThread().interrupt();
-                                break;
-                            }
-                            continue;
-                        }
-                        throw e;
-                    }
-                    break;
-                } while (count++ < 10);
-
-                return;
-            }
-            updateCount = commitCounter.get();
+        long start = System.nanoTime();
+        solrClient.add(docs, commitWithin);
+        addLatency.recordSince(start);
+        documentsAdded(docs.size(), metadata);
+    }
+
+    /**
+     * Uploads an already encoded update request.
+     */
+    public void acceptEncoded(JavabinUpdateBuffer docs, Container metadata) throws IOException, SolrServerException {
+        int n = docs.getDocumentCount();
+        if (n == 0) {
+            return;
+        }
+        ContentStreamUpdateRequest request = new ContentStreamUpdateRequest("/update");
+        request.addContentStream(docs.finish());
+        if (commitWithin > 0) {
+            request.setParam(UpdateParams.COMMIT_WITHIN, String.valueOf(commitWithin));
         }
+
+        long start = System.nanoTime();
+        request.process(solrClient);
+        addLatency.recordSince(start);
+        documentsAdded(n, metadata);
+    }
+
+    private void documentsAdded(int n, Container metadata) {
+        metadata.get(docCounter).getAndAdd(n);
+        committer.documentsAdded(n);
     }
 
     @Override
     public void commit(Container metadata) throws IOException, SolrServerException {
-        int count = commitCounter.getAndSet(0);
-        if (count > 0) {
-            solrClient.commit();
-        }
+        committer.commitNow();
         AtomicInteger c = metadata.remove(docCounter);
-        if (c != null) {
-            count += c.get();
-        }
+        int count = c == null ? 0 : c.get();
         if (count > 0) {
             logger.info("Uploaded " + count + " docs to Solr.");
         }
@@ -0,0 +1,204 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.common.processing.sink.ThreadsafeSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes upload chunks into an {@link UploadSpool} on local disk, and uploads them to the target asynchronously.
+ * <p>
+ * When the target fails because Solr is down or slow, the chunk is retried with an increasing delay,
+ * while the producers continue to spool. Only when the spool is full, they have to wait.
+ * Chunks that Solr rejects as bad requests are not retried, since that would never succeed; they're moved into
+ * the spool's rejected directory, from where they can be inspected and uploaded again manually.
+ * <p>
+ * Only one sink drains a spool; when a new sink is created on the same spool, it takes over the remaining chunks.
+ * Chunks that were still in the spool when the process stopped are uploaded in the next run.
+ * Committing waits until the spool is empty, and then commits the target. It fails if the spool can't be read,
+ * or if another sink has taken over the spool meanwhile.
+ * <p>
+ * Spooled chunks don't count in the {@link MemoryGovernor}'s budget, since they're on disk and memory mapped.
+ */
+@ThreadSafe
+public final class SpoolingSink extends ChainedSink<List<SolrInputDocument>, List<SolrInputDocument>>
+        implements ThreadsafeSink<List<SolrInputDocument>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolingSink.class);
+
+    private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final UploadSpool spool;
+    private final String name;
+    private final Thread drainer;
+    private volatile Container lastMetadata;
+    private volatile Exception drainFailure;
+
+    /**
+     * @param target The upload target, usually the SolrSink
+     * @param spool  The spool; another sink that drained it before stops doing so
+     * @param name   The indexed type; used for logging and the drainer thread's name
+     */
+    public SpoolingSink(Sink<List<SolrInputDocument>> target, UploadSpool spool, String name) {
+        super(target);
+        this.spool = spool;
+        this.name = name;
+        drainer = new Thread(this::drain, "Spool drainer for " + name);
+        drainer.setDaemon(true);
+        SpoolingSink previous = spool.attach(this);
+        if (previous != null) {
+            previous.stopDraining();
+        }
+        drainer.start();
+    }
+
+    @Override
+    public void accept(List<SolrInputDocument> docs, Container metadata) throws Exception {
+        if (docs.isEmpty()) {
+            return;
+        }
+        lastMetadata = metadata;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(docs.size() * 1024);
+        new JavaBinCodec().marshal(docs, out);
+        byte[] payload = out.toByteArray();
+        spool.append(payload);
+    }
+
+    @Override
+    public void commit(Container metadata) throws Exception {
+        lastMetadata = metadata;
+        long warnAt = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (!spool.awaitDrained(1, TimeUnit.SECONDS)) {
+            checkDrainer();
+            if (System.nanoTime() - warnAt >= 0) {
+                logger.warn("Still waiting for " + spool.getPendingRecords() + " spooled chunks of " + name
+                        + " before committing.");
+                warnAt = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            }
+        }
+        Exception failure = drainFailure;
+        if (failure != null) {
+            throw failure;
+        }
+        super.commit(metadata);
+    }
+
+    /**
+     * Fails if the drainer has stopped, since then the spool would never become empty.
+     */
+    private void checkDrainer() throws Exception {
+        Exception failure = drainFailure;
+        if (failure != null) {
+            throw failure;
+        }
+        if (!drainer.isAlive()) {
+            throw new IllegalStateException("The spool of " + name + " isn't drained by this sink any more.");
+        }
+    }
+
+    /**
+     * Stops draining and releases the spool; chunks that are still in it remain for the next sink.
+     */
+    public void close() {
+        stopDraining();
+        spool.detach(this);
+    }
+
+    private void stopDraining() {
+        drainer.interrupt();
+        boolean interrupted = false;
+        while (drainer.isAlive()) {
+            try {
+                drainer.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        long delay = 0;
+        UploadSpool.Record record = null;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Container metadata = lastMetadata;
+                if (metadata == null) {
+                    // Spooled chunks from an earlier process are uploaded within the next run
+                    Thread.sleep(100);
+                    continue;
+                }
+                if (record == null) {
+                    record = spool.take(1, TimeUnit.SECONDS);
+                    if (record == null) {
+                        continue;
+                    }
+                }
+                List<SolrInputDocument> docs = decode(record.payload);
+                try {
+                    getTarget().accept(docs, metadata);
+                } catch (InterruptedException ex) {
+                    throw ex;
+                } catch (SolrException ex) {
+                    if (ex.code() >= 400 && ex.code() < 500 && ex.code() != 408 && ex.code() != 429) {
+                        Path file = spool.reject(record);
+                        logger.error("Solr rejected a spooled chunk of " + name + "; moved it to " + file, ex);
+                        record = null;
+                        delay = 0;
+                        continue;
+                    }
+                    delay = retry(delay, ex);
+                    continue;
+                } catch (Exception ex) {
+                    delay = retry(delay, ex);
+                    continue;
+                }
+                spool.drained(record);
+                record = null;
+                delay = 0;
+            }
+        } catch (InterruptedException ex) {
+            // Stopped
+        } catch (IOException | RuntimeException ex) {
+            logger.error("Cannot drain spool of " + name, ex);
+            drainFailure = ex;
+        } finally {
+            if (record != null) {
+                // Not uploaded yet; the next drainer shall take it again
+                spool.release(record);
+            }
+        }
+    }
+
+    private long retry(long delay, Exception ex) throws InterruptedException {
+        long next = delay == 0 ? 100 : Math.min(delay * 2, MAX_RETRY_DELAY);
+        logger.warn("Uploading spooled chunk of " + name + " failed; retrying in " + next + " ms: " + ex);
+        Thread.sleep(next);
+        return next;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<SolrInputDocument> decode(byte[] payload) throws IOException {
+        return (List<SolrInputDocument>) new JavaBinCodec().unmarshal(new ByteArrayInputStream(payload));
+    }
+
+    @Override
+    public String toString() {
+        return "Spooling " + name + " via " + spool;
+    }
+}
@@ -0,0 +1,38 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.Sink;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Acquires the estimated size of each item from a {@link MemoryLedger} before passing it on.
+ * Blocks the producer while the budget is exhausted.
+ * <p>
+ * Used in front of a parallel sink; the lanes must release the items with a {@link ReleasingSink},
+ * or transfer them to their documents.
+ */
+public final class ThrottlingSink<T> extends ChainedSink<T, T> {
+
+    private final MemoryLedger ledger;
+    private final ToLongFunction<? super T> sizeEstimator;
+
+    public ThrottlingSink(Sink<? super T> target, MemoryLedger ledger, ToLongFunction<? super T> sizeEstimator) {
+        super(target);
+        this.ledger = ledger;
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    @Override
+    public void accept(T value, Container metadata) throws Exception {
+        ledger.acquire(value, sizeEstimator.applyAsLong(value));
+        try {
+            getTarget().accept(value, metadata);
+        } catch (Exception | Error ex) {
+            // Not handed over, so nobody else will release it
+            ledger.release(value);
+            throw ex;
+        }
+    }
+}
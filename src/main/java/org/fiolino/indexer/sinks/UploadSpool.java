@@ -0,0 +1,425 @@
+package org.fiolino.indexer.sinks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A write-ahead log of upload chunks on local disk, consisting of memory mapped segment files.
+ * <p>
+ * Records are appended by any thread and taken in the same order by a single drainer. A taken record stays
+ * on disk until it's marked as drained; records that were not drained are taken again after a restart.
+ * Segments are deleted as soon as all their records are drained.
+ * <p>
+ * Each record consists of its length, a state byte and the payload. The length is written last,
+ * so a record that was written only partially is never read.
+ * <p>
+ * Records that can never be uploaded are moved into the subdirectory {@value #REJECTED}, one file per record.
+ */
+@ThreadSafe
+public final class UploadSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSpool.class);
+
+    private static final int HEADER_SIZE = 5;
+    private static final byte WRITTEN = 1;
+    private static final byte DRAINED = 2;
+    private static final String SUFFIX = ".spool";
+    private static final String REJECTED = "rejected";
+
+    private static final Map<Path, UploadSpool> open = new HashMap<>();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment writeSegment;
+    private long nextIndex;
+    private long pendingBytes;
+    private int pendingRecords;
+    private SpoolingSink owner;
+
+    UploadSpool(Path directory, int segmentSize, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Opens the spool in the given directory. There is only one instance per directory in the process.
+     *
+     * @param segmentSize The size of each segment file
+     * @param maxBytes    Appending blocks while this many bytes are not drained yet, or -1 for no limit
+     */
+    public static synchronized UploadSpool open(Path directory, int segmentSize, long maxBytes) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        UploadSpool spool = open.get(key);
+        if (spool == null) {
+            spool = new UploadSpool(key, segmentSize, maxBytes);
+            open.put(key, spool);
+        }
+        return spool;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path p : stream) {
+                files.add(p);
+            }
+        }
+        Collections.sort(files);
+        long nextIndex = 0;
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            long index = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            nextIndex = Math.max(nextIndex, index + 1);
+            Segment s = new Segment(p, (int) Files.size(p));
+            s.recover();
+            if (s.pendingRecords == 0) {
+                s.delete();
+                continue;
+            }
+            segments.add(s);
+            pendingBytes += s.pendingBytes;
+            pendingRecords += s.pendingRecords;
+        }
+        if (pendingRecords > 0) {
+            logger.info("Found " + pendingRecords + " spooled upload chunks in " + directory);
+        }
+        this.nextIndex = nextIndex;
+    }
+
+    /**
+     * Makes the given sink the one that drains this spool.
+     *
+     * @return The sink that drained it before, which has to stop draining, or null
+     */
+    SpoolingSink attach(SpoolingSink sink) {
+        lock.lock();
+        try {
+            SpoolingSink previous = owner;
+            owner = sink;
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void detach(SpoolingSink sink) {
+        lock.lock();
+        try {
+            if (owner == sink) {
+                owner = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a record and forces it to disk. Blocks while the spool is full.
+     */
+    public void append(byte[] payload) throws IOException, InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (maxBytes > 0 && pendingBytes > 0 && pendingBytes + payload.length > maxBytes) {
+                drained.await();
+            }
+            int needed = HEADER_SIZE + payload.length;
+            if (writeSegment == null || writeSegment.writePosition + needed > writeSegment.size) {
+                if (writeSegment != null) {
+                    writeSegment.closeForWriting();
+                }
+                writeSegment = new Segment(directory.resolve(String.format("%016d", nextIndex) + SUFFIX),
+                        Math.max(segmentSize, needed));
+                nextIndex++;
+                writeSegment.create();
+                segments.add(writeSegment);
+            }
+            writeSegment.append(payload);
+            pendingBytes += payload.length;
+            pendingRecords++;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the oldest record that was not drained yet, and waits if there is none.
+     *
+     * @return The record, or null if none came in within the timeout
+     */
+    Record take(long timeout, TimeUnit unit) throws InterruptedException, IOException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Segment s = segments.peekFirst();
+                while (s != null && s.isExhausted()) {
+                    segments.removeFirst();
+                    s.delete();
+                    s = segments.peekFirst();
+                }
+                if (s != null && s.readPosition < s.writePosition) {
+                    return s.read();
+                }
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = appended.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the last taken record, so that it's taken again.
+     */
+    void release(Record record) {
+        lock.lock();
+        try {
+            record.segment.readPosition = record.position;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a taken record as drained.
+     */
+    void drained(Record record) {
+        lock.lock();
+        try {
+            record.segment.markDrained(record);
+            pendingBytes -= record.payload.length;
+            pendingRecords--;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a taken record into its own file in the rejected directory, and marks it as drained.
+     *
+     * @return The file with the record's payload
+     */
+    Path reject(Record record) throws IOException {
+        Path rejected = directory.resolve(REJECTED);
+        Files.createDirectories(rejected);
+        String segmentName = record.segment.file.getFileName().toString();
+        Path file = rejected.resolve(segmentName.substring(0, segmentName.length() - SUFFIX.length())
+                + "-" + record.position + ".javabin");
+        Files.write(file, record.payload);
+        drained(record);
+        return file;
+    }
+
+    /**
+     * Waits until all records are drained.
+     *
+     * @return false if the timeout elapsed before
+     */
+    boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (pendingRecords > 0) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = drained.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The payload bytes that were not drained yet.
+     */
+    public long getPendingBytes() {
+        lock.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of records that were not drained yet.
+     */
+    public int getPendingRecords() {
+        lock.lock();
+        try {
+            return pendingRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Spool in " + directory;
+    }
+
+    /**
+     * A record that was taken from the spool.
+     */
+    static final class Record {
+        final Segment segment;
+        final int position;
+        final byte[] payload;
+
+        Record(Segment segment, int position, byte[] payload) {
+            this.segment = segment;
+            this.position = position;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * One segment file. All methods are called while holding the spool's lock.
+     */
+    private final class Segment {
+        final Path file;
+        final int size;
+        MappedByteBuffer buffer;
+        int writePosition;
+        int readPosition;
+        long pendingBytes;
+        int pendingRecords;
+        boolean writable;
+
+        Segment(Path file, int size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        void create() throws IOException {
+            map();
+            writable = true;
+        }
+
+        private void map() throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        /**
+         * Scans an existing segment after a restart.
+         */
+        void recover() throws IOException {
+            map();
+            int pos = 0;
+            readPosition = -1;
+            while (pos + HEADER_SIZE <= size) {
+                int length = buffer.getInt(pos);
+                if (length <= 0 || pos + HEADER_SIZE + length > size) {
+                    break;
+                }
+                if (buffer.get(pos + 4) == WRITTEN) {
+                    if (readPosition < 0) {
+                        readPosition = pos;
+                    }
+                    pendingRecords++;
+                    pendingBytes += length;
+                }
+                pos += HEADER_SIZE + length;
+            }
+            writePosition = pos;
+            if (readPosition < 0) {
+                readPosition = pos;
+            }
+        }
+
+        void append(byte[] payload) {
+            int pos = writePosition;
+            ByteBuffer b = buffer.duplicate();
+            b.position(pos + HEADER_SIZE);
+            b.put(payload);
+            buffer.put(pos + 4, WRITTEN);
+            buffer.putInt(pos, payload.length);
+            buffer.force();
+            writePosition = pos + HEADER_SIZE + payload.length;
+            pendingRecords++;
+            pendingBytes += payload.length;
+        }
+
+        void closeForWriting() {
+            writable = false;
+        }
+
+        boolean isExhausted() {
+            return !writable && readPosition >= writePosition && pendingRecords == 0;
+        }
+
+        Record read() throws IOException {
+            if (buffer == null) {
+                map();
+            }
+            int pos = readPosition;
+            int length = buffer.getInt(pos);
+            byte[] payload = new byte[length];
+            ByteBuffer b = buffer.duplicate();
+            b.position(pos + HEADER_SIZE);
+            b.get(payload);
+            readPosition = pos + HEADER_SIZE + length;
+            // Skip records that were drained before a restart
+            while (readPosition + HEADER_SIZE <= writePosition && buffer.get(readPosition + 4) == DRAINED) {
+                readPosition += HEADER_SIZE + buffer.getInt(readPosition);
+            }
+            return new Record(this, pos, payload);
+        }
+
+        void markDrained(Record record) {
+            buffer.put(record.position + 4, DRAINED);
+            pendingRecords--;
+            pendingBytes -= record.payload.length;
+        }
+
+        void delete() {
+            buffer = null;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Cannot delete spool segment " + file, ex);
+            }
+        }
+    }
+}
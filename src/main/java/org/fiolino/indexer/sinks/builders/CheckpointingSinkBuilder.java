@@ -0,0 +1,60 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.ModifyingSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.CheckpointTracker;
+
+import java.util.function.Function;
+
+/**
+ * Builds a sink that registers the IDs of all items at the run's {@link CheckpointTracker}, if there is one.
+ * The upload acknowledges them later.
+ * <p>
+ * It must be added after all filters, since filtered items never get acknowledged.
+ */
+public class CheckpointingSinkBuilder<T> extends WrappedSinkBuilder<T, T> {
+    private final Selector<CheckpointTracker> selector;
+    private final Function<? super T, ?> idFetcher;
+
+    public CheckpointingSinkBuilder(SinkBuilder<T> mainBuilder, Selector<CheckpointTracker> selector,
+                                    Function<? super T, ?> idFetcher) {
+        super(mainBuilder);
+        this.selector = selector;
+        this.idFetcher = idFetcher;
+    }
+
+    @Override
+    protected Sink<T> appendFirst(Sink<T> target) {
+        return new CheckpointingSink<>(target, idFetcher);
+    }
+
+    private class CheckpointingSink<T> extends ModifyingSink<T> {
+
+        private final Function<? super T, ?> idFetcher;
+
+        CheckpointingSink(Sink<? super T> target, Function<? super T, ?> idFetcher) {
+            super(target);
+            this.idFetcher = idFetcher;
+        }
+
+        @Override
+        protected void touch(T element, Container metadata) throws Exception {
+            CheckpointTracker tracker = metadata.get(selector);
+            if (tracker != null) {
+                tracker.emitted(element, idFetcher.apply(element));
+            }
+        }
+
+        @Override
+        public void commit(Container metadata) throws Exception {
+            super.commit(metadata);
+            CheckpointTracker tracker = metadata.remove(selector);
+            if (tracker != null) {
+                // The run is complete, including its cleanup
+                tracker.finished();
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.fiolino.indexer.sinks.builders;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.solr.client.solrj.SolrServerException;
@@ -10,6 +12,11 @@ import org.apache.solr.client.solrj.SolrServerException;
  */
 public interface Cleaner {
 
+    /**
+     * The chunk size used by the default implementation of {@link #deleteByIDs(Iterator)}.
+     */
+    int DEFAULT_DELETE_CHUNK_SIZE = 1000;
+
     /**
      * Callback from the timestamp based delete strategy.
      */
@@ -19,4 +26,29 @@ public interface Cleaner {
      * Callback from the id based delete strategy.
      */
     void deleteByIDs(List<String> idList) throws SolrServerException, IOException;
+
+    /**
+     * Callback from the id based delete strategy for a possibly large number of IDs.
+     * The IDs are sent in chunks instead of one single request.
+     *
+     * @param ids The IDs to delete; will be consumed lazily
+     * @return The number of IDs for which a delete was issued
+     */
+    default long deleteByIDs(Iterator<String> ids) throws SolrServerException, IOException {
+        long count = 0;
+        List<String> chunk = new ArrayList<>(DEFAULT_DELETE_CHUNK_SIZE);
+        while (ids.hasNext()) {
+            chunk.add(ids.next());
+            if (chunk.size() >= DEFAULT_DELETE_CHUNK_SIZE) {
+                deleteByIDs(chunk);
+                count += chunk.size();
+                chunk = new ArrayList<>(DEFAULT_DELETE_CHUNK_SIZE);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            deleteByIDs(chunk);
+            count += chunk.size();
+        }
+        return count;
+    }
 }
@@ -0,0 +1,35 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.client.solrj.SolrServerException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Manages the collections and aliases for a full rebuild into a fresh collection.
+ */
+public interface CollectionAdmin {
+
+    /**
+     * Creates a new, empty collection.
+     */
+    void createCollection(String collection) throws SolrServerException, IOException;
+
+    /**
+     * Deletes a collection.
+     */
+    void deleteCollection(String collection) throws SolrServerException, IOException;
+
+    /**
+     * Returns the collections that the alias currently points to, comma separated.
+     *
+     * @return The collections, or null if there is no such alias
+     */
+    @Nullable
+    String getAliasTarget(String alias) throws SolrServerException, IOException;
+
+    /**
+     * Creates the alias, or atomically switches it if it exists already.
+     */
+    void setAlias(String alias, String collection) throws SolrServerException, IOException;
+}
@@ -2,30 +2,142 @@ package org.fiolino.indexer.sinks.builders;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.fiolino.indexer.metrics.Histogram;
+import org.fiolino.indexer.metrics.Metrics;
 import org.fiolino.indexer.sinks.TimestampSetter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by kuli on 07.10.16.
  */
 public class DefaultCleaner implements Cleaner {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultCleaner.class);
+
     protected final SolrClient solrClient;
 
+    /**
+     * How many IDs are sent with a single delete request.
+     */
+    private final int chunkSize;
+
+    /**
+     * How many delete requests may run at the same time.
+     */
+    private final int parallelism;
+
+    private final Executor executor;
+
+    private final Histogram deleteLatency;
+    private final Histogram deletedIDs;
+
     public DefaultCleaner(SolrClient solrClient) {
+        this(solrClient, DEFAULT_DELETE_CHUNK_SIZE, 1, Runnable::run);
+    }
+
+    public DefaultCleaner(SolrClient solrClient, int chunkSize, int parallelism, Executor executor) {
+        this(solrClient, chunkSize, parallelism, executor, "unknown");
+    }
+
+    /**
+     * @param executor Runs the delete requests if parallelism is larger than 1. Must not wait for threads of the
+     *                 parallel sinks, since these are only released after the deletions are done
+     * @param name     The cleaned type; used for metrics
+     */
+    public DefaultCleaner(SolrClient solrClient, int chunkSize, int parallelism, Executor executor, String name) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
         this.solrClient = solrClient;
+        this.chunkSize = chunkSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = executor;
+        deleteLatency = Metrics.get().histogram(Metrics.DELETE, name);
+        deletedIDs = Metrics.get().histogram(Metrics.DELETED_IDS, name);
     }
 
     @Override
     public void deleteByTimestamp(long everythingBeforeThis) throws SolrServerException, IOException {
         long timestamp = everythingBeforeThis - TimeUnit.SECONDS.toMillis(10);
+        long start = System.nanoTime();
         solrClient.deleteByQuery(TimestampSetter.TIMESTAMP_FIELD + ":[0 TO " + timestamp + "}");
+        deleteLatency.recordSince(start);
     }
 
     @Override
     public void deleteByIDs(List<String> idList) throws SolrServerException, IOException {
+        long start = System.nanoTime();
         solrClient.deleteById(idList);
+        deleteLatency.recordSince(start);
+        deletedIDs.record(idList.size());
+    }
+
+    @Override
+    public long deleteByIDs(Iterator<String> ids) throws SolrServerException, IOException {
+        Semaphore slots = new Semaphore(parallelism);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        long count = 0;
+        int requests = 0;
+        try {
+            while (ids.hasNext() && failure.get() == null) {
+                List<String> chunk = new ArrayList<>(chunkSize);
+                do {
+                    chunk.add(ids.next());
+                } while (chunk.size() < chunkSize && ids.hasNext());
+
+                count += chunk.size();
+                requests++;
+                if (parallelism == 1) {
+                    deleteByIDs(chunk);
+                    continue;
+                }
+                slots.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            deleteByIDs(chunk);
+                        } catch (SolrServerException | IOException | RuntimeException ex) {
+                            failure.compareAndSet(null, ex);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    // The task will never release its slot
+                    slots.release();
+                    failure.compareAndSet(null, ex);
+                }
+            }
+            // Wait until all running requests are finished
+            slots.acquire(parallelism);
+            slots.release(parallelism);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deleting", ex);
+        }
+
+        Exception ex = failure.get();
+        if (ex instanceof SolrServerException) {
+            throw (SolrServerException) ex;
+        }
+        if (ex instanceof IOException) {
+            throw (IOException) ex;
+        }
+        if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        logger.info("Issued deletes for " + count + " ids in " + requests + " requests.");
+        return count;
     }
 }
@@ -0,0 +1,135 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.fiolino.common.ioc.Beans;
+import org.fiolino.common.processing.*;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Caches the analyzed document fillers per model type, so that the model graph is analyzed only once.
+ * <p>
+ * The key consists of the model class, the default naming policy and whether the filler is compiled.
+ * Each filler is built only once, even if it's requested by several threads at the same time;
+ * the others wait for it.
+ */
+@ThreadSafe
+public final class DocumentFactoryCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentFactoryCache.class);
+
+    private static final ConcurrentMap<Key, CompletableFuture<SolrDocumentFiller<?>>> cache = new ConcurrentHashMap<>();
+
+    private DocumentFactoryCache() {
+        throw new AssertionError("Static class");
+    }
+
+    /**
+     * Gets the filler from the cache, or builds it.
+     *
+     * @param type    The model type
+     * @param compile Whether the filler shall be compiled
+     */
+    public static <T> SolrDocumentFiller<T> get(Class<T> type, boolean compile) {
+        Key key = new Key(type, compile);
+        CompletableFuture<SolrDocumentFiller<?>> future = cache.get(key);
+        if (future == null) {
+            CompletableFuture<SolrDocumentFiller<?>> building = new CompletableFuture<>();
+            future = cache.putIfAbsent(key, building);
+            if (future == null) {
+                future = building;
+                try {
+                    building.complete(SolrSinkBuilder.buildSolrDocumentFiller(type, compile));
+                } catch (RuntimeException | Error ex) {
+                    // Don't cache failures; the next call shall try again
+                    cache.remove(key, building);
+                    building.completeExceptionally(ex);
+                    throw ex;
+                }
+            }
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            SolrDocumentFiller<T> filler = (SolrDocumentFiller<T>) future.join();
+            return filler;
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Builds the fillers of all given types in parallel, e.g. at application start.
+     *
+     * @param types    The model types
+     * @param compile  Whether the fillers shall be compiled
+     * @param executor Runs the analysis
+     * @return Completes when all fillers are built
+     */
+    public static CompletableFuture<Void> prebuild(Collection<? extends Class<?>> types, boolean compile,
+                                                   Executor executor) {
+        List<CompletableFuture<?>> futures = new ArrayList<>(types.size());
+        for (Class<?> t : types) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                long start = System.currentTimeMillis();
+                get(t, compile);
+                logger.info("Built document factory for " + t.getName() + " in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+            }, executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+    }
+
+    /**
+     * Removes all cached fillers, e.g. after the naming configuration changed.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static final class Key {
+        private final Class<?> type;
+        private final boolean compile;
+        private final NamingPolicy namingPolicy;
+
+        Key(Class<?> type, boolean compile) {
+            this.type = type;
+            this.compile = compile;
+            namingPolicy = Beans.get(NamingPolicy.DEFAULT_NAME, NamingPolicy.class);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type.equals(other.type) && compile == other.compile && Objects.equals(namingPolicy, other.namingPolicy);
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + Boolean.hashCode(compile)) * 31 + Objects.hashCode(namingPolicy);
+        }
+    }
+}
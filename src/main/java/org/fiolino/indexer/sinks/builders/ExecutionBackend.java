@@ -0,0 +1,263 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.fiolino.indexer.IndexerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the tasks of the parallel sinks and of other background work like deletions.
+ * <p>
+ * There are three kinds:
+ * <ul>
+ * <li>{@link Kind#PLATFORM}: A cached pool of platform threads which grows as needed. This is the default.</li>
+ * <li>{@link Kind#BOUNDED}: A fixed number of platform threads; further tasks are queued. Must be at least as large
+ * as the number of parallel threads of all indexers running at the same time, because the parallel sinks
+ * occupy their threads until they get committed.</li>
+ * <li>{@link Kind#VIRTUAL}: A new virtual thread per task. Since these threads mostly wait for Solr, this allows
+ * many more parallel uploads. Only available on Java 21 and above; falls back to {@link Kind#PLATFORM} otherwise.</li>
+ * </ul>
+ * Deletions run when the sink gets committed, while the parallel sinks still occupy their threads. So they must not
+ * wait for a bounded pool; see {@link #sharedForDeletions(IndexerProperties)}.
+ */
+@ThreadSafe
+public abstract class ExecutionBackend implements Executor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionBackend.class);
+
+    public enum Kind {
+        PLATFORM, BOUNDED, VIRTUAL
+    }
+
+    /**
+     * Warn about waiting tasks at most once in this interval.
+     */
+    private static final long WARN_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final ExecutionBackend DEFAULT_PLATFORM = platform("Indexer thread");
+
+    private static ExecutionBackend sharedBounded;
+    private static ExecutionBackend sharedVirtual;
+    private static ExecutionBackend sharedDeletions;
+
+    private final String name;
+
+    private ExecutionBackend(String name) {
+        this.name = name;
+    }
+
+    /**
+     * A cached pool of platform threads, as used by default.
+     */
+    public static ExecutionBackend platform(String name) {
+        return new PoolBackend(name, Kind.PLATFORM, (ThreadPoolExecutor) Executors.newCachedThreadPool(threadFactory(name)));
+    }
+
+    /**
+     * A fixed number of platform threads; further tasks are queued.
+     */
+    public static ExecutionBackend bounded(String name, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        return new PoolBackend(name, Kind.BOUNDED, (ThreadPoolExecutor) Executors.newFixedThreadPool(threads, threadFactory(name)));
+    }
+
+    /**
+     * One new virtual thread per task. Falls back to a platform pool if the runtime doesn't support virtual threads.
+     */
+    public static ExecutionBackend virtual(String name) {
+        ExecutorService virtualExecutor;
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            virtualExecutor = (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            logger.warn("Virtual threads are not available in this runtime; using platform threads for " + name);
+            return platform(name);
+        }
+        return new VirtualBackend(name, virtualExecutor);
+    }
+
+    /**
+     * The backend as configured in the properties. There is only one instance per kind, shared by all indexers.
+     */
+    public static ExecutionBackend shared(IndexerProperties properties) {
+        switch (properties.getExecutor()) {
+            case BOUNDED:
+                synchronized (ExecutionBackend.class) {
+                    if (sharedBounded == null) {
+                        sharedBounded = bounded("Indexer thread", properties.getExecutorThreads());
+                    }
+                    return sharedBounded;
+                }
+            case VIRTUAL:
+                synchronized (ExecutionBackend.class) {
+                    if (sharedVirtual == null) {
+                        sharedVirtual = virtual("Indexer thread");
+                    }
+                    return sharedVirtual;
+                }
+            default:
+                return DEFAULT_PLATFORM;
+        }
+    }
+
+    /**
+     * The backend for deletions. If the configured backend is bounded, the deletions get their own pool; otherwise
+     * they'd wait for threads that the parallel sinks only release after the deletions are done.
+     */
+    public static ExecutionBackend sharedForDeletions(IndexerProperties properties) {
+        if (properties.getExecutor() != Kind.BOUNDED) {
+            return shared(properties);
+        }
+        synchronized (ExecutionBackend.class) {
+            if (sharedDeletions == null) {
+                sharedDeletions = platform("Solr delete thread");
+            }
+            return sharedDeletions;
+        }
+    }
+
+    /**
+     * The shared default platform pool.
+     */
+    public static ExecutionBackend defaultPlatform() {
+        return DEFAULT_PLATFORM;
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> new Thread(r, name + " #" + counter.incrementAndGet());
+    }
+
+    public final String getName() {
+        return name;
+    }
+
+    public abstract Kind getKind();
+
+    /**
+     * How many threads are currently used to run tasks.
+     */
+    public abstract int getThreadCount();
+
+    /**
+     * How many tasks are waiting for a free thread.
+     */
+    public abstract int getQueueDepth();
+
+    /**
+     * How many tasks had to wait for a free thread since this backend was created.
+     */
+    public abstract long getDelayedTaskCount();
+
+    @Override
+    public String toString() {
+        return getKind() + " executor " + name + " (" + getThreadCount() + " threads, " + getQueueDepth() + " queued)";
+    }
+
+    private static final class PoolBackend extends ExecutionBackend {
+        private final Kind kind;
+        private final ThreadPoolExecutor pool;
+        private final AtomicLong delayed = new AtomicLong();
+        private final AtomicLong lastWarning = new AtomicLong(System.nanoTime() - WARN_INTERVAL_NANOS);
+        private final AtomicLong delayedSinceWarning = new AtomicLong();
+
+        PoolBackend(String name, Kind kind, ThreadPoolExecutor pool) {
+            super(name);
+            this.kind = kind;
+            this.pool = pool;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pool.execute(command);
+            if (kind == Kind.BOUNDED && !pool.getQueue().isEmpty()) {
+                delayed.incrementAndGet();
+                delayedSinceWarning.incrementAndGet();
+                warnDelayed();
+            }
+        }
+
+        private void warnDelayed() {
+            long now = System.nanoTime();
+            long last = lastWarning.get();
+            if (now - last >= WARN_INTERVAL_NANOS && lastWarning.compareAndSet(last, now)) {
+                logger.warn(this + ": " + delayedSinceWarning.getAndSet(0) + " tasks had to wait for free threads.");
+            }
+        }
+
+        @Override
+        public Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public int getThreadCount() {
+            return pool.getPoolSize();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return pool.getQueue().size();
+        }
+
+        @Override
+        public long getDelayedTaskCount() {
+            return delayed.get();
+        }
+    }
+
+    private static final class VirtualBackend extends ExecutionBackend {
+        private final ExecutorService executor;
+        private final AtomicInteger running = new AtomicInteger();
+
+        VirtualBackend(String name, ExecutorService executor) {
+            super(name);
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            running.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                });
+            } catch (RuntimeException ex) {
+                running.decrementAndGet();
+                throw ex;
+            }
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.VIRTUAL;
+        }
+
+        @Override
+        public int getThreadCount() {
+            return running.get();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            // Every task gets its own thread
+            return 0;
+        }
+
+        @Override
+        public long getDelayedTaskCount() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.fiolino.common.util.Serializer;
+import org.fiolino.data.base.Identified;
+import org.fiolino.indexer.SolrDocumentFiller;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Caches the serializations of related entities, so that a category or author which is referenced by
+ * millions of documents is serialized only once per run.
+ * <p>
+ * Entries are keyed by the serialized type and the entity's id. Each run has its own cache, which is bound to
+ * the run's filler with {@link #bind(SolrDocumentFiller)}; fillers of other runs don't see it. It's cleared
+ * completely when it gets full. If entities can change during a run, a version hook can be installed;
+ * cached serializations with a different version are then renewed.
+ */
+@ThreadSafe
+public final class FacetSerializationCache {
+
+    /**
+     * The cache of the run whose filler is currently running in this thread.
+     */
+    private static final ThreadLocal<FacetSerializationCache> current = new ThreadLocal<>();
+
+    private final int capacity;
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Object, Entry>> serializations = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Function<? super Identified, ?> versionHook;
+
+    /**
+     * @param capacity How many serializations to keep at most; 0 disables the cache
+     */
+    public FacetSerializationCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Wraps the filler of some run, so that its relations are serialized using this cache.
+     */
+    public <T> SolrDocumentFiller<T> bind(SolrDocumentFiller<T> filler) {
+        if (capacity == 0) {
+            return filler;
+        }
+        return (model, doc, count) -> {
+            FacetSerializationCache previous = current.get();
+            current.set(this);
+            try {
+                filler.process(model, doc, count);
+            } finally {
+                current.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Serializes the entity with the cache of the currently running filler, or directly if it has none.
+     */
+    static <E> String serializeInRun(Class<?> type, Serializer<? super E> serializer, E entity) {
+        FacetSerializationCache cache = current.get();
+        return cache == null ? serializer.serialize(entity) : cache.serialize(type, serializer, entity);
+    }
+
+    /**
+     * Sets a function which returns some version of an entity, like a modification timestamp.
+     * Cached serializations are only used if the version didn't change.
+     * <p>
+     * This doesn't apply to cached relations, whose recorded fields are replayed without serializing them again.
+     *
+     * @param versionHook The hook, or null if entities don't change during a run
+     */
+    public void setVersionHook(@Nullable Function<? super Identified, ?> versionHook) {
+        this.versionHook = versionHook;
+    }
+
+    /**
+     * Returns the serialization of the given entity, from the cache if possible.
+     *
+     * @param type       The cache key's type, usually the relation's target type
+     * @param serializer Used if the entity is not cached yet
+     * @param entity     The serialized entity; only {@link Identified} entities are cached
+     */
+    public <E> String serialize(Class<?> type, Serializer<? super E> serializer, E entity) {
+        if (capacity == 0 || !(entity instanceof Identified)) {
+            return serializer.serialize(entity);
+        }
+        Identified identified = (Identified) entity;
+        Object id = identified.getId();
+        if (id == null) {
+            return serializer.serialize(entity);
+        }
+        Function<? super Identified, ?> hook = versionHook;
+        Object version = hook == null ? null : hook.apply(identified);
+        ConcurrentMap<Object, Entry> map = serializations.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+        Entry cached = map.get(id);
+        if (cached != null && Objects.equals(cached.version, version)) {
+            return cached.serialization;
+        }
+
+        String serialization = serializer.serialize(entity);
+        if (cached == null && size.incrementAndGet() > capacity) {
+            clear();
+        }
+        map.put(id, new Entry(version, serialization));
+        return serialization;
+    }
+
+    /**
+     * Removes all cached serializations.
+     */
+    public void clear() {
+        serializations.clear();
+        size.set(0);
+    }
+
+    /**
+     * The approximate number of cached serializations.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private static final class Entry {
+        final Object version;
+        final String serialization;
+
+        Entry(Object version, String serialization) {
+            this.version = version;
+            this.serialization = serialization;
+        }
+    }
+}
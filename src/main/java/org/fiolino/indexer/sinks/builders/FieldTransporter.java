@@ -0,0 +1,42 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.indexer.SolrDocumentFiller;
+
+import java.util.function.Function;
+
+/**
+ * A filler that copies the value of a single getter into a Solr field.
+ * <p>
+ * The {@link FillerCompiler} doesn't call {@link #process(Object, SolrInputDocument, int)}, but calls the getter
+ * and passes the field name as a constant from the generated code, so that every field gets its own call sites.
+ * This is public because the generated classes are defined in their own class loaders.
+ */
+public interface FieldTransporter<T> extends SolrDocumentFiller<T> {
+
+    /**
+     * The getter of the transported value.
+     */
+    Function<Object, ?> getGetter();
+
+    /**
+     * The Solr field name, or the name template of a map's fields.
+     */
+    String getSolrName();
+
+    /**
+     * Adds a value which the getter returned.
+     *
+     * @param solrName The result of {@link #getSolrName()}
+     * @param value    Never null
+     */
+    void transport(SolrInputDocument doc, String solrName, Object value, int count);
+
+    @Override
+    default void process(T model, SolrInputDocument doc, int count) {
+        Object value = getGetter().apply(model);
+        if (value != null) {
+            transport(doc, getSolrName(), value, count);
+        }
+    }
+}
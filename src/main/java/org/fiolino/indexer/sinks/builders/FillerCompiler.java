@@ -0,0 +1,227 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Compiles a list of {@link SolrDocumentFiller}s into a single generated class.
+ * <p>
+ * The generated class holds every filler in its own final field and calls them one after another
+ * from a single straight-line process() method. In contrast to a chain of
+ * {@link SolrDocumentFiller#andThen(SolrDocumentFiller)} calls, every filler gets its own call site,
+ * which stays monomorphic and can be inlined by the JIT regardless of the number of fields.
+ * <p>
+ * {@link FieldTransporter}s are unrolled further: The generated code calls each field's getter from its own
+ * call site, and passes the Solr field name as a constant. Otherwise all fields of the same kind would share
+ * the getter call site in the transporter's code, which would become megamorphic.
+ * <p>
+ * Each compiled filler gets its own class loader, so that its classes are unloaded together with it.
+ */
+final class FillerCompiler {
+
+    /**
+     * Methods larger than 8000 bytes of bytecode are not compiled by HotSpot at all,
+     * so larger filler lists are split into nested compiled fillers. An unrolled transporter takes less than
+     * 30 bytes.
+     */
+    static final int MAX_FILLERS_PER_CLASS = 256;
+
+    private static final String FILLER_NAME = Type.getInternalName(SolrDocumentFiller.class);
+    private static final String FILLER_DESCRIPTOR = Type.getDescriptor(SolrDocumentFiller.class);
+    private static final String TRANSPORTER_NAME = Type.getInternalName(FieldTransporter.class);
+    private static final String TRANSPORTER_DESCRIPTOR = Type.getDescriptor(FieldTransporter.class);
+    private static final String GETTER_NAME = Type.getInternalName(Function.class);
+    private static final String GETTER_DESCRIPTOR = Type.getDescriptor(Function.class);
+    private static final String TRANSPORT_DESCRIPTOR = "(" + Type.getDescriptor(SolrInputDocument.class)
+            + Type.getDescriptor(String.class) + Type.getDescriptor(Object.class) + "I)V";
+    private static final String CONSTRUCTOR_DESCRIPTOR = "([" + FILLER_DESCRIPTOR + ")V";
+    private static final String PROCESS_DESCRIPTOR = "(" + Type.getDescriptor(Object.class)
+            + Type.getDescriptor(SolrInputDocument.class) + "I)V";
+
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    private FillerCompiler() {
+        throw new AssertionError("Static class");
+    }
+
+    /**
+     * Compiles the given fillers into one.
+     *
+     * @param fillers These will be called in the given order
+     * @return A single filler calling all of them
+     */
+    static <T> SolrDocumentFiller<T> compile(List<SolrDocumentFiller<T>> fillers) {
+        return compile(fillers, null);
+    }
+
+    private static <T> SolrDocumentFiller<T> compile(List<SolrDocumentFiller<T>> fillers,
+                                                     @Nullable FillerClassLoader loader) {
+        int n = fillers.size();
+        if (n == 0) {
+            return SolrDocumentFiller.doNothing();
+        }
+        if (n == 1) {
+            return fillers.get(0);
+        }
+        FillerClassLoader classLoader = loader == null ? new FillerClassLoader() : loader;
+        if (n > MAX_FILLERS_PER_CLASS) {
+            int parts = (n + MAX_FILLERS_PER_CLASS - 1) / MAX_FILLERS_PER_CLASS;
+            @SuppressWarnings("unchecked")
+            SolrDocumentFiller<T>[] compiledParts = new SolrDocumentFiller[parts];
+            for (int i = 0; i < parts; i++) {
+                int from = i * MAX_FILLERS_PER_CLASS;
+                compiledParts[i] = compile(fillers.subList(from, Math.min(n, from + MAX_FILLERS_PER_CLASS)), classLoader);
+            }
+            return instantiate(compiledParts, classLoader);
+        }
+        @SuppressWarnings("unchecked")
+        SolrDocumentFiller<T>[] array = fillers.toArray(new SolrDocumentFiller[n]);
+        return instantiate(array, classLoader);
+    }
+
+    private static <T> SolrDocumentFiller<T> instantiate(SolrDocumentFiller<T>[] fillers,
+                                                         FillerClassLoader classLoader) {
+        String className = FillerCompiler.class.getPackage().getName() + ".CompiledFiller$" + classCounter.incrementAndGet();
+        byte[] byteCode = generate(className.replace('.', '/'), fillers);
+        Class<?> fillerClass = classLoader.define(className, byteCode);
+        try {
+            @SuppressWarnings("unchecked")
+            SolrDocumentFiller<T> compiled = (SolrDocumentFiller<T>) fillerClass.getConstructor(SolrDocumentFiller[].class)
+                    .newInstance((Object) fillers);
+            return compiled;
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException ex) {
+            throw new AssertionError("Cannot instantiate " + className, ex);
+        } catch (InvocationTargetException ex) {
+            throw new AssertionError("Cannot instantiate " + className, ex.getCause());
+        }
+    }
+
+    private static byte[] generate(String internalName, SolrDocumentFiller<?>[] fillers) {
+        int n = fillers.length;
+        // Frames are computed, since the unrolled transporters branch on null values
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, internalName, null,
+                "java/lang/Object", new String[] {FILLER_NAME});
+
+        for (int i = 0; i < n; i++) {
+            if (fillers[i] instanceof FieldTransporter) {
+                cw.visitField(ACC_PRIVATE | ACC_FINAL, fieldName(i), TRANSPORTER_DESCRIPTOR, null, null).visitEnd();
+                cw.visitField(ACC_PRIVATE | ACC_FINAL, getterName(i), GETTER_DESCRIPTOR, null, null).visitEnd();
+            } else {
+                cw.visitField(ACC_PRIVATE | ACC_FINAL, fieldName(i), FILLER_DESCRIPTOR, null, null).visitEnd();
+            }
+        }
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", CONSTRUCTOR_DESCRIPTOR, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        for (int i = 0; i < n; i++) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            pushInt(mv, i);
+            mv.visitInsn(AALOAD);
+            if (fillers[i] instanceof FieldTransporter) {
+                mv.visitTypeInsn(CHECKCAST, TRANSPORTER_NAME);
+                mv.visitFieldInsn(PUTFIELD, internalName, fieldName(i), TRANSPORTER_DESCRIPTOR);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitFieldInsn(GETFIELD, internalName, fieldName(i), TRANSPORTER_DESCRIPTOR);
+                mv.visitMethodInsn(INVOKEINTERFACE, TRANSPORTER_NAME, "getGetter", "()" + GETTER_DESCRIPTOR, true);
+                mv.visitFieldInsn(PUTFIELD, internalName, getterName(i), GETTER_DESCRIPTOR);
+            } else {
+                mv.visitFieldInsn(PUTFIELD, internalName, fieldName(i), FILLER_DESCRIPTOR);
+            }
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "process", PROCESS_DESCRIPTOR, null, null);
+        mv.visitCode();
+        for (int i = 0; i < n; i++) {
+            if (fillers[i] instanceof FieldTransporter) {
+                unrollTransporter(mv, internalName, i, ((FieldTransporter<?>) fillers[i]).getSolrName());
+                continue;
+            }
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, internalName, fieldName(i), FILLER_DESCRIPTOR);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitVarInsn(ILOAD, 3);
+            mv.visitMethodInsn(INVOKEINTERFACE, FILLER_NAME, "process", PROCESS_DESCRIPTOR, true);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Emits: value = getter.apply(model); if (value != null) transporter.transport(doc, "name", value, count);
+     */
+    private static void unrollTransporter(MethodVisitor mv, String internalName, int i, String solrName) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, internalName, getterName(i), GETTER_DESCRIPTOR);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitMethodInsn(INVOKEINTERFACE, GETTER_NAME, "apply", "(Ljava/lang/Object;)Ljava/lang/Object;", true);
+        mv.visitVarInsn(ASTORE, 4);
+        mv.visitVarInsn(ALOAD, 4);
+        Label skip = new Label();
+        mv.visitJumpInsn(IFNULL, skip);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, internalName, fieldName(i), TRANSPORTER_DESCRIPTOR);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitLdcInsn(solrName);
+        mv.visitVarInsn(ALOAD, 4);
+        mv.visitVarInsn(ILOAD, 3);
+        mv.visitMethodInsn(INVOKEINTERFACE, TRANSPORTER_NAME, "transport", TRANSPORT_DESCRIPTOR, true);
+        mv.visitLabel(skip);
+    }
+
+    private static String fieldName(int i) {
+        return "f" + i;
+    }
+
+    private static String getterName(int i) {
+        return "g" + i;
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else {
+            mv.visitIntInsn(SIPUSH, value);
+        }
+    }
+
+    /**
+     * Defines the generated classes of one compiled filler. Its parent must see the filler interface and the
+     * Solr document.
+     */
+    private static final class FillerClassLoader extends ClassLoader {
+        FillerClassLoader() {
+            super(SolrDocumentFiller.class.getClassLoader());
+        }
+
+        synchronized Class<?> define(String name, byte[] byteCode) {
+            return defineClass(name, byteCode, 0, byteCode.length);
+        }
+    }
+}
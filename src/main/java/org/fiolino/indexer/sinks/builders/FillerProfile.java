@@ -0,0 +1,214 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.fiolino.indexer.SolrDocumentFiller;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the costs of the single fillers of a model type, to find out which field, relation or serializer
+ * makes building the documents slow.
+ * <p>
+ * Only every n-th call of a filler is measured, so the overhead stays small. Fillers of relations contain the costs
+ * of the relation target's fillers, which are reported separately as well.
+ */
+@ThreadSafe
+public final class FillerProfile {
+
+    private final String type;
+    private final int sampleRate;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param type       The profiled model type's name
+     * @param sampleRate Measure one of this many calls
+     */
+    public FillerProfile(String type, int sampleRate) {
+        this.type = type;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Wraps some filler so that it gets profiled under the given label.
+     */
+    <T> SolrDocumentFiller<T> profile(String label, SolrDocumentFiller<T> filler) {
+        Entry entry = entries.computeIfAbsent(label, Entry::new);
+        return (model, doc, count) -> {
+            if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+                filler.process(model, doc, count);
+                return;
+            }
+            int valuesBefore = countValues(doc);
+            long start = System.nanoTime();
+            try {
+                filler.process(model, doc, count);
+            } finally {
+                entry.record(System.nanoTime() - start, countValues(doc) - valuesBefore);
+            }
+        };
+    }
+
+    /**
+     * Counting documents know their number of values; all others are walked.
+     */
+    private static int countValues(SolrInputDocument doc) {
+        if (doc instanceof CountingDocument) {
+            return ((CountingDocument) doc).getValueCount();
+        }
+        int n = 0;
+        for (SolrInputField f : doc) {
+            n += f.getValueCount();
+        }
+        return n;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns the profiled labels, the most expensive first.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        list.sort((e1, e2) -> Long.compare(e2.getTotalNanos(), e1.getTotalNanos()));
+        return list;
+    }
+
+    /**
+     * Creates a human readable report of the most expensive fillers.
+     *
+     * @param limit How many fillers to list
+     */
+    public String report(int limit) {
+        StringBuilder sb = new StringBuilder("Filler costs of ").append(type)
+                .append(" (sampled 1 of ").append(sampleRate).append("):");
+        int i = 0;
+        for (Entry e : getEntries()) {
+            if (i++ >= limit || e.getSamples() == 0) {
+                break;
+            }
+            sb.append("\n  ").append(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resets all counters.
+     */
+    public void reset() {
+        entries.values().forEach(Entry::reset);
+    }
+
+    @Override
+    public String toString() {
+        return report(Integer.MAX_VALUE);
+    }
+
+    /**
+     * A document that counts the values added to it, so that profiled fillers don't need to walk all fields
+     * before and after each call.
+     */
+    static class CountingDocument extends SolrInputDocument {
+        private static final long serialVersionUID = 1L;
+
+        private int valueCount;
+
+        @Override
+        public void addField(String name, Object value) {
+            addField(name, value, 1.0f);
+        }
+
+        @Override
+        public void addField(String name, Object value, float boost) {
+            counted(value);
+            super.addField(name, value, boost);
+        }
+
+        /**
+         * Counts a value as added; collections and arrays count with all their elements.
+         */
+        final void counted(Object value) {
+            if (value instanceof Collection) {
+                valueCount += ((Collection<?>) value).size();
+            } else if (value instanceof Object[]) {
+                valueCount += ((Object[]) value).length;
+            } else {
+                valueCount++;
+            }
+        }
+
+        int getValueCount() {
+            return valueCount;
+        }
+    }
+
+    /**
+     * The measured costs of one filler.
+     */
+    public static final class Entry {
+        private final String label;
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder values = new LongAdder();
+
+        Entry(String label) {
+            this.label = label;
+        }
+
+        void record(long time, int addedValues) {
+            samples.increment();
+            nanos.add(time);
+            values.add(addedValues);
+        }
+
+        void reset() {
+            samples.reset();
+            nanos.reset();
+            values.reset();
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getSamples() {
+            return samples.sum();
+        }
+
+        public long getTotalNanos() {
+            return nanos.sum();
+        }
+
+        /**
+         * The average time per call in microseconds.
+         */
+        public double getAverageMicros() {
+            long n = samples.sum();
+            return n == 0 ? 0.0 : (double) TimeUnit.NANOSECONDS.toMicros(nanos.sum()) / n;
+        }
+
+        /**
+         * The average number of added field values per call.
+         */
+        public double getAverageValues() {
+            long n = samples.sum();
+            return n == 0 ? 0.0 : (double) values.sum() / n;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f us, %.1f values per call (%d samples)", label, getAverageMicros(),
+                    getAverageValues(), getSamples());
+        }
+    }
+}
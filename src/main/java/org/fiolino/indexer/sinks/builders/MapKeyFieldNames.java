@@ -0,0 +1,51 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.fiolino.common.util.Encoder;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps the keys of Map-typed fields to their Solr field names, like "name_*_s" with key "de" to "name_de_s".
+ * <p>
+ * Map keys usually come from a small set like languages or categories, so the names are cached.
+ * The cache is bounded; when it's full, further names are calculated on each call.
+ */
+@ThreadSafe
+final class MapKeyFieldNames {
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final String template;
+    private final int capacity;
+    private final ConcurrentMap<String, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * @param template The field name, where the * is replaced by the encoded key
+     * @param capacity How many keys to cache at most
+     */
+    MapKeyFieldNames(String template, int capacity) {
+        this.template = template;
+        this.capacity = capacity;
+    }
+
+    MapKeyFieldNames(String template) {
+        this(template, DEFAULT_CAPACITY);
+    }
+
+    String nameFor(String key) {
+        if (key == null) {
+            return template.replace("*", Encoder.ALL_LETTERS.encode(null));
+        }
+        String name = names.get(key);
+        if (name != null) {
+            return name;
+        }
+        name = template.replace("*", Encoder.ALL_LETTERS.encode(key));
+        if (names.size() < capacity) {
+            names.putIfAbsent(key, name);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,61 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.sinks.CollectionSolrClient;
+import org.fiolino.indexer.sinks.CommitPolicy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the upload into a fresh collection during a rebuild.
+ * <p>
+ * Since nobody queries the new collection yet, there are no soft commits, only the configured hard commits.
+ * There is neither a fingerprint filter nor a spool.
+ * <p>
+ * Timestamps are set as in a full run. Nothing is deleted in the new collection, but the next full run deletes
+ * everything older than its start, which must include the rebuilt documents that are gone by then.
+ */
+public class RebuildSinkBuilder<T> extends SolrSinkBuilder<T> {
+
+    public RebuildSinkBuilder(String name, Class<T> type, CollectionSolrClient solrClient,
+                              Schema schema, Selector<Long> timestampSelector) {
+        super(name, type, solrClient, schema, timestampSelector);
+    }
+
+    @Override
+    protected CommitPolicy createCommitPolicy() {
+        long interval = getIndexerProperties().getHardCommitInterval();
+        if (interval > 0) {
+            return CommitPolicy.everyInterval(interval, TimeUnit.MILLISECONDS, CommitPolicy.Action.HARD);
+        }
+        return CommitPolicy.onlyAtEnd();
+    }
+
+    @Override
+    protected boolean useDirectEncoding() {
+        // Unchanged documents aren't skipped and nothing is spooled anyway
+        return getIndexerProperties().isDirectEncoding() && supportsDirectEncoding();
+    }
+
+    @Override
+    protected boolean supportsDirectEncoding() {
+        // The overridden stages are skipped by direct encoding as well
+        return getClass() == RebuildSinkBuilder.class;
+    }
+
+    @Override
+    protected Sink<List<SolrInputDocument>> createFingerprintFilter(Sink<List<SolrInputDocument>> target) {
+        // Everything is new here
+        return target;
+    }
+
+    @Override
+    protected Sink<List<SolrInputDocument>> createSpoolingSink(Sink<List<SolrInputDocument>> target) {
+        // A failed rebuild is thrown away, so there's nothing to replay
+        return target;
+    }
+}
@@ -0,0 +1,220 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.data.base.Identified;
+import org.fiolino.indexer.SolrDocumentFiller;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the fields that the filler of a to-one relation creates, per related entity id.
+ * <p>
+ * The first document that references some entity runs the sub filler on a {@link FragmentRecorder};
+ * later documents get the recorded fields replayed. When the cache is full, the least recently used half of it
+ * is evicted.
+ * <p>
+ * Each run has its own caches, since the related entities may have changed until the next run; see {@link Run}.
+ * Replayed fragments contain the facet serializations of their first document, so a version hook of the
+ * {@link FacetSerializationCache} doesn't renew them. Relations to entities that change during a run
+ * should not be cached.
+ */
+@ThreadSafe
+final class RelationFragmentCache {
+
+    /**
+     * The caches of the run whose filler is currently running in this thread.
+     */
+    private static final ThreadLocal<Run> current = new ThreadLocal<>();
+
+    private final int capacity;
+    private final ConcurrentMap<Object, Fragment> fragments = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity How many related entities to cache at most
+     */
+    RelationFragmentCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds the fields of the related entity with the current run's cache of the relation, or directly
+     * if the running filler isn't bound to a run.
+     *
+     * @param relation Identifies the relation
+     * @param capacity The capacity of the relation's cache
+     */
+    static void processInRun(Object relation, int capacity, SolrDocumentFiller<Object> subFiller, Object related,
+                             SolrInputDocument doc, int count) {
+        Run run = current.get();
+        if (run == null) {
+            subFiller.process(related, doc, count);
+            return;
+        }
+        run.caches.computeIfAbsent(relation, r -> new RelationFragmentCache(capacity))
+                .process(subFiller, related, doc, count);
+    }
+
+    /**
+     * Adds the fields of the related entity to the document, either from the cache or from the sub filler.
+     */
+    void process(SolrDocumentFiller<Object> subFiller, Object related, SolrInputDocument doc, int count) {
+        Object id = related instanceof Identified ? ((Identified) related).getId() : null;
+        if (id == null) {
+            subFiller.process(related, doc, count);
+            return;
+        }
+        Fragment fragment = fragments.get(id);
+        if (fragment == null || fragment.count != count) {
+            FragmentRecorder recorder = new FragmentRecorder();
+            subFiller.process(related, recorder, count);
+            fragment = recorder.toFragment(count);
+            if (fragments.size() >= capacity) {
+                evict();
+            }
+            fragments.put(id, fragment);
+        }
+        if (fragment.documentBoost != 1.0f && doc.getDocumentBoost() != 1.0f) {
+            // Multiplying the boosts in another order may give a slightly different result
+            subFiller.process(related, doc, count);
+            return;
+        }
+        fragment.lastUsed = System.nanoTime();
+        fragment.replay(doc);
+    }
+
+    /**
+     * Removes the least recently used half of the fragments.
+     */
+    private synchronized void evict() {
+        int toRemove = fragments.size() - capacity / 2;
+        if (toRemove <= 0) {
+            return;
+        }
+        // Copy the times first, since they change while evicting
+        List<Object> ids = new ArrayList<>(fragments.size());
+        List<Fragment> values = new ArrayList<>(fragments.size());
+        for (Map.Entry<Object, Fragment> e : fragments.entrySet()) {
+            ids.add(e.getKey());
+            values.add(e.getValue());
+        }
+        long[] times = new long[values.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = values.get(i).lastUsed;
+        }
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        long threshold = sorted[Math.min(toRemove, sorted.length) - 1];
+        for (int i = 0; i < times.length && toRemove > 0; i++) {
+            if (times[i] <= threshold && fragments.remove(ids.get(i), values.get(i))) {
+                toRemove--;
+            }
+        }
+    }
+
+    /**
+     * The fragment caches of all relations in one run. The filler is bound to it with {@link #bind(SolrDocumentFiller)},
+     * so that concurrent runs of the same type, which share the filler, don't see each other's fragments.
+     */
+    @ThreadSafe
+    static final class Run {
+        private final ConcurrentMap<Object, RelationFragmentCache> caches = new ConcurrentHashMap<>();
+
+        /**
+         * Wraps the filler of this run, so that its relations are cached here.
+         */
+        <T> SolrDocumentFiller<T> bind(SolrDocumentFiller<T> filler) {
+            return (model, doc, count) -> {
+                Run previous = current.get();
+                current.set(this);
+                try {
+                    filler.process(model, doc, count);
+                } finally {
+                    current.set(previous);
+                }
+            };
+        }
+
+        /**
+         * Removes all fragments, usually at the end of the run.
+         */
+        void clear() {
+            caches.clear();
+        }
+    }
+
+    /**
+     * Records all fields instead of storing them.
+     */
+    static final class FragmentRecorder extends FillerProfile.CountingDocument {
+        private static final long serialVersionUID = 1L;
+
+        private String[] names = new String[8];
+        private Object[] values = new Object[8];
+        private float[] boosts = new float[8];
+        private int size;
+
+        @Override
+        public void addField(String name, Object value) {
+            addField(name, value, 1.0f);
+        }
+
+        @Override
+        public void addField(String name, Object value, float boost) {
+            counted(value);
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                boosts = Arrays.copyOf(boosts, size * 2);
+            }
+            names[size] = name;
+            values[size] = value;
+            boosts[size++] = boost;
+        }
+
+        Fragment toFragment(int count) {
+            return new Fragment(Arrays.copyOf(names, size), Arrays.copyOf(values, size), Arrays.copyOf(boosts, size),
+                    getDocumentBoost(), count);
+        }
+    }
+
+    private static final class Fragment {
+        final String[] names;
+        final Object[] values;
+        final float[] boosts;
+        final float documentBoost;
+        final int count;
+        volatile long lastUsed = System.nanoTime();
+
+        Fragment(String[] names, Object[] values, float[] boosts, float documentBoost, int count) {
+            this.names = names;
+            this.values = values;
+            this.boosts = boosts;
+            this.documentBoost = documentBoost;
+            this.count = count;
+        }
+
+        void replay(SolrInputDocument doc) {
+            for (int i = 0; i < names.length; i++) {
+                Object value = values[i];
+                if (value instanceof Collection) {
+                    // The document may keep and extend the collection, so each one gets its own
+                    value = new ArrayList<>((Collection<?>) value);
+                }
+                doc.addField(names[i], value, boosts[i]);
+            }
+            if (documentBoost != 1.0f) {
+                doc.setDocumentBoost(doc.getDocumentBoost() * documentBoost);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+import org.apache.solr.client.solrj.response.CollectionAdminResponse;
+import org.apache.solr.common.util.NamedList;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Manages the collections with the Collections API of SolrCloud.
+ */
+public class SolrCollectionAdmin implements CollectionAdmin {
+
+    protected final SolrClient solrClient;
+    private final String configName;
+    private final int shards;
+    private final int replicas;
+
+    /**
+     * @param configName The config set of new collections
+     * @param shards     The number of shards of new collections
+     * @param replicas   The replication factor of new collections
+     */
+    public SolrCollectionAdmin(SolrClient solrClient, String configName, int shards, int replicas) {
+        this.solrClient = solrClient;
+        this.configName = configName;
+        this.shards = shards;
+        this.replicas = replicas;
+    }
+
+    @Override
+    public void createCollection(String collection) throws SolrServerException, IOException {
+        check("create " + collection,
+                CollectionAdminRequest.createCollection(collection, configName, shards, replicas).process(solrClient));
+    }
+
+    @Override
+    public void deleteCollection(String collection) throws SolrServerException, IOException {
+        check("delete " + collection, CollectionAdminRequest.deleteCollection(collection).process(solrClient));
+    }
+
+    @Override
+    @Nullable
+    public String getAliasTarget(String alias) throws SolrServerException, IOException {
+        CollectionAdminResponse response = CollectionAdminRequest.getClusterStatus().process(solrClient);
+        check("read cluster status", response);
+        NamedList<?> cluster = (NamedList<?>) response.getResponse().get("cluster");
+        if (cluster == null) {
+            return null;
+        }
+        Object aliases = cluster.get("aliases");
+        if (aliases instanceof Map) {
+            Object target = ((Map<?, ?>) aliases).get(alias);
+            return target == null ? null : target.toString();
+        }
+        if (aliases instanceof NamedList) {
+            Object target = ((NamedList<?>) aliases).get(alias);
+            return target == null ? null : target.toString();
+        }
+        return null;
+    }
+
+    @Override
+    public void setAlias(String alias, String collection) throws SolrServerException, IOException {
+        check("point " + alias + " to " + collection,
+                CollectionAdminRequest.createAlias(alias, collection).process(solrClient));
+    }
+
+    private static void check(String action, CollectionAdminResponse response) throws SolrServerException {
+        NamedList<String> errors = response.getErrorMessages();
+        if (errors != null && errors.size() > 0) {
+            throw new SolrServerException("Cannot " + action + ": " + errors);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Collections of " + solrClient;
+    }
+}
@@ -11,17 +11,19 @@ import org.fiolino.common.container.Selector;
 import org.fiolino.common.ioc.Beans;
 import org.fiolino.common.processing.*;
 import org.fiolino.common.reflection.Methods;
-import org.fiolino.common.util.Encoder;
 import org.fiolino.common.util.Serializer;
 import org.fiolino.common.util.Strings;
 import org.fiolino.common.util.Types;
 import org.fiolino.data.annotation.*;
 import org.fiolino.data.base.Identified;
 import org.fiolino.data.base.Text;
+import org.fiolino.indexer.CachedRelation;
+import org.fiolino.indexer.IndexerProperties;
 import org.fiolino.indexer.SolrDocumentFiller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.util.*;
@@ -38,6 +40,18 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
 
     private static final Logger logger = LoggerFactory.getLogger(SolrDocumentFactoryBuilder.class);
     private static final int MAX_LENGTH = 0x8000;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * 1 / sqrt(n) for the usual small value counts, so that multi-valued fields don't need Math.sqrt.
+     */
+    private static final float[] INVERSE_SQUARE_ROOTS = new float[65];
+
+    static {
+        for (int i = 1; i < INVERSE_SQUARE_ROOTS.length; i++) {
+            INVERSE_SQUARE_ROOTS[i] = (float) (1.0 / Math.sqrt((double) i));
+        }
+    }
 
     static final Schema SCHEMA = new Schema("Indexer Factory");
 
@@ -47,6 +61,8 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
 
     private static final Selector<String> FACET_NAME = SCHEMA.createSelector();
 
+    private static final Selector<Integer> RELATION_CACHE_SIZE = SCHEMA.createSelector();
+
     private static final Selector<NamingPolicy> NAMING_POLICY = SCHEMA.createLazilyInitializedSelector(
             () -> Beans.get(NamingPolicy.DEFAULT_NAME, NamingPolicy.class));
 
@@ -62,25 +78,61 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
 
     private final Cardinality cardinality;
 
-    private SolrDocumentFiller<T> transporter = SolrDocumentFiller.doNothing();
+    /**
+     * If set, the fillers are compiled into a single generated class instead of being chained.
+     */
+    private final boolean compiled;
+
+    /**
+     * If not null, each filler gets profiled here.
+     */
+    @Nullable
+    private final FillerProfile profile;
+
+    /**
+     * Prepended to the profiling labels, to tell which relation a field belongs to.
+     */
+    private final String labelPrefix;
+
+    private final List<SolrDocumentFiller<T>> transporters = new ArrayList<>();
 
     private SolrDocumentFactoryBuilder(Prefix prefix, float boost, boolean hidden, Set<String> processedCategories,
-                                       Cardinality cardinality) {
-        this(prefix, boost, hidden, processedCategories, false, cardinality);
+                                       Cardinality cardinality, boolean compiled, @Nullable FillerProfile profile,
+                                       String labelPrefix) {
+        this(prefix, boost, hidden, processedCategories, false, cardinality, compiled, profile, labelPrefix);
     }
 
     private SolrDocumentFactoryBuilder(Prefix prefix, float boost, boolean hidden, Set<String> processedCategories,
-                                       boolean isInitial, Cardinality cardinality) {
+                                       boolean isInitial, Cardinality cardinality, boolean compiled,
+                                       @Nullable FillerProfile profile, String labelPrefix) {
         this.prefix = prefix;
         this.boost = boost;
         this.hidden = hidden;
         this.processedCategories = processedCategories;
         this.isInitial = isInitial;
         this.cardinality = cardinality;
+        this.compiled = compiled;
+        this.profile = profile;
+        this.labelPrefix = labelPrefix;
     }
 
     SolrDocumentFactoryBuilder() {
-        this(Prefix.EMPTY, 1.0f, false, new HashSet<>(), true, Cardinality.TO_ONE);
+        this(false);
+    }
+
+    /**
+     * @param compiled Whether the resulting filler shall be compiled into a single class
+     */
+    SolrDocumentFactoryBuilder(boolean compiled) {
+        this(compiled, null);
+    }
+
+    /**
+     * @param compiled Whether the resulting filler shall be compiled into a single class
+     * @param profile  If not null, all fillers are profiled there
+     */
+    SolrDocumentFactoryBuilder(boolean compiled, @Nullable FillerProfile profile) {
+        this(Prefix.EMPTY, 1.0f, false, new HashSet<>(), true, Cardinality.TO_ONE, compiled, profile, "");
     }
 
     @Override
@@ -117,6 +169,12 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         setFiltered(configuration);
     }
 
+    @AnnotationInterest(INITIALIZING)
+    @SuppressWarnings("unused")
+    private void setCachedRelation(Container configuration, CachedRelation annotation) {
+        configuration.set(RELATION_CACHE_SIZE, annotation.value());
+    }
+
     @AnnotationInterest(INITIALIZING)
     @SuppressWarnings("unused")
     private void setNamingPolicy(Naming naming, Container configuration) {
@@ -173,7 +231,8 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
             return;
         }
         final MethodHandle myGetter = getter.asType(methodType(Date.class, Object.class));
-        addFiller((bean, doc, count) -> {
+        final TimeZone zone = TimeZone.getDefault();
+        addFiller("@DateFacet " + labelPrefix + field.getName(), (bean, doc, count) -> {
             Date date;
             try {
                 date = (Date) myGetter.invokeExact(bean);
@@ -183,16 +242,32 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
                 throw new AssertionError(t);
             }
             if (date != null) {
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(date);
-                int year = cal.get(Calendar.YEAR);
-                int month = cal.get(Calendar.MONTH);
-                doc.addField(yearFacetName, year);
-                doc.addField(monthFacetName, year * 12 + month);
+                int months = monthsSinceYearZero(date.getTime(), zone);
+                doc.addField(yearFacetName, Math.floorDiv(months, 12));
+                doc.addField(monthFacetName, months);
             }
         });
     }
 
+    /**
+     * Calculates year * 12 + month, with month from 0 to 11, without allocating a Calendar.
+     * <p>
+     * Uses the proleptic Gregorian calendar, so dates before 1582 differ from what GregorianCalendar returns.
+     */
+    static int monthsSinceYearZero(long epochMillis, TimeZone zone) {
+        long days = Math.floorDiv(epochMillis + zone.getOffset(epochMillis), MILLIS_PER_DAY);
+        // Civil from days, with years starting in March so that the leap day is the last one
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long month = shiftedMonth < 10 ? shiftedMonth + 2 : shiftedMonth - 10;
+        long year = yearOfEra + era * 400 + (month < 2 ? 1 : 0);
+        return (int) (year * 12 + month);
+    }
+
     @AnnotationInterest(PREPROCESSING)
     @SuppressWarnings("unused")
     private void setFacet(ValueDescription field, Container configuration, Facet facet)
@@ -236,11 +311,16 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         field.getConfiguration().set(FACET_NAME, facetFieldName);
 
         @SuppressWarnings("unchecked")
-        final Serializer<Identified> serializer = (Serializer<Identified>) Serializer.get(field.getTargetType());
+        final Serializer<Identified> identifiedSerializer = (Serializer<Identified>) Serializer.get(field.getTargetType());
+        final Class<?> targetType = field.getTargetType();
+        final Function<Identified, String> serializer =
+                v -> FacetSerializationCache.serializeInRun(targetType, identifiedSerializer, v);
+        final String label = "@Facet " + labelPrefix + field.getName() + " (serializing "
+                + field.getTargetType().getSimpleName() + ")";
 
         if (Iterable.class.isAssignableFrom(getter.type().returnType())) {
             final MethodHandle myGetter = getter.asType(methodType(Iterable.class, Object.class));
-            addFiller((bean, doc, count) -> {
+            addFiller(label, (bean, doc, count) -> {
                 try {
                     @SuppressWarnings("unchecked")
                     Iterable<? extends Identified> relationTarget = (Iterable<? extends Identified>) myGetter.invokeExact(bean);
@@ -249,7 +329,7 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
                             if (relationShallBeHidden(v)) {
                                 continue;
                             }
-                            String serialization = serializer.serialize(v);
+                            String serialization = serializer.apply(v);
                             doc.addField(facetFieldName, serialization);
                             doc.addField(idFieldName, v.getId());
                         }
@@ -262,7 +342,9 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
             });
         } else if (Map.class.isAssignableFrom(getter.type().returnType())) {
             final MethodHandle myGetter = getter.asType(methodType(Map.class, Object.class));
-            addFiller((bean, doc, count) -> {
+            final MapKeyFieldNames facetNames = new MapKeyFieldNames(facetFieldName);
+            final MapKeyFieldNames idNames = new MapKeyFieldNames(idFieldName);
+            addFiller(label, (bean, doc, count) -> {
                 Map<String, ?> relationTarget;
                 try {
                     @SuppressWarnings("unchecked")
@@ -275,16 +357,16 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
                 }
                 if (relationTarget != null) {
                     for (Map.Entry<String, ?> e : relationTarget.entrySet()) {
-                        String key = Encoder.ALL_LETTERS.encode(e.getKey());
-                        String solrName = facetFieldName.replace("*", key);
-                        String idName = idFieldName.replace("*", key);
-
                         Object value = e.getValue();
                         if (value == null) {
                             continue;
                         }
+                        String solrName = facetNames.nameFor(e.getKey());
+                        String idName = idNames.nameFor(e.getKey());
                         if (value instanceof Iterable) {
-                            ((Iterable<?>) value).forEach(o -> indexEntity(doc, serializer, o, solrName, idName));
+                            for (Object o : (Iterable<?>) value) {
+                                indexEntity(doc, serializer, o, solrName, idName);
+                            }
                         } else {
                             indexEntity(doc, serializer, value, solrName, idName);
                         }
@@ -293,7 +375,7 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
             });
         } else {
             final MethodHandle myGetter = getter.asType(methodType(Identified.class, Object.class));
-            addFiller((bean, doc, count) -> {
+            addFiller(label, (bean, doc, count) -> {
                 Identified relationTarget;
                 try {
                     relationTarget = (Identified) myGetter.invokeExact(bean);
@@ -303,7 +385,7 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
                     throw new AssertionError(t);
                 }
                 if (relationTarget != null && !relationShallBeHidden(relationTarget)) {
-                    String serialization = serializer.serialize(relationTarget);
+                    String serialization = serializer.apply(relationTarget);
                     doc.addField(facetFieldName, serialization);
                     doc.addField(idFieldName, relationTarget.getId());
                 }
@@ -311,13 +393,13 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         }
     }
 
-    private void indexEntity(SolrInputDocument doc, Serializer<Identified> serializer,
+    private void indexEntity(SolrInputDocument doc, Function<Identified, String> serializer,
                              Object value, String solrName, String idName) {
         if (relationShallBeHidden(value)) {
             return;
         }
         Identified v = (Identified) value;
-        String serialization = serializer.serialize(v);
+        String serialization = serializer.apply(v);
         doc.addField(solrName, serialization);
         doc.addField(idName, v.getId());
     }
@@ -335,13 +417,18 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
 
         @SuppressWarnings("unchecked")
         Serializer<Object> serializer = (Serializer<Object>) Serializer.get(target.getModelType());
+        Class<?> targetType = target.getModelType();
 
-        addFiller((bean, doc, count) -> {
+        addFiller("Serializer " + target.getModelType().getSimpleName() + " for " + solrName, (bean, doc, count) -> {
             try {
                 Collection<?> relationTarget = getter.apply(bean);
                 if (relationTarget != null) {
-                    relationTarget.stream().filter(this::relationShallBeHidden).map(serializer::serialize).forEach(
-                            s -> doc.addField(solrName, s));
+                    for (Object v : relationTarget) {
+                        // Keeps the former filter: only relations which shall be hidden pass
+                        if (relationShallBeHidden(v)) {
+                            doc.addField(solrName, FacetSerializationCache.serializeInRun(targetType, serializer, v));
+                        }
+                    }
                 }
             } catch (Error | RuntimeException e) {
                 throw e;
@@ -375,7 +462,7 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         Class<?> valueType = field.getValueType();
         if (valueType.equals(String.class)) {
             final MethodHandle getterFromObject = getter.asType(methodType(String.class, Object.class));
-            addFiller((source, doc, count) -> {
+            addFiller("@BoostingValue " + labelPrefix + field.getName(), (source, doc, count) -> {
                 String value;
                 try {
                     value = (String) getterFromObject.invokeExact(source);
@@ -401,7 +488,7 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         }
 
         final MethodHandle getterFromObject = MethodHandles.explicitCastArguments(getter, methodType(float.class, Object.class));
-        addFiller((source, doc, count) -> {
+        addFiller("@BoostingValue " + labelPrefix + field.getName(), (source, doc, count) -> {
             float boost;
             try {
                 boost = (float) getterFromObject.invokeExact(source);
@@ -468,7 +555,7 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
                 transporter = createTransporter(fieldName, getter, converter, anno);
             }
         }
-        addFiller(transporter);
+        addFiller("@Indexed " + labelPrefix + field.getName(), transporter);
     }
 
     private UnaryOperator<Object> findConverter(Class<?> type) {
@@ -526,19 +613,26 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         float fieldBoost = getFieldBoost(annotation);
         boolean relationIsHidden = hidden || isToMany || isGeneric;
         SolrDocumentFactoryBuilder<Object> subBuilder = new SolrDocumentFactoryBuilder<>(subPrefix,
-                boost * fieldBoost, relationIsHidden, processedCategories, cardinality.join(field.getGenericType()));
+                boost * fieldBoost, relationIsHidden, processedCategories, cardinality.join(field.getGenericType()),
+                compiled, profile, labelPrefix + field.getName() + ".");
         analyzer.analyze(target, subBuilder);
         SolrDocumentFiller<Object> subFiller = subBuilder.getFiller();
+        String label = "relation " + labelPrefix + field.getName();
 
         if (isToMany) {
             @SuppressWarnings({"unchecked", "rawtypes"})
             Function<T, Collection<?>> getterFunction = (Function<T, Collection<?>>) Methods.lambdafy(getter, Function.class);
-            addFiller((bean, doc, count) -> {
+            addFiller(label, (bean, doc, count) -> {
                 @SuppressWarnings("unchecked")
                 Collection<?> value = getterFunction.apply(bean);
                 if (value != null) {
                     int subCount = count * value.size();
-                    value.stream().filter(this::relationShallBeHidden).forEach(v -> subFiller.process(v, doc, subCount));
+                    for (Object v : value) {
+                        // Keeps the former filter: only relations which shall be hidden pass
+                        if (relationShallBeHidden(v)) {
+                            subFiller.process(v, doc, subCount);
+                        }
+                    }
                 }
             });
 
@@ -550,7 +644,7 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         } else if (isGeneric) {
             @SuppressWarnings({"unchecked", "rawtypes"})
             Function<T, Map<String, ?>> getterFunction = (Function<T, Map<String, ?>>) Methods.lambdafy(getter, Function.class);
-            addFiller((bean, doc, count) -> {
+            addFiller(label, (bean, doc, count) -> {
                 Map<String, ?> map = getterFunction.apply(bean);
                 if (map != null) {
                     for (Object value : map.values()) {
@@ -558,7 +652,12 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
                             @SuppressWarnings("unchecked")
                             Collection<?> list = (Collection<?>) value;
                             int subCount = count * list.size();
-                            list.stream().filter(this::relationShallBeHidden).forEach(v -> subFiller.process(v, doc, subCount));
+                            for (Object v : list) {
+                                // Keeps the former filter: only relations which shall be hidden pass
+                                if (relationShallBeHidden(v)) {
+                                    subFiller.process(v, doc, subCount);
+                                }
+                            }
                         } else {
                             if (relationShallBeHidden(value)) {
                                 continue;
@@ -572,7 +671,19 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
             // To one relation
             @SuppressWarnings({"unchecked", "rawtypes"})
             Function<Object, Object> getterFunction = (Function<Object, Object>) Methods.lambdafy(getter, Function.class);
-            addFiller((bean, doc, count) -> {
+            int cacheSize = getRelationCacheSize(field, target);
+            if (cacheSize > 0) {
+                // Identifies this relation's cache in each run
+                Object relation = new Object();
+                addFiller(label + " (cached)", (bean, doc, count) -> {
+                    Object value = getterFunction.apply(bean);
+                    if (value != null && !relationShallBeHidden(value)) {
+                        RelationFragmentCache.processInRun(relation, cacheSize, subFiller, value, doc, count);
+                    }
+                });
+                return;
+            }
+            addFiller(label, (bean, doc, count) -> {
                 @SuppressWarnings("unchecked")
                 Object value = getterFunction.apply(bean);
                 if (value != null && !relationShallBeHidden(value)) {
@@ -582,6 +693,21 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         }
     }
 
+    /**
+     * How many fragments of a to-one relation shall be cached, or 0 if it's not cached.
+     */
+    private static int getRelationCacheSize(ValueDescription field, ModelDescription target) {
+        Integer size = field.getConfiguration().get(RELATION_CACHE_SIZE);
+        if (size != null) {
+            return size;
+        }
+        IndexerProperties properties = Beans.get(IndexerProperties.class);
+        if (properties.getCachedRelations().contains(target.getModelType().getSimpleName())) {
+            return properties.getRelationCacheSize();
+        }
+        return 0;
+    }
+
     private float getFieldBoost(FieldType type, Indexed annotation) {
         if (type != FieldType.TEXT) {
             return 1.0f;
@@ -627,73 +753,118 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
 
     private SolrDocumentFiller<T> createTransporter(String solrName, MethodHandle getter, UnaryOperator<Object> converter,
                                                         Indexed annotation) {
-        @SuppressWarnings({"unchecked", "rawtypes"})
-        Function<Object, Object> getterFunction = (Function<Object, Object>) Methods.lambdafy(getter, Function.class);
         float b = annotation == null ? boost : getFieldBoost(annotation);
-        return (bean, doc, count) -> {
-            Object value = getterFunction.apply(bean);
-            if (value == null) return;
-            if (value instanceof Text) {
-                float newBoost = reduceBoostForMultiValueField(b, count);
-                doc.addField(solrName, stripTextValue((Text) value), newBoost);
-            } else {
-                doc.addField(solrName, converter.apply(value));
-            }
-        };
+        return new SingleValueTransporter(lambdafy(getter), solrName, converter, b);
     }
 
     private SolrDocumentFiller<T> createMultiTransporter(String solrName, MethodHandle getter, UnaryOperator<Object> converter,
                                                          Indexed annotation) {
-        @SuppressWarnings({"unchecked", "rawtypes"})
-        Function<Object, Collection<?>> getterFunction = (Function<Object, Collection<?>>) Methods.lambdafy(getter, Function.class);
         float b = annotation == null ? boost : getFieldBoost(annotation);
-        return (bean, doc, count) -> {
-            Collection<?> value = getterFunction.apply(bean);
-            if (value != null) {
-                int fullCount = count * value.size();
-                float newBoost = reduceBoostForMultiValueField(b, fullCount);
-                for (Object v : value) {
-                    if (v instanceof Text) {
-                        doc.addField(solrName, stripTextValue((Text) v), newBoost);
-                    } else {
-                        v = converter.apply(v);
-                        doc.addField(solrName, v);
-                    }
+        return new MultiValueTransporter(lambdafy(getter), solrName, converter, b);
+    }
+
+    private SolrDocumentFiller<T> createMapTransporter(String solrNameTemplate, MethodHandle getter, UnaryOperator<Object> converter, Indexed annotation) {
+        return new MapTransporter(lambdafy(getter), solrNameTemplate, converter, getFieldBoost(annotation));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Function<Object, ?> lambdafy(MethodHandle getter) {
+        return (Function<Object, ?>) Methods.lambdafy(getter, Function.class);
+    }
+
+    /**
+     * The common part of all transporters of an @Indexed field.
+     */
+    private abstract class GetterTransporter implements FieldTransporter<T> {
+        final Function<Object, ?> getter;
+        final String solrName;
+        final UnaryOperator<Object> converter;
+        final float fieldBoost;
+
+        GetterTransporter(Function<Object, ?> getter, String solrName, UnaryOperator<Object> converter,
+                          float fieldBoost) {
+            this.getter = getter;
+            this.solrName = solrName;
+            this.converter = converter;
+            this.fieldBoost = fieldBoost;
+        }
+
+        @Override
+        public final Function<Object, ?> getGetter() {
+            return getter;
+        }
+
+        @Override
+        public final String getSolrName() {
+            return solrName;
+        }
+
+        final void addValue(SolrInputDocument doc, String name, Object value, int count) {
+            if (value instanceof Text) {
+                doc.addField(name, stripTextValue((Text) value), reduceBoostForMultiValueField(fieldBoost, count));
+            } else {
+                doc.addField(name, converter.apply(value));
+            }
+        }
+
+        final void addValues(SolrInputDocument doc, String name, Collection<?> values, int count) {
+            int fullCount = count * values.size();
+            float newBoost = reduceBoostForMultiValueField(fieldBoost, fullCount);
+            for (Object v : values) {
+                if (v instanceof Text) {
+                    doc.addField(name, stripTextValue((Text) v), newBoost);
+                } else {
+                    doc.addField(name, converter.apply(v));
                 }
             }
-        };
+        }
     }
 
-    private SolrDocumentFiller<T> createMapTransporter(String solrNameTemplate, MethodHandle getter, UnaryOperator<Object> converter, Indexed annotation) {
-        @SuppressWarnings({"unchecked", "rawtypes"})
-        Function<Object, Map<String, ?>> getterFunction = (Function<Object, Map<String, ?>>) Methods.lambdafy(getter, Function.class);
-        final float b = getFieldBoost(annotation);
-        return (bean, doc, count) -> {
-            Map<String, ?> map = getterFunction.apply(bean);
-            if (map != null) {
-                for (Map.Entry<String, ?> e : map.entrySet()) {
-                    String key = Encoder.ALL_LETTERS.encode(e.getKey());
-                    String solrName = solrNameTemplate.replace("*", key);
-                    Object value = e.getValue();
-                    if (value instanceof Collection) {
-                        int fullCount = count * ((Collection<?>) value).size();
-                        float newBoost = reduceBoostForMultiValueField(b, fullCount);
-                        for (Object v : (Iterable<?>) value) {
-                            if (v instanceof Text) {
-                                doc.addField(solrName, stripTextValue((Text) v), newBoost);
-                            } else {
-                                doc.addField(solrName, converter.apply(v));
-                            }
-                        }
-                    } else if (value instanceof Text) {
-                        float newBoost = reduceBoostForMultiValueField(b, count);
-                        doc.addField(solrName, stripTextValue((Text) value), newBoost);
-                    } else {
-                        doc.addField(solrName, converter.apply(value));
-                    }
+    private final class SingleValueTransporter extends GetterTransporter {
+        SingleValueTransporter(Function<Object, ?> getter, String solrName, UnaryOperator<Object> converter,
+                               float fieldBoost) {
+            super(getter, solrName, converter, fieldBoost);
+        }
+
+        @Override
+        public void transport(SolrInputDocument doc, String solrName, Object value, int count) {
+            addValue(doc, solrName, value, count);
+        }
+    }
+
+    private final class MultiValueTransporter extends GetterTransporter {
+        MultiValueTransporter(Function<Object, ?> getter, String solrName, UnaryOperator<Object> converter,
+                              float fieldBoost) {
+            super(getter, solrName, converter, fieldBoost);
+        }
+
+        @Override
+        public void transport(SolrInputDocument doc, String solrName, Object value, int count) {
+            addValues(doc, solrName, (Collection<?>) value, count);
+        }
+    }
+
+    private final class MapTransporter extends GetterTransporter {
+        private final MapKeyFieldNames solrNames;
+
+        MapTransporter(Function<Object, ?> getter, String solrNameTemplate, UnaryOperator<Object> converter,
+                       float fieldBoost) {
+            super(getter, solrNameTemplate, converter, fieldBoost);
+            solrNames = new MapKeyFieldNames(solrNameTemplate);
+        }
+
+        @Override
+        public void transport(SolrInputDocument doc, String solrNameTemplate, Object value, int count) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                String solrName = solrNames.nameFor((String) e.getKey());
+                Object v = e.getValue();
+                if (v instanceof Collection) {
+                    addValues(doc, solrName, (Collection<?>) v, count);
+                } else {
+                    addValue(doc, solrName, v, count);
                 }
             }
-        };
+        }
     }
 
     private float reduceBoostForMultiValueField(float originalBoost, int count) {
@@ -703,14 +874,29 @@ class SolrDocumentFactoryBuilder<T> extends Analyzeable {
         if (count == 1) {
             return originalBoost;
         }
+        if (count > 0 && count < INVERSE_SQUARE_ROOTS.length) {
+            return originalBoost * INVERSE_SQUARE_ROOTS[count];
+        }
         return originalBoost / (float) Math.sqrt((double) count);
     }
 
-    private void addFiller(SolrDocumentFiller<T> transporter) {
-        this.transporter = this.transporter.andThen(transporter);
+    /**
+     * Adds a filler.
+     *
+     * @param label Describes which field or relation this filler handles; used for profiling
+     */
+    private void addFiller(String label, SolrDocumentFiller<T> transporter) {
+        transporters.add(profile == null ? transporter : profile.profile(label, transporter));
     }
 
     SolrDocumentFiller<T> getFiller() {
-        return transporter;
+        if (compiled) {
+            return FillerCompiler.compile(transporters);
+        }
+        SolrDocumentFiller<T> filler = SolrDocumentFiller.doNothing();
+        for (SolrDocumentFiller<T> t : transporters) {
+            filler = filler.andThen(t);
+        }
+        return filler;
     }
 }
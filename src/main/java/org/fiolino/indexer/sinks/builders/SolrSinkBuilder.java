@@ -13,13 +13,45 @@ import org.fiolino.common.processing.sink.AggregatingSink;
 import org.fiolino.common.processing.sink.CreatingSink;
 import org.fiolino.common.processing.sink.ParallelizingSink;
 import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.CheckpointTracker;
 import org.fiolino.indexer.IndexerProperties;
 import org.fiolino.indexer.SolrDocumentFiller;
+import org.fiolino.indexer.metrics.Histogram;
+import org.fiolino.indexer.metrics.Metrics;
+import org.fiolino.indexer.metrics.MetricsRegistry;
+import org.fiolino.indexer.sinks.AcknowledgingSink;
+import org.fiolino.indexer.sinks.AdaptiveBatchSize;
+import org.fiolino.indexer.sinks.AdaptiveBatchingSink;
+import org.fiolino.indexer.sinks.BatchMetricsSink;
+import org.fiolino.indexer.sinks.CommitHookSink;
+import org.fiolino.indexer.sinks.CommitPolicy;
+import org.fiolino.indexer.sinks.DirectEncodingSink;
+import org.fiolino.indexer.sinks.DocumentOrigins;
+import org.fiolino.indexer.sinks.DocumentSizeEstimator;
+import org.fiolino.indexer.sinks.FingerprintFilter;
+import org.fiolino.indexer.sinks.MemoryGovernor;
+import org.fiolino.indexer.sinks.MemoryLedger;
+import org.fiolino.indexer.sinks.PartialUpdateSink;
+import org.fiolino.indexer.sinks.QueueDepthProbe;
+import org.fiolino.indexer.sinks.ReleasingSink;
+import org.fiolino.indexer.sinks.SizeBoundedBatchingSink;
 import org.fiolino.indexer.sinks.SolrSink;
+import org.fiolino.indexer.sinks.SpoolingSink;
+import org.fiolino.indexer.sinks.ThrottlingSink;
 import org.fiolino.indexer.sinks.TimestampSetter;
+import org.fiolino.indexer.sinks.UploadSpool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -27,12 +59,13 @@ import java.util.concurrent.TimeUnit;
  */
 public class SolrSinkBuilder<T> implements SinkBuilder<T> {
 
+    private static final Logger logger = LoggerFactory.getLogger(SolrSinkBuilder.class);
+
     /**
-     * This executor is used in the parallel sink. There should be only one thread pool,
-     * so this is static.
+     * This executor is used in the parallel sink if nothing else is configured. There should be only one
+     * thread pool, so this is static.
      */
-    public static final Executor indexerExecutor = Executors.newCachedThreadPool((r) ->
-            new Thread(r, "Indexer thread"));
+    public static final Executor indexerExecutor = ExecutionBackend.defaultPlatform();
 
     /**
      * The indexed type. Should be some kind of domain model.
@@ -60,14 +93,53 @@ public class SolrSinkBuilder<T> implements SinkBuilder<T> {
     private final Schema schema;
     private final Selector<Long> timestampSelector;
 
+    /**
+     * Where the checkpoint tracker of a resumable run is found; null if runs are not checkpointed.
+     */
+    private final Selector<CheckpointTracker> checkpointSelector;
+
+    /**
+     * The model items of all documents until they're uploaded, so that they can be acknowledged at the checkpoint.
+     */
+    private final DocumentOrigins documentOrigins = new DocumentOrigins();
+
+    /**
+     * The profile of each model type, if profiling is enabled. Every sink of this builder reuses it.
+     */
+    private final ConcurrentMap<Class<?>, FillerProfile> fillerProfiles = new ConcurrentHashMap<>();
+
+    /**
+     * The fillers that measure into the {@link #fillerProfiles}, per model type.
+     */
+    private final ConcurrentMap<Class<?>, SolrDocumentFiller<?>> profiledFillers = new ConcurrentHashMap<>();
+
+    /**
+     * The cached fragments of related entities in this builder's runs.
+     */
+    private final RelationFragmentCache.Run relationFragments = new RelationFragmentCache.Run();
+
+    /**
+     * Tracks the items' share of the memory budget; null if there is no budget.
+     */
+    private final MemoryLedger memoryLedger;
+
     public SolrSinkBuilder(String name, Class<T> type, SolrClient solrClient,
                            Schema schema, Selector<Long> timestampSelector) {
+        this(name, type, solrClient, schema, timestampSelector, null);
+    }
+
+    public SolrSinkBuilder(String name, Class<T> type, SolrClient solrClient,
+                           Schema schema, Selector<Long> timestampSelector,
+                           @Nullable Selector<CheckpointTracker> checkpointSelector) {
         indexerProperties = Beans.get(IndexerProperties.class);
         this.name = name;
         this.type = type;
         this.solrClient = solrClient;
         this.schema = schema;
         this.timestampSelector = timestampSelector;
+        this.checkpointSelector = checkpointSelector;
+        MemoryGovernor governor = MemoryGovernor.shared(indexerProperties);
+        memoryLedger = governor == null ? null : new MemoryLedger(governor);
     }
 
     protected final IndexerProperties getIndexerProperties() {
@@ -88,15 +160,47 @@ public class SolrSinkBuilder<T> implements SinkBuilder<T> {
      * @param type The input type
      */
     protected static <T> BeanCreator<T, ? extends SolrInputDocument> buildSolrDocumentFactory(Class<T> type) {
+        return buildSolrDocumentFactory(type, false);
+    }
+
+    /**
+     * Builds the factory for {@link SolrInputDocument}s.
+     *
+     * @param type    The input type
+     * @param compile Whether the field fillers shall be compiled into a single generated class
+     */
+    protected static <T> BeanCreator<T, ? extends SolrInputDocument> buildSolrDocumentFactory(Class<T> type, boolean compile) {
+        SolrDocumentFiller<T> builderFunction = buildSolrDocumentFiller(type, compile);
+        return BeanCreator.using(SolrInputDocument::new, builderFunction.asProcessor());
+    }
+
+    /**
+     * Builds the filler that sets all fields of a {@link SolrInputDocument}.
+     *
+     * @param type    The input type
+     * @param compile Whether the field fillers shall be compiled into a single generated class
+     */
+    protected static <T> SolrDocumentFiller<T> buildSolrDocumentFiller(Class<T> type, boolean compile) {
+        return buildSolrDocumentFiller(type, compile, null);
+    }
+
+    /**
+     * Builds the filler that sets all fields of a {@link SolrInputDocument}.
+     *
+     * @param type    The input type
+     * @param compile Whether the field fillers shall be compiled into a single generated class
+     * @param profile If not null, the costs of all single fillers are measured there
+     */
+    protected static <T> SolrDocumentFiller<T> buildSolrDocumentFiller(Class<T> type, boolean compile,
+                                                                       @Nullable FillerProfile profile) {
         ModelDescription description = new ModelDescription(type, SolrDocumentFactoryBuilder.SCHEMA.createContainer());
-        SolrDocumentFactoryBuilder<T> factoryBuilder = new SolrDocumentFactoryBuilder<>();
+        SolrDocumentFactoryBuilder<T> factoryBuilder = new SolrDocumentFactoryBuilder<>(compile, profile);
         try {
             Analyzer.analyzeAll(description, factoryBuilder);
         } catch (ModelInconsistencyException ex) {
             throw new AssertionError(ex);
         }
-        SolrDocumentFiller<T> builderFunction = factoryBuilder.getFiller();
-        return BeanCreator.using(SolrInputDocument::new, builderFunction.asProcessor());
+        return factoryBuilder.getFiller();
     }
 
     protected final Schema getSchema() {
@@ -111,6 +215,13 @@ public class SolrSinkBuilder<T> implements SinkBuilder<T> {
         return new TimestampSetter(target, timestampSelector);
     }
 
+    /**
+     * Whether the documents get the run's timestamp. Only needed if expired content is deleted by it.
+     */
+    protected boolean isSettingTimestamps() {
+        return true;
+    }
+
     /**
      * This is a hook to add additional content to an uploaded document.
      */
@@ -133,11 +244,71 @@ public class SolrSinkBuilder<T> implements SinkBuilder<T> {
     public Sink<T> createSink() {
         SolrSink solrSink = createSolrSink();
 
-        CreatingSink<T, SolrInputDocument> sink = createSolrDocSink(solrSink, getType());
+        boolean direct = useDirectEncoding();
+        Sink<T> sink = direct
+                ? createDirectEncodingSink(solrSink, getType())
+                : createSolrDocSink(solrSink, getType());
 
         Sink<T> additional = addAdditionalModelSink(sink);
+        if (checkpointSelector != null && !direct) {
+            // Items that didn't become a document must not hold back the checkpoint
+            additional = AcknowledgingSink.acknowledgingDropped(additional, checkpointSelector, documentOrigins);
+        }
+        Sink<T> producer = createProducerSide(additional, solrSink);
+        return new CommitHookSink<>(producer, m -> afterRun());
+    }
+
+    /**
+     * Called after the run was committed, or its commit failed.
+     */
+    protected void afterRun() {
+        if (memoryLedger != null) {
+            // Items that were dropped on the way
+            memoryLedger.releaseAll();
+        }
+        documentOrigins.clear();
+        if (!fillerProfiles.isEmpty()) {
+            reportFillerProfiles();
+        }
+        // The related entities may have changed until the next run
+        relationFragments.clear();
+    }
+
+    /**
+     * Parallelizes the model sink, and adds queue depth measuring and memory budget throttling around it.
+     */
+    private Sink<T> createProducerSide(Sink<T> additional, SolrSink solrSink) {
+        QueueDepthProbe queueDepth = new QueueDepthProbe();
+        Metrics.get().gauge(Metrics.QUEUE_DEPTH, name, queueDepth::getDepth);
+        Sink<T> lane = queueDepth.dequeueing(additional);
+
+        if (memoryLedger == null) {
+            return queueDepth.enqueueing(parallelize(lane, solrSink));
+        }
+        Sink<T> releasing = ReleasingSink.releasingItems(lane, memoryLedger);
+        return new ThrottlingSink<>(queueDepth.enqueueing(parallelize(releasing, solrSink)), memoryLedger,
+                this::estimateSize);
+    }
+
+    /**
+     * Logs the most expensive fillers of all profiled types, and resets the profiles for the next run.
+     */
+    protected void reportFillerProfiles() {
+        for (FillerProfile p : fillerProfiles.values()) {
+            logger.info(p.report(20));
+            p.reset();
+        }
+    }
 
-        return parallelize(additional, solrSink);
+    /**
+     * Estimates how many bytes a model item takes while being queued. Used for the global memory budget.
+     * <p>
+     * Once its Solr document is created, the document's own estimated size counts instead, until it's batched.
+     * By default, this is the average size of the documents so far, or the configured size before the first one.
+     */
+    protected long estimateSize(T model) {
+        long configured = indexerProperties.getEstimatedItemSize();
+        return memoryLedger == null ? configured : memoryLedger.getAverageTransferredSize(configured);
     }
 
     /**
@@ -145,26 +316,237 @@ public class SolrSinkBuilder<T> implements SinkBuilder<T> {
      * It also adds timestamp data to it.
      */
     protected <X> CreatingSink<X, SolrInputDocument> createSolrDocSink(SolrSink sink, Class<X> type) {
-        Sink<SolrInputDocument> docTarget = new AggregatingSink<>(sink, indexerProperties.getUploadChunkSize());
+        Sink<List<SolrInputDocument>> uploader = sink;
+        if (indexerProperties.isSkipUnchanged()) {
+            uploader = createFingerprintFilter(uploader);
+        }
+        uploader = createSpoolingSink(uploader);
+        if (checkpointSelector != null) {
+            // Spooled chunks are safe as well, since they're uploaded in the next run
+            uploader = AcknowledgingSink.acknowledgingDocuments(uploader, checkpointSelector, documentOrigins);
+        }
+        Sink<SolrInputDocument> docTarget = createBatchingSink(uploader);
 
         Sink<SolrInputDocument> optional = addAdditionalContentTo(docTarget);
-        TimestampSetter timestampSetter = createTimestampSetter(optional);
+        Sink<SolrInputDocument> timestampSetter = isSettingTimestamps() ? createTimestampSetter(optional) : optional;
+        // Documents are released when batched or dropped; a partial chunk only flushes with more input,
+        // and the producer may be blocked then
+        Sink<SolrInputDocument> created = memoryLedger == null ? timestampSetter
+                : ReleasingSink.releasingItems(timestampSetter, memoryLedger);
 
-        BeanCreator<X, ? extends SolrInputDocument> beanCreator = buildSolrDocumentFactory(type);
-        return new CreatingSink<>(timestampSetter, beanCreator,
+        SolrDocumentFiller<X> filler = getFiller(type);
+        Histogram createTime = Metrics.get().histogram(Metrics.CREATE_DOCUMENT, name);
+        MemoryLedger ledger = memoryLedger;
+        DocumentOrigins origins = checkpointSelector == null ? null : documentOrigins;
+        SolrDocumentFiller<X> timedFiller = (model, doc, count) -> {
+            long start = System.nanoTime();
+            filler.process(model, doc, count);
+            createTime.recordSince(start);
+            if (ledger != null) {
+                ledger.transfer(model, doc, DocumentSizeEstimator.estimate(doc));
+            }
+            if (origins != null) {
+                origins.created(model, doc);
+            }
+        };
+        BeanCreator<X, ? extends SolrInputDocument> beanCreator;
+        if (indexerProperties.isProfileFillers()) {
+            // Profiled fillers count the added values cheaply in these documents
+            beanCreator = BeanCreator.using(FillerProfile.CountingDocument::new, timedFiller.asProcessor());
+        } else {
+            beanCreator = BeanCreator.using(SolrInputDocument::new, timedFiller.asProcessor());
+        }
+        return new CreatingSink<>(created, beanCreator,
                 indexerProperties.getFactoryTimeout(), TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Returns the cached filler for the type, or the profiled one of this builder if fillers are profiled.
+     * It gets a new serialization cache for this run, and the relation fragment caches of this builder.
+     */
+    private <X> SolrDocumentFiller<X> getFiller(Class<X> type) {
+        SolrDocumentFiller<X> filler;
+        if (indexerProperties.isProfileFillers()) {
+            @SuppressWarnings("unchecked")
+            SolrDocumentFiller<X> profiled = (SolrDocumentFiller<X>) profiledFillers.computeIfAbsent(type, t -> {
+                FillerProfile profile = fillerProfiles.computeIfAbsent(t,
+                        c -> new FillerProfile(c.getSimpleName(), indexerProperties.getProfileSampleRate()));
+                return buildSolrDocumentFiller(t, indexerProperties.isCompileFillers(), profile);
+            });
+            filler = profiled;
+        } else {
+            filler = DocumentFactoryCache.get(type, indexerProperties.isCompileFillers());
+        }
+        return relationFragments.bind(createFacetSerializationCache().bind(filler));
+    }
+
+    /**
+     * Creates the cache of serialized facet relations for a new run.
+     * Subclasses may install a version hook if related entities can change during a run.
+     */
+    protected FacetSerializationCache createFacetSerializationCache() {
+        return new FacetSerializationCache(indexerProperties.getFacetCacheSize());
+    }
+
+    /**
+     * Whether the documents are filled directly into javabin encoded upload requests.
+     * It's configured in the properties, and only used if this builder {@link #supportsDirectEncoding() supports}
+     * it.
+     * <p>
+     * Direct encoding bypasses the document stages, so SolrInputDocuments are built anyway if unchanged
+     * documents are skipped, or if uploads are spooled.
+     */
+    protected boolean useDirectEncoding() {
+        if (!indexerProperties.isDirectEncoding()) {
+            return false;
+        }
+        String reason;
+        if (!supportsDirectEncoding()) {
+            reason = getClass().getName() + " doesn't support it";
+        } else if (indexerProperties.isSkipUnchanged()) {
+            reason = "unchanged documents are skipped";
+        } else if (!indexerProperties.getSpoolDirectory().isEmpty()) {
+            reason = "uploads are spooled";
+        } else {
+            return true;
+        }
+        logger.warn("Direct encoding is not possible because " + reason + "; " + name + " builds SolrInputDocuments.");
+        return false;
+    }
+
+    /**
+     * Whether this builder's documents may be encoded directly. Direct encoding bypasses
+     * {@link #createSolrDocSink(SolrSink, Class)} and all document stage hooks like
+     * {@link #addAdditionalContentTo(Sink)}, so each subclass has to enable it explicitly if it's still
+     * correct then.
+     */
+    protected boolean supportsDirectEncoding() {
+        return getClass() == SolrSinkBuilder.class;
+    }
+
+    /**
+     * Creates the sink that fills the domain objects directly into javabin encoded upload requests,
+     * without building SolrInputDocuments. It also adds the timestamp.
+     * <p>
+     * The document hooks like {@link #addAdditionalContentTo(Sink)} are not applied, which is why
+     * subclasses must enable this with {@link #supportsDirectEncoding()}. Upload chunks are limited by their document
+     * count and byte size only.
+     */
+    protected <X> Sink<X> createDirectEncodingSink(SolrSink sink, Class<X> type) {
+        return new DirectEncodingSink<>(sink, getFiller(type), isSettingTimestamps() ? timestampSelector : null,
+                indexerProperties.getUploadChunkSize(), indexerProperties.getMaxUploadBytes(),
+                Metrics.get().histogram(Metrics.CREATE_DOCUMENT, name),
+                Metrics.get().histogram(Metrics.BATCH_SIZE, name), checkpointSelector);
+    }
+
+    /**
+     * Creates the sink that collects the documents into upload chunks.
+     * These have either a fixed size, or one that adapts to the upload latency.
+     * Additionally, chunks can be limited by their estimated byte size and by time.
+     */
+    protected Sink<SolrInputDocument> createBatchingSink(Sink<List<SolrInputDocument>> uploader) {
+        Histogram batchWait = Metrics.get().histogram(Metrics.BATCH_WAIT, name);
+        Histogram batchSizes = Metrics.get().histogram(Metrics.BATCH_SIZE, name);
+        AdaptiveBatchSize batchSize = null;
+        if (indexerProperties.isAdaptiveBatching()) {
+            batchSize = new AdaptiveBatchSize(indexerProperties.getUploadChunkSize(),
+                    indexerProperties.getMinUploadChunkSize(), indexerProperties.getMaxUploadChunkSize(),
+                    indexerProperties.getTargetUploadLatency(), TimeUnit.MILLISECONDS);
+        }
+        if (indexerProperties.getMaxUploadBytes() > 0 || indexerProperties.getUploadLinger() > 0) {
+            return new SizeBoundedBatchingSink<>(uploader, DocumentSizeEstimator::estimate,
+                    indexerProperties.getMaxUploadBytes(), indexerProperties.getUploadChunkSize(), batchSize,
+                    indexerProperties.getUploadLinger(), batchWait, batchSizes);
+        }
+        if (batchSize != null) {
+            return new AdaptiveBatchingSink<>(uploader, batchSize, batchWait, batchSizes);
+        }
+        if (Metrics.get() != MetricsRegistry.NONE) {
+            uploader = new BatchMetricsSink<>(uploader, batchWait, batchSizes);
+        }
+        return new AggregatingSink<>(uploader, indexerProperties.getUploadChunkSize());
+    }
+
+    /**
+     * Creates the local write-ahead spool in front of the upload, if a spool directory is configured.
+     * Each indexed type gets its own spool, so its chunks are replayed by the next run of the same type.
+     */
+    protected Sink<List<SolrInputDocument>> createSpoolingSink(Sink<List<SolrInputDocument>> target) {
+        String directory = indexerProperties.getSpoolDirectory();
+        if (directory.isEmpty()) {
+            return target;
+        }
+        UploadSpool spool;
+        try {
+            spool = UploadSpool.open(Paths.get(directory, name), indexerProperties.getSpoolSegmentSize(),
+                    indexerProperties.getSpoolMaxBytes());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot open upload spool in " + directory, ex);
+        }
+        Metrics.get().gauge(Metrics.SPOOL_PENDING, name, spool::getPendingBytes);
+        return new SpoolingSink(target, spool, name);
+    }
+
+    /**
+     * Creates the stage that drops unchanged documents, if skipping them is enabled.
+     * It works on whole upload chunks, so that there's only one fingerprint lookup per request.
+     */
+    protected Sink<List<SolrInputDocument>> createFingerprintFilter(Sink<List<SolrInputDocument>> target) {
+        return new FingerprintFilter(target, solrClient, getUniqueKeyField());
+    }
+
+    /**
+     * The name of the Solr schema's unique key field.
+     */
+    protected String getUniqueKeyField() {
+        return "id";
+    }
+
+    /**
+     * Creates a sink that converts update pairs into Solr documents. If only some of the given fields changed,
+     * then atomic updates for these fields are sent instead of the full documents.
+     *
+     * @param target        Where the documents go to, usually some {@link TimestampSetter}
+     * @param type          The model type
+     * @param partialFields Which fields may be updated atomically; may end with an asterisk for dynamic fields
+     */
+    protected <X> PartialUpdateSink<X> createPartialUpdateSink(Sink<SolrInputDocument> target, Class<X> type,
+                                                               Collection<String> partialFields) {
+        SolrDocumentFiller<X> filler = DocumentFactoryCache.get(type, indexerProperties.isCompileFillers());
+        return new PartialUpdateSink<>(target, filler, getUniqueKeyField(), partialFields);
+    }
+
     protected SolrSink createSolrSink() {
-        return new SolrSink(solrClient, schema, indexerProperties.getUpdatesBeforeCommit());
+        return new SolrSink(solrClient, schema, createCommitPolicy(), name);
+    }
+
+    /**
+     * Decides when to commit during the upload. The commits are done in a background thread.
+     */
+    protected CommitPolicy createCommitPolicy() {
+        return CommitPolicy.fromProperties(indexerProperties);
     }
 
     /**
      * Creates a sink that parallelizes the upload.
      */
     protected Sink<T> parallelize(Sink<T> target, SolrSink solrSink) {
-        return ParallelizingSink.createFor(target, sinkName(), indexerExecutor::execute,
-                indexerProperties.getSolrThreads(), getQueueSize());
+        ExecutionBackend backend = getExecutionBackend();
+        Metrics.get().gauge(Metrics.EXECUTOR_THREADS, backend.getName(), backend::getThreadCount);
+        Metrics.get().gauge(Metrics.EXECUTOR_QUEUE, backend.getName(), backend::getQueueDepth);
+        Metrics.get().gauge(Metrics.EXECUTOR_DELAYED, backend.getName(), backend::getDelayedTaskCount);
+        int threads = indexerProperties.getSolrThreads();
+        int queueSize = getQueueSize();
+        logger.info("Parallelizing " + sinkName() + " with " + threads + " threads and queue size " + queueSize
+                + " on " + backend);
+        return ParallelizingSink.createFor(target, sinkName(), backend::execute, threads, queueSize);
+    }
+
+    /**
+     * Which threads run the parallel sink. By default, this is the shared backend as configured in the properties.
+     */
+    protected ExecutionBackend getExecutionBackend() {
+        return ExecutionBackend.shared(indexerProperties);
     }
 
     /**
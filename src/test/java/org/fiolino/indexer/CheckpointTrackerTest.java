@@ -0,0 +1,76 @@
+package org.fiolino.indexer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class CheckpointTrackerTest {
+
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("checkpoint");
+        file = directory.resolve("Test.checkpoint");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testPositionIsLowestUnacknowledged() throws IOException {
+        CheckpointTracker tracker = new CheckpointTracker(file, 4711L, 10L, 60_000L);
+        Assert.assertEquals(10L, tracker.getPosition());
+
+        for (long id = 10; id < 20; id++) {
+            tracker.emitted(id);
+        }
+        Assert.assertEquals(10L, tracker.getPosition());
+        tracker.acknowledged(12L);
+        tracker.acknowledged("10");
+        Assert.assertEquals(11L, tracker.getPosition());
+        tracker.acknowledged(11);
+        Assert.assertEquals(13L, tracker.getPosition());
+        for (long id = 13; id < 20; id++) {
+            tracker.acknowledged(id);
+        }
+        Assert.assertEquals(20L, tracker.getPosition());
+
+        tracker.save();
+        Assert.assertEquals(new Checkpoint(4711L, 20L), Checkpoint.read(file));
+
+        tracker.finished();
+        Assert.assertNull(Checkpoint.read(file));
+        tracker.save();
+        Assert.assertNull(Checkpoint.read(file));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDescendingIDsAreRejected() {
+        CheckpointTracker tracker = new CheckpointTracker(file, 4711L, Long.MIN_VALUE, 60_000L);
+        tracker.emitted(5L);
+        tracker.emitted(4L);
+    }
+
+    @Test
+    public void testCheckpointIsReplaced() throws IOException {
+        new Checkpoint(1L, 100L).write(file);
+        new Checkpoint(1L, 200L).write(file);
+        Assert.assertEquals(new Checkpoint(1L, 200L), Checkpoint.read(file));
+        try (Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+}
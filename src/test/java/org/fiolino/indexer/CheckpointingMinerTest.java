@@ -0,0 +1,184 @@
+package org.fiolino.indexer;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.miners.CheckpointingMiner;
+import org.fiolino.indexer.miners.ResumableMiner;
+import org.fiolino.indexer.sinks.AcknowledgingSink;
+import org.fiolino.indexer.sinks.DocumentOrigins;
+import org.fiolino.indexer.sinks.builders.CheckpointingSinkBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class CheckpointingMinerTest {
+
+    private final Schema schema = new Schema("Test");
+    private final Selector<Long> timestampSelector = schema.createSelector();
+    private final Selector<DeleteStrategy> deleteStrategySelector = schema.createSelector();
+    private final Selector<CheckpointTracker> checkpointSelector = schema.createSelector();
+
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("checkpoint");
+        file = directory.resolve("Test.checkpoint");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testResumesAfterTheLastUploadedItem() throws Exception {
+        ItemMiner miner = new ItemMiner(10);
+        CheckpointingMiner<Item> checkpointing = new CheckpointingMiner<>(miner, timestampSelector,
+                deleteStrategySelector, checkpointSelector, file, 60_000L);
+
+        // Item 3 gets no document, and the chunk with item 7 fails
+        Uploader failing = new Uploader("MLS_7");
+        Container metadata = schema.createContainer();
+        try {
+            checkpointing.digAllInto(createSink(failing), metadata);
+            Assert.fail("Should have failed");
+        } catch (IOException ex) {
+            Assert.assertEquals("Solr is down", ex.getMessage());
+        }
+        Assert.assertEquals(Arrays.asList("MLS_1", "MLS_2", "MLS_4", "MLS_5"), failing.uploaded);
+        long timestamp = metadata.get(timestampSelector);
+        Assert.assertEquals(new Checkpoint(timestamp, 6L), Checkpoint.read(file));
+
+        Uploader uploader = new Uploader(null);
+        Container resumed = schema.createContainer();
+        checkpointing.digAllInto(createSink(uploader), resumed);
+        Assert.assertEquals(Arrays.asList(Long.MIN_VALUE, 6L), miner.positions);
+        Assert.assertEquals(timestamp, (long) resumed.get(timestampSelector));
+        Assert.assertEquals(Arrays.asList("MLS_6", "MLS_7", "MLS_8", "MLS_9", "MLS_10"), uploader.uploaded);
+        Assert.assertTrue(uploader.committed);
+        // The complete run doesn't need its checkpoint any more
+        Assert.assertNull(Checkpoint.read(file));
+    }
+
+    /**
+     * Creates documents with prefixed IDs in chunks of two, like the SolrSinkBuilder does.
+     */
+    private Sink<Item> createSink(Uploader uploader) {
+        DocumentOrigins origins = new DocumentOrigins();
+        Sink<List<SolrInputDocument>> upload = AcknowledgingSink.acknowledgingDocuments(uploader,
+                checkpointSelector, origins);
+        Sink<Item> lane = new Sink<Item>() {
+            private final List<SolrInputDocument> chunk = new ArrayList<>();
+
+            @Override
+            public void accept(Item item, Container metadata) throws Exception {
+                if (item.id == 3) {
+                    // Like a timed out filler
+                    return;
+                }
+                SolrInputDocument doc = new SolrInputDocument();
+                doc.addField("id", "MLS_" + item.id);
+                origins.created(item, doc);
+                chunk.add(doc);
+                if (chunk.size() == 2) {
+                    flush(metadata);
+                }
+            }
+
+            private void flush(Container metadata) throws Exception {
+                if (!chunk.isEmpty()) {
+                    List<SolrInputDocument> docs = new ArrayList<>(chunk);
+                    chunk.clear();
+                    upload.accept(docs, metadata);
+                }
+            }
+
+            @Override
+            public void commit(Container metadata) throws Exception {
+                flush(metadata);
+                upload.commit(metadata);
+            }
+        };
+        Sink<Item> acknowledging = AcknowledgingSink.acknowledgingDropped(lane, checkpointSelector, origins);
+        return new CheckpointingSinkBuilder<>(() -> acknowledging, checkpointSelector, Item::getId).createSink();
+    }
+
+    private static final class Item {
+        final long id;
+
+        Item(long id) {
+            this.id = id;
+        }
+
+        long getId() {
+            return id;
+        }
+    }
+
+    private static final class ItemMiner implements ResumableMiner<Item> {
+        final long max;
+        final List<Long> positions = new ArrayList<>();
+
+        ItemMiner(long max) {
+            this.max = max;
+        }
+
+        @Override
+        public void digAllInto(Sink<? super Item> targetSink, Container metadata, long position) throws Exception {
+            positions.add(position);
+            for (long id = Math.max(position, 1); id <= max; id++) {
+                targetSink.accept(new Item(id), metadata);
+            }
+            targetSink.commit(metadata);
+        }
+
+        @Override
+        public void digIDsInto(Sink<? super Item> targetSink, Container metadata, Object[] ids) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class Uploader implements Sink<List<SolrInputDocument>> {
+        final String failingId;
+        final List<String> uploaded = new ArrayList<>();
+        boolean committed;
+
+        Uploader(String failingId) {
+            this.failingId = failingId;
+        }
+
+        @Override
+        public void accept(List<SolrInputDocument> docs, Container metadata) throws IOException {
+            for (SolrInputDocument d : docs) {
+                if (d.getFieldValue("id").equals(failingId)) {
+                    throw new IOException("Solr is down");
+                }
+            }
+            for (SolrInputDocument d : docs) {
+                uploaded.add((String) d.getFieldValue("id"));
+            }
+        }
+
+        @Override
+        public void commit(Container metadata) {
+            committed = true;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.fiolino.indexer;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.sinks.CollectionSolrClient;
+import org.fiolino.indexer.sinks.TimestampSetter;
+import org.fiolino.indexer.sinks.builders.CollectionAdmin;
+import org.fiolino.indexer.sinks.builders.DefaultCleaner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CollectionRebuildTest {
+
+    @Test
+    public void testAliasIsSwitchedAndOldCollectionDropped() throws Exception {
+        InMemoryAdmin admin = new InMemoryAdmin();
+        admin.createCollection("books_1");
+        admin.setAlias("books", "books_1");
+        RecordingClient solr = new RecordingClient();
+
+        String collection = new CollectionRebuild(admin, "books").run(2L, c -> {
+            Assert.assertEquals("books_1", admin.getAliasTarget("books"));
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField("id", 1L);
+            new CollectionSolrClient(solr, c).add(doc);
+        });
+
+        Assert.assertEquals("books_2", collection);
+        Assert.assertEquals("books_2", admin.getAliasTarget("books"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("books_2")), admin.collections);
+        Assert.assertEquals(Arrays.asList("books_2"), solr.collections);
+    }
+
+    @Test
+    public void testFailedLoadDropsNewCollection() throws Exception {
+        InMemoryAdmin admin = new InMemoryAdmin();
+        admin.createCollection("books_1");
+        admin.setAlias("books", "books_1");
+
+        try {
+            new CollectionRebuild(admin, "books").run(2L, c -> {
+                throw new IOException("Solr is down");
+            });
+            Assert.fail("Should have failed");
+        } catch (IOException ex) {
+            Assert.assertEquals("Solr is down", ex.getMessage());
+        }
+        Assert.assertEquals("books_1", admin.getAliasTarget("books"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("books_1")), admin.collections);
+    }
+
+    @Test
+    public void testAliasOfSeveralCollectionsIsRefused() throws Exception {
+        InMemoryAdmin admin = new InMemoryAdmin();
+        admin.createCollection("books_1");
+        admin.createCollection("magazines_1");
+        admin.aliases.put("books", "books_1,magazines_1");
+
+        try {
+            new CollectionRebuild(admin, "books").run(2L, c -> Assert.fail("Should not load " + c));
+            Assert.fail("Should have failed");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("books_1,magazines_1"));
+        }
+        Assert.assertEquals("books_1,magazines_1", admin.getAliasTarget("books"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("books_1", "magazines_1")), admin.collections);
+    }
+
+    @Test
+    public void testFirstRebuildCreatesAlias() throws Exception {
+        InMemoryAdmin admin = new InMemoryAdmin();
+        new CollectionRebuild(admin, "books").run(1L, c -> {
+        });
+        Assert.assertEquals("books_1", admin.getAliasTarget("books"));
+    }
+
+    @Test
+    public void testFullRunAfterRebuildDeletesRemovedDocuments() throws Exception {
+        InMemoryAdmin admin = new InMemoryAdmin();
+        IndexClient index = new IndexClient(admin, "books");
+        Schema schema = new Schema("Test");
+        Selector<Long> timestampSelector = schema.createSelector();
+
+        new CollectionRebuild(admin, "books").run(1000L, c -> {
+            Container metadata = schema.createContainer();
+            metadata.set(timestampSelector, 1000L);
+            upload(new CollectionSolrClient(index, c), timestampSelector, metadata, "1", "2", "3");
+        });
+        Assert.assertEquals(new HashSet<>(Arrays.asList("1", "2", "3")), index.ids("books_1000"));
+
+        // Item 3 was removed meanwhile
+        long fullRun = 100_000L;
+        Container metadata = schema.createContainer();
+        metadata.set(timestampSelector, fullRun);
+        upload(index, timestampSelector, metadata, "1", "2");
+        new DefaultCleaner(index).deleteByTimestamp(fullRun);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("1", "2")), index.ids("books_1000"));
+    }
+
+    private static void upload(SolrClient client, Selector<Long> timestampSelector, Container metadata,
+                               String... ids) throws Exception {
+        Sink<SolrInputDocument> sink = new TimestampSetter(new Sink<SolrInputDocument>() {
+            @Override
+            public void accept(SolrInputDocument doc, Container metadata) throws Exception {
+                client.add(doc);
+            }
+
+            @Override
+            public void commit(Container metadata) {
+            }
+        }, timestampSelector);
+        for (String id : ids) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField("id", id);
+            sink.accept(doc, metadata);
+        }
+    }
+
+    /**
+     * A stand-in for the Collections API of a local Solr.
+     */
+    private static final class InMemoryAdmin implements CollectionAdmin {
+        final Set<String> collections = new HashSet<>();
+        final Map<String, String> aliases = new HashMap<>();
+
+        @Override
+        public void createCollection(String collection) {
+            Assert.assertTrue("Already exists: " + collection, collections.add(collection));
+        }
+
+        @Override
+        public void deleteCollection(String collection) {
+            Assert.assertFalse("Still aliased: " + collection, aliases.containsValue(collection));
+            Assert.assertTrue("Unknown: " + collection, collections.remove(collection));
+        }
+
+        @Override
+        public String getAliasTarget(String alias) {
+            return aliases.get(alias);
+        }
+
+        @Override
+        public void setAlias(String alias, String collection) {
+            Assert.assertTrue("Unknown: " + collection, collections.contains(collection));
+            aliases.put(alias, collection);
+        }
+    }
+
+    /**
+     * Keeps the timestamps of the added documents per collection, and deletes them by timestamp ranges.
+     * Requests without a collection go to the alias.
+     */
+    private static final class IndexClient extends SolrClient {
+        private static final long serialVersionUID = 1L;
+        private static final Pattern RANGE = Pattern.compile(
+                TimestampSetter.TIMESTAMP_FIELD + ":\\[(\\d+) TO (\\d+)\\}");
+
+        final InMemoryAdmin admin;
+        final String alias;
+        final Map<String, Map<String, Long>> timestamps = new HashMap<>();
+
+        IndexClient(InMemoryAdmin admin, String alias) {
+            this.admin = admin;
+            this.alias = alias;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection) throws IOException {
+            Map<String, Long> docs = timestamps.computeIfAbsent(
+                    collection == null ? admin.getAliasTarget(alias) : collection, c -> new HashMap<>());
+            UpdateRequest update = (UpdateRequest) request;
+            if (update.getDocuments() != null) {
+                for (SolrInputDocument doc : update.getDocuments()) {
+                    Object timestamp = doc.getFieldValue(TimestampSetter.TIMESTAMP_FIELD);
+                    docs.put((String) doc.getFieldValue("id"), timestamp == null ? null : (Long) timestamp);
+                }
+            }
+            if (update.getDeleteQuery() != null) {
+                for (String query : update.getDeleteQuery()) {
+                    Matcher m = RANGE.matcher(query);
+                    Assert.assertTrue("Unexpected query " + query, m.matches());
+                    long from = Long.parseLong(m.group(1));
+                    long to = Long.parseLong(m.group(2));
+                    docs.values().removeIf(t -> t != null && t >= from && t < to);
+                }
+            }
+            return new NamedList<>();
+        }
+
+        Set<String> ids(String collection) {
+            return timestamps.getOrDefault(collection, Collections.emptyMap()).keySet();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Records to which collection the requests went.
+     */
+    private static final class RecordingClient extends SolrClient {
+        private static final long serialVersionUID = 1L;
+
+        final List<String> collections = new ArrayList<>();
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection) {
+            collections.add(collection);
+            return new NamedList<>();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.fiolino.indexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+public class ConcurrentLongSetTest {
+
+    @Test
+    public void testSameAsHashSet() {
+        ConcurrentLongSet set = new ConcurrentLongSet(10);
+        Set<Long> reference = new HashSet<>();
+        Random random = new Random(4711);
+        for (int i = 0; i < 200_000; i++) {
+            long value = random.nextInt(5000) - 100;
+            if (i % 7 == 0) {
+                // The values which are used as markers internally
+                value = random.nextBoolean() ? 0L : Long.MIN_VALUE;
+            }
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(reference.remove(value), set.remove(value));
+            } else {
+                Assert.assertEquals(reference.add(value), set.add(value));
+            }
+        }
+        Assert.assertEquals(reference.size(), set.size());
+
+        Set<Long> iterated = new HashSet<>();
+        for (PrimitiveIterator.OfLong it = set.iterator(); it.hasNext(); ) {
+            iterated.add(it.nextLong());
+        }
+        Assert.assertEquals(reference, iterated);
+    }
+
+    @Test
+    public void testConcurrentRemoval() throws InterruptedException {
+        int n = 100_000;
+        int threads = 8;
+        ConcurrentLongSet set = new ConcurrentLongSet(n);
+        for (long i = 0; i < n; i++) {
+            set.add(i);
+        }
+        Thread[] workers = new Thread[threads];
+        boolean[] failed = new boolean[threads];
+        for (int t = 0; t < threads; t++) {
+            int start = t;
+            workers[t] = new Thread(() -> {
+                for (long i = start; i < n; i += threads) {
+                    if (!set.remove(i)) {
+                        failed[start] = true;
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        for (boolean f : failed) {
+            Assert.assertFalse(f);
+        }
+        Assert.assertTrue(set.isEmpty());
+    }
+}
@@ -0,0 +1,136 @@
+package org.fiolino.indexer;
+
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.fiolino.indexer.sinks.JavabinDocumentWriter;
+import org.fiolino.indexer.sinks.JavabinUpdateBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+public class JavabinDocumentWriterTest {
+
+    private static final String GREETING = "Gr\u00fc\u00dfe \ud83d\ude00";
+
+    @Test
+    public void testDecodesLikeSolrInputDocuments() throws IOException {
+        JavabinUpdateBuffer buffer = new JavabinUpdateBuffer(16);
+        JavabinDocumentWriter writer = new JavabinDocumentWriter();
+
+        writer.addField("id", 4711L);
+        writer.addField("name_s", GREETING);
+        writer.addField("tag_ss", "a");
+        writer.addField("count_i", 42);
+        writer.addField("tag_ss", Arrays.asList("b", "c"));
+        writer.addField("title_txt", "boosted", 2.0f);
+        writer.addField("created_dt", new Date(1_500_000_000_000L));
+        writer.setDocumentBoost(1.5f);
+        writer.writeTo(buffer);
+
+        writer.reset();
+        writer.addField("id", 4712L);
+        for (int i = 0; i < 100; i++) {
+            writer.addField("field" + i + "_i", i);
+        }
+        writer.writeTo(buffer);
+
+        Assert.assertEquals(2, buffer.getDocumentCount());
+        List<SolrInputDocument> docs = decode(buffer);
+        Assert.assertEquals(2, docs.size());
+
+        SolrInputDocument first = docs.get(0);
+        Assert.assertEquals(4711L, first.getFieldValue("id"));
+        Assert.assertEquals(GREETING, first.getFieldValue("name_s"));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), first.getFieldValues("tag_ss"));
+        Assert.assertEquals(42, first.getFieldValue("count_i"));
+        Assert.assertEquals(2.0f, first.getField("title_txt").getBoost(), 0.0001f);
+        Assert.assertEquals(new Date(1_500_000_000_000L), first.getFieldValue("created_dt"));
+        Assert.assertEquals(1.5f, first.getDocumentBoost(), 0.0001f);
+
+        SolrInputDocument second = docs.get(1);
+        Assert.assertEquals(4712L, second.getFieldValue("id"));
+        Assert.assertEquals(101, second.size());
+        Assert.assertEquals(99, second.getFieldValue("field99_i"));
+        Assert.assertNull(second.getField("name_s"));
+
+        buffer.reset();
+        Assert.assertEquals(0, buffer.getDocumentCount());
+        Assert.assertTrue(decode(buffer).isEmpty());
+    }
+
+    @Test
+    public void testArraysAreExpanded() throws IOException {
+        JavabinDocumentWriter writer = new JavabinDocumentWriter();
+        writer.addField("id", 1L);
+        writer.addField("tag_ss", new Object[] {"a", "b"});
+        writer.addField("tag_ss", new String[] {"c"});
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), writer.getFieldValues("tag_ss"));
+
+        SolrInputDocument decoded = writeAndDecode(writer);
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), decoded.getFieldValues("tag_ss"));
+    }
+
+    @Test
+    public void testBehavesLikeSolrInputDocument() throws IOException {
+        JavabinDocumentWriter writer = new JavabinDocumentWriter();
+        writer.addField("id", 1L);
+        writer.addField("tag_ss", "a");
+        writer.addField("tag_ss", "b");
+        writer.addField("name_s", "Name", 3.0f);
+
+        Assert.assertEquals(3, writer.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("id", "tag_ss", "name_s")), writer.getFieldNames());
+        List<String> iterated = new ArrayList<>();
+        for (SolrInputField f : writer) {
+            iterated.add(f.getName());
+        }
+        Assert.assertEquals(Arrays.asList("id", "tag_ss", "name_s"), iterated);
+        Assert.assertEquals(3.0f, writer.getField("name_s").getBoost(), 0.0001f);
+
+        writer.setField("tag_ss", "replaced");
+        writer.removeField("id");
+        writer.addField("id", 2L);
+        Assert.assertEquals("replaced", writer.getFieldValue("tag_ss"));
+
+        SolrInputDocument decoded = writeAndDecode(writer);
+        Assert.assertEquals(2L, decoded.getFieldValue("id"));
+        Assert.assertEquals(Arrays.asList("replaced"), new ArrayList<>(decoded.getFieldValues("tag_ss")));
+        Assert.assertEquals(3.0f, decoded.getField("name_s").getBoost(), 0.0001f);
+
+        // After a reset, the writer records the fields again
+        writer.reset();
+        Assert.assertTrue(writer.isEmpty());
+        writer.addField("id", 3L);
+        Assert.assertEquals(1, writer.size());
+        Assert.assertEquals(3L, writeAndDecode(writer).getFieldValue("id"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testChildDocumentsAreNotSupported() {
+        new JavabinDocumentWriter().addChildDocument(new SolrInputDocument());
+    }
+
+    private static SolrInputDocument writeAndDecode(JavabinDocumentWriter writer) throws IOException {
+        JavabinUpdateBuffer buffer = new JavabinUpdateBuffer(16);
+        writer.writeTo(buffer);
+        List<SolrInputDocument> docs = decode(buffer);
+        Assert.assertEquals(1, docs.size());
+        return docs.get(0);
+    }
+
+    private static List<SolrInputDocument> decode(JavabinUpdateBuffer buffer) throws IOException {
+        List<SolrInputDocument> docs = new ArrayList<>();
+        try (InputStream in = buffer.finish().getStream()) {
+            new JavaBinUpdateRequestCodec().unmarshal(in, (doc, request, commitWithin, overwrite) -> docs.add(doc));
+        }
+        return docs;
+    }
+}
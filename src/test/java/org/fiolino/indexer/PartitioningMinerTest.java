@@ -0,0 +1,154 @@
+package org.fiolino.indexer;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.NullSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.miners.PartitioningMiner;
+import org.fiolino.indexer.miners.RangeMiner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+public class PartitioningMinerTest {
+
+    @Test
+    public void testAllRangesAreMinedAndCommittedOnce() throws Exception {
+        KeyMiner miner = new KeyMiner(3, 1000);
+        RecordingSink sink = new RecordingSink();
+        Container metadata = new Schema("Test").createContainer();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new PartitioningMiner<>(miner, 64, pool).digAllInto(sink, metadata);
+        } finally {
+            pool.shutdown();
+        }
+
+        Set<Long> expected = new TreeSet<>();
+        for (long k = 3; k <= 1000; k++) {
+            expected.add(k);
+        }
+        Assert.assertEquals(expected, new TreeSet<>(sink.keys));
+        Assert.assertEquals(998, sink.keys.size());
+        Assert.assertEquals(1, sink.commits);
+        Assert.assertEquals(16, miner.ranges.size());
+        for (Container c : miner.metadata.keySet()) {
+            Assert.assertSame(metadata, c);
+        }
+    }
+
+    @Test
+    public void testFailureIsThrownWithoutCommit() throws Exception {
+        KeyMiner miner = new KeyMiner(0, 99) {
+            @Override
+            public void digRangeInto(Sink<? super Long> targetSink, Container metadata, long from, long to)
+                    throws Exception {
+                if (from == 50) {
+                    throw new IllegalStateException("Broken range");
+                }
+                super.digRangeInto(targetSink, metadata, from, to);
+            }
+        };
+        RecordingSink sink = new RecordingSink();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new PartitioningMiner<>(miner, 10, pool).digAllInto(sink, new Schema("Test").createContainer());
+            Assert.fail("Should have failed");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("Broken range", ex.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(0, sink.commits);
+    }
+
+    @Test
+    public void testOverflowingKeySpaceIsRefused() throws Exception {
+        KeyMiner miner = new KeyMiner(-1, Long.MAX_VALUE);
+        RecordingSink sink = new RecordingSink();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new PartitioningMiner<>(miner, Integer.MAX_VALUE, pool).digAllInto(sink,
+                    new Schema("Test").createContainer());
+            Assert.fail("Should have failed");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("span more than"));
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertTrue(miner.ranges.isEmpty());
+        Assert.assertEquals(0, sink.commits);
+    }
+
+    private static class KeyMiner implements RangeMiner<Long> {
+        final long min;
+        final long max;
+        final Set<Long> ranges = ConcurrentHashMap.newKeySet();
+        final ConcurrentHashMap<Container, Boolean> metadata = new ConcurrentHashMap<>();
+
+        KeyMiner(long min, long max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public long getMinKey() {
+            return min;
+        }
+
+        @Override
+        public long getMaxKey() {
+            return max;
+        }
+
+        @Override
+        public void digRangeInto(Sink<? super Long> targetSink, Container metadata, long from, long to)
+                throws Exception {
+            Assert.assertTrue("Range mined twice: " + from, ranges.add(from));
+            this.metadata.put(metadata, true);
+            for (long k = Math.max(from, min); k <= Math.min(to, max); k++) {
+                targetSink.accept(k, metadata);
+            }
+        }
+
+        @Override
+        public void digIDsInto(Sink<? super Long> targetSink, Container metadata, Object[] ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void digAllInto(Sink<? super Long> targetSink, Container metadata) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Not thread safe, so concurrent calls would lose keys.
+     */
+    private static final class RecordingSink extends ChainedSink<Long, Long> {
+        final List<Long> keys = new ArrayList<>();
+        int commits;
+
+        RecordingSink() {
+            super(new NullSink<>());
+        }
+
+        @Override
+        public void accept(Long value, Container metadata) {
+            keys.add(value);
+        }
+
+        @Override
+        public void commit(Container metadata) throws Exception {
+            commits++;
+            super.commit(metadata);
+        }
+    }
+}
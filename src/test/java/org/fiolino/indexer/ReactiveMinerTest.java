@@ -0,0 +1,241 @@
+package org.fiolino.indexer;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.processing.sink.ChainedSink;
+import org.fiolino.common.processing.sink.NullSink;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.miners.CursorPublisher;
+import org.fiolino.indexer.miners.Flow;
+import org.fiolino.indexer.miners.Miner;
+import org.fiolino.indexer.miners.ReactiveMiner;
+import org.fiolino.indexer.miners.ReactiveMinerAdapter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ReactiveMinerTest {
+
+    @Test
+    public void testCursorFetchesOnlyWhatWasRequested() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountingCursor cursor = new CountingCursor(executor, 1000, 100);
+            RecordingSink sink = new RecordingSink(cursor);
+            new ReactiveMinerAdapter<>(new CursorMiner(cursor), 20).digAllInto(sink, container());
+
+            Assert.assertEquals(1000, sink.items.size());
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertEquals(i, sink.items.get(i).intValue());
+            }
+            Assert.assertEquals(1, sink.commits);
+            Assert.assertTrue(cursor.closed);
+            // Never more than the prefetch was fetched ahead of the sink
+            Assert.assertTrue("Fetched ahead: " + sink.maxAhead, sink.maxAhead <= 20);
+            Assert.assertTrue("Page size: " + cursor.maxPage, cursor.maxPage <= 20);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSinkFailureCancelsCursor() throws Exception {
+        CountingCursor cursor = new CountingCursor(Runnable::run, 1000, 100);
+        RecordingSink sink = new RecordingSink(cursor) {
+            @Override
+            public void accept(Integer value, Container metadata) {
+                if (value == 50) {
+                    throw new IllegalStateException("Sink is broken");
+                }
+                super.accept(value, metadata);
+            }
+        };
+        try {
+            new ReactiveMinerAdapter<>(new CursorMiner(cursor), 20).digAllInto(sink, container());
+            Assert.fail("Should have failed");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("Sink is broken", ex.getMessage());
+        }
+        Assert.assertEquals(0, sink.commits);
+        Assert.assertTrue(cursor.closed);
+        Assert.assertTrue("Fetched too much: " + cursor.fetched, cursor.fetched <= 70);
+    }
+
+    @Test(timeout = 10000)
+    public void testSinkErrorCancelsCursor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountingCursor cursor = new CountingCursor(executor, 1000, 100);
+            RecordingSink sink = new RecordingSink(cursor) {
+                @Override
+                public void accept(Integer value, Container metadata) {
+                    if (value == 50) {
+                        throw new AssertionError("Sink is broken");
+                    }
+                    super.accept(value, metadata);
+                }
+            };
+            try {
+                new ReactiveMinerAdapter<>(new CursorMiner(cursor), 20).digAllInto(sink, container());
+                Assert.fail("Should have failed");
+            } catch (AssertionError ex) {
+                Assert.assertEquals("Sink is broken", ex.getMessage());
+            }
+            Assert.assertEquals(0, sink.commits);
+            Assert.assertTrue(cursor.closed);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testThrowingSubscriberIsCancelled() throws Exception {
+        CountingCursor cursor = new CountingCursor(Runnable::run, 1000, 10);
+        List<Throwable> errors = new ArrayList<>();
+        cursor.subscribe(new Flow.Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(100);
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                if (item == 5) {
+                    throw new IllegalStateException("Broken subscriber");
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                Assert.fail("Should not complete");
+            }
+        });
+        Assert.assertEquals(1, errors.size());
+        Assert.assertEquals("Broken subscriber", errors.get(0).getMessage());
+        Assert.assertTrue(cursor.closed);
+        Assert.assertEquals(10, cursor.fetched);
+    }
+
+    @Test
+    public void testPlainMinerIsPublished() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Miner<Integer> plain = new Miner<Integer>() {
+                @Override
+                public void digIDsInto(Sink<? super Integer> targetSink, Container metadata, Object[] ids)
+                        throws Exception {
+                    for (Object id : ids) {
+                        targetSink.accept((Integer) id, metadata);
+                    }
+                    targetSink.commit(metadata);
+                }
+
+                @Override
+                public void digAllInto(Sink<? super Integer> targetSink, Container metadata) throws Exception {
+                    for (int i = 0; i < 500; i++) {
+                        targetSink.accept(i, metadata);
+                    }
+                    targetSink.commit(metadata);
+                }
+            };
+            ReactiveMinerAdapter<Integer> adapter = new ReactiveMinerAdapter<>(ReactiveMiner.of(plain, executor), 8);
+
+            RecordingSink all = new RecordingSink(null);
+            adapter.digAllInto(all, container());
+            Assert.assertEquals(500, all.items.size());
+            Assert.assertEquals(1, all.commits);
+
+            RecordingSink some = new RecordingSink(null);
+            adapter.digIDsInto(some, container(), new Object[]{3, 1, 4});
+            Assert.assertEquals(3, some.items.size());
+            Assert.assertEquals(4, some.items.get(2).intValue());
+            Assert.assertEquals(1, some.commits);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Container container() {
+        return new Schema("Test").createContainer();
+    }
+
+    private static final class CountingCursor extends CursorPublisher<Integer> {
+        final int size;
+        volatile int fetched;
+        volatile int maxPage;
+        volatile boolean closed;
+
+        CountingCursor(java.util.concurrent.Executor executor, int size, int maxPageSize) {
+            super(executor, maxPageSize);
+            this.size = size;
+        }
+
+        @Override
+        protected List<Integer> fetch(int max) {
+            maxPage = Math.max(maxPage, max);
+            List<Integer> page = new ArrayList<>(max);
+            while (page.size() < max && fetched < size) {
+                page.add(fetched++);
+            }
+            return page;
+        }
+
+        @Override
+        protected void close() {
+            closed = true;
+        }
+    }
+
+    private static final class CursorMiner implements ReactiveMiner<Integer> {
+        private final CountingCursor cursor;
+
+        CursorMiner(CountingCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public Flow.Publisher<Integer> publishIDs(Container metadata, Object[] ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Flow.Publisher<Integer> publishAll(Container metadata) {
+            return cursor;
+        }
+    }
+
+    private static class RecordingSink extends ChainedSink<Integer, Integer> {
+        private final CountingCursor cursor;
+        final List<Integer> items = new ArrayList<>();
+        int maxAhead;
+        int commits;
+
+        RecordingSink(CountingCursor cursor) {
+            super(new NullSink<>());
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void accept(Integer value, Container metadata) {
+            items.add(value);
+            if (cursor != null) {
+                maxAhead = Math.max(maxAhead, cursor.fetched - items.size());
+            }
+        }
+
+        @Override
+        public void commit(Container metadata) throws Exception {
+            commits++;
+            super.commit(metadata);
+        }
+    }
+}
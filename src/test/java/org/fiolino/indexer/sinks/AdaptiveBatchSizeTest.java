@@ -0,0 +1,71 @@
+package org.fiolino.indexer.sinks;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveBatchSizeTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void testGrowsAdditivelyWhileFast() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(100, 20, 200, 100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(100, size.current());
+        // The step is half of the minimum
+        size.record(100, FAST, false);
+        Assert.assertEquals(110, size.current());
+        size.record(110, FAST, false);
+        Assert.assertEquals(120, size.current());
+    }
+
+    @Test
+    public void testDoesNotGrowOnPartialBatches() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(100, 20, 200, 100, TimeUnit.MILLISECONDS);
+        size.record(30, FAST, false);
+        Assert.assertEquals(100, size.current());
+    }
+
+    @Test
+    public void testShrinksMultiplicativelyWhenSlowOrFailed() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(160, 20, 200, 100, TimeUnit.MILLISECONDS);
+        size.record(160, SLOW, false);
+        Assert.assertEquals(80, size.current());
+        // Failures shrink even when fast, and regardless of the count
+        size.record(10, FAST, true);
+        Assert.assertEquals(40, size.current());
+    }
+
+    @Test
+    public void testStaysWithinBounds() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(1000, 20, 200, 100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(200, size.current());
+        size.record(200, FAST, false);
+        Assert.assertEquals(200, size.current());
+
+        for (int i = 0; i < 10; i++) {
+            size.record(size.current(), SLOW, false);
+        }
+        Assert.assertEquals(20, size.current());
+
+        Assert.assertEquals(20, new AdaptiveBatchSize(1, 20, 200, 100, TimeUnit.MILLISECONDS).current());
+    }
+
+    @Test
+    public void testRecoversAfterSlowdown() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(100, 20, 200, 100, TimeUnit.MILLISECONDS);
+        size.record(100, SLOW, false);
+        Assert.assertEquals(50, size.current());
+        for (int i = 0; i < 5; i++) {
+            size.record(size.current(), FAST, false);
+        }
+        Assert.assertEquals(100, size.current());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new AdaptiveBatchSize(100, 200, 20, 100, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,151 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BackgroundCommitterTest {
+
+    @Test(timeout = 10_000)
+    public void testCommitsAreCoalesced() throws Exception {
+        CommitClient client = new CommitClient();
+        client.block = new CountDownLatch(1);
+        BackgroundCommitter committer = new BackgroundCommitter(client,
+                CommitPolicy.everyDocuments(1, CommitPolicy.Action.HARD), "coalescing", 10);
+
+        committer.documentsAdded(1);
+        client.awaitAttempts(1);
+
+        ExecutorService lanes = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 100; i++) {
+            lanes.execute(() -> committer.documentsAdded(1));
+        }
+        lanes.shutdown();
+        Assert.assertTrue(lanes.awaitTermination(5, TimeUnit.SECONDS));
+        // Still the first commit is running
+        Assert.assertEquals(1, client.attempts.get());
+
+        client.block.countDown();
+        client.awaitAttempts(2);
+        Assert.assertEquals(0, committer.commitNow());
+        // One for the first document, one for all that arrived during it
+        Assert.assertEquals(2, client.attempts.get());
+    }
+
+    @Test(timeout = 10_000)
+    public void testFailedCommitIsRetried() throws Exception {
+        CommitClient client = new CommitClient();
+        client.failures.set(2);
+        BackgroundCommitter committer = new BackgroundCommitter(client,
+                CommitPolicy.everyDocuments(5, CommitPolicy.Action.HARD), "retry", 10);
+
+        committer.documentsAdded(5);
+        client.awaitAttempts(3);
+        long waited = client.lastAttempt - client.firstAttempt;
+        // 10 ms, then 20 ms
+        Assert.assertTrue("Waited only " + waited + " ms", waited >= 30);
+
+        // The third attempt succeeded, so nothing is pending
+        Assert.assertEquals(0, committer.commitNow());
+        Assert.assertEquals(3, client.attempts.get());
+    }
+
+    @Test(timeout = 10_000)
+    public void testFailureIsPassedToFinalCommit() throws Exception {
+        CommitClient client = new CommitClient();
+        client.failures.set(Integer.MAX_VALUE);
+        BackgroundCommitter committer = new BackgroundCommitter(client,
+                CommitPolicy.everyDocuments(5, CommitPolicy.Action.HARD), "failing", 10);
+
+        committer.documentsAdded(5);
+        client.awaitAttempts(2);
+        try {
+            committer.commitNow();
+            Assert.fail("Final commit should have failed");
+        } catch (SolrServerException ex) {
+            Assert.assertEquals(1, ex.getSuppressed().length);
+        }
+        int attempts = client.attempts.get();
+        TimeUnit.MILLISECONDS.sleep(100);
+        // No retries after the run was finished
+        Assert.assertEquals(attempts, client.attempts.get());
+    }
+
+    @Test(timeout = 10_000)
+    public void testBackgroundFailureIsHealedByFinalCommit() throws Exception {
+        CommitClient client = new CommitClient();
+        client.failures.set(1);
+        BackgroundCommitter committer = new BackgroundCommitter(client,
+                CommitPolicy.everyDocuments(5, CommitPolicy.Action.HARD), "recovering", 60_000);
+
+        committer.documentsAdded(5);
+        client.awaitAttempts(1);
+        // The pending documents are committed without waiting for the retry, so the run succeeds
+        Assert.assertEquals(5, committer.commitNow());
+        Assert.assertEquals(2, client.attempts.get());
+        Assert.assertEquals(1, client.successes.get());
+
+        Assert.assertEquals(0, committer.commitNow());
+        Assert.assertEquals(2, client.attempts.get());
+    }
+
+    private static final class CommitClient extends SolrClient {
+        private static final long serialVersionUID = 1L;
+
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger successes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile CountDownLatch block;
+        volatile long firstAttempt;
+        volatile long lastAttempt;
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection)
+                throws SolrServerException {
+            SolrParams params = request.getParams();
+            if (params == null || !params.getBool(UpdateParams.COMMIT, false)) {
+                return new NamedList<>();
+            }
+            long now = System.currentTimeMillis();
+            if (attempts.getAndIncrement() == 0) {
+                firstAttempt = now;
+            }
+            lastAttempt = now;
+            CountDownLatch b = block;
+            if (b != null) {
+                try {
+                    b.await();
+                } catch (InterruptedException ex) {
+                    throw new SolrServerException(ex);
+                }
+                block = null;
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new SolrServerException("Commit failed");
+            }
+            successes.incrementAndGet();
+            return new NamedList<>();
+        }
+
+        void awaitAttempts(int n) throws InterruptedException {
+            while (attempts.get() < n) {
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
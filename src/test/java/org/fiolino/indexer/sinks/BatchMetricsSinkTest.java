@@ -0,0 +1,48 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.processing.sink.Sink;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BatchMetricsSinkTest {
+
+    @Test
+    public void testRecordsEachBatch() throws Exception {
+        List<Long> waits = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        List<List<String>> sent = new ArrayList<>();
+        BatchMetricsSink<String> sink = new BatchMetricsSink<>(new Sink<List<String>>() {
+            @Override
+            public void accept(List<String> value, Container metadata) {
+                sent.add(value);
+            }
+
+            @Override
+            public void commit(Container metadata) {
+            }
+        }, waits::add, sizes::add);
+        Container metadata = new Schema("Test").createContainer();
+
+        Thread.sleep(20);
+        sink.accept(Arrays.asList("a", "b"), metadata);
+        sink.accept(Arrays.asList("c"), metadata);
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c")), sent);
+        Assert.assertEquals(Arrays.asList(2L, 1L), sizes);
+        Assert.assertEquals(2, waits.size());
+        Assert.assertTrue(waits.get(0) >= 20000);
+        Assert.assertTrue(waits.get(1) < waits.get(0));
+
+        // Each lane measures its own batches
+        BatchMetricsSink<String> clone = sink.createClone();
+        clone.accept(Arrays.asList("d"), metadata);
+        Assert.assertEquals(3, sent.size());
+        Assert.assertEquals(Arrays.asList(2L, 1L, 1L), sizes);
+    }
+}
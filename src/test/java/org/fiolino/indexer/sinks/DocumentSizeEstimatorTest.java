@@ -0,0 +1,27 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class DocumentSizeEstimatorTest {
+
+    @Test
+    public void testCountsUtf8Bytes() {
+        String[] texts = {"", "plain", "Gr\u00f6\u00dfe", "\u65e5\u672c\u8a9e", "emoji \ud83d\ude00 here"};
+        for (String s : texts) {
+            Assert.assertEquals(s, s.getBytes(StandardCharsets.UTF_8).length, DocumentSizeEstimator.utf8Length(s));
+        }
+    }
+
+    @Test
+    public void testMultibyteTextCountsMore() {
+        SolrInputDocument ascii = new SolrInputDocument();
+        ascii.addField("text_t", "aaa");
+        SolrInputDocument cjk = new SolrInputDocument();
+        cjk.addField("text_t", "\u65e5\u672c\u8a9e");
+        Assert.assertEquals(6, DocumentSizeEstimator.estimate(cjk) - DocumentSizeEstimator.estimate(ascii));
+    }
+}
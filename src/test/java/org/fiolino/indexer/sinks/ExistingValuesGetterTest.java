@@ -0,0 +1,242 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.container.Selector;
+import org.fiolino.common.processing.sink.ThreadsafeSink;
+import org.fiolino.data.base.Identified;
+import org.fiolino.indexer.DeleteStrategy;
+import org.fiolino.indexer.sinks.builders.Cleaner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ExistingValuesGetterTest {
+
+    private final Schema schema = new Schema("Test");
+    private final Selector<DeleteStrategy> deleteStrategySelector = schema.createSelector();
+
+    @Test(timeout = 10_000)
+    public void testResultsKeepTheirOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Later chunks are found faster
+            ExistingValuesLookup<Item> lookup = ids -> {
+                sleep(40 - ids[0]);
+                return Collections.singletonList(new Item(ids[0], "existing"));
+            };
+            RecordingTarget target = new RecordingTarget();
+            ExistingValuesGetter<Item> getter = new ExistingValuesGetter<>(target, lookup, deleteStrategySelector,
+                    3, executor);
+            Container metadata = container(new RecordingDeleteStrategy());
+
+            for (long id = 0; id < 40; id += 2) {
+                getter.accept(chunk(id, id + 1), metadata);
+            }
+            getter.commit(metadata);
+
+            Assert.assertEquals(20, target.chunks.size());
+            for (int i = 0; i < 20; i++) {
+                List<UpdatePair<Item>> pairs = target.chunks.get(i);
+                Assert.assertEquals(i * 2L, pairs.get(0).getUpdate().getId().longValue());
+                Assert.assertNotNull(pairs.get(0).getExisting());
+                Assert.assertNull(pairs.get(1).getExisting());
+            }
+            Assert.assertEquals(1, target.commits.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testOnlyMaxInFlightLookupsRunAhead() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger started = new AtomicInteger();
+            ExistingValuesLookup<Item> lookup = ids -> {
+                started.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return Collections.emptyList();
+            };
+            RecordingTarget target = new RecordingTarget();
+            ExistingValuesGetter<Item> getter = new ExistingValuesGetter<>(target, lookup, deleteStrategySelector,
+                    2, executor);
+            Container metadata = container(new RecordingDeleteStrategy());
+
+            getter.accept(chunk(1), metadata);
+            getter.accept(chunk(2), metadata);
+            // The third one has to wait for the first lookup
+            CountDownLatch thirdAccepted = new CountDownLatch(1);
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread producer = new Thread(() -> {
+                try {
+                    getter.accept(chunk(3), metadata);
+                } catch (Exception ex) {
+                    failure.set(ex);
+                }
+                thirdAccepted.countDown();
+            });
+            producer.start();
+
+            Assert.assertFalse(thirdAccepted.await(200, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(3, started.get());
+            Assert.assertTrue(target.chunks.isEmpty());
+
+            release.countDown();
+            Assert.assertTrue(thirdAccepted.await(5, TimeUnit.SECONDS));
+            Assert.assertNull(failure.get());
+            getter.commit(metadata);
+            Assert.assertEquals(3, target.chunks.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testMissingIDsAreRegisteredInTheCallingThread() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ExistingValuesLookup<Item> lookup = ids -> Collections.singletonList(new Item(ids[0], "existing"));
+            ExistingValuesGetter<Item> getter = new ExistingValuesGetter<>(new RecordingTarget(), lookup,
+                    deleteStrategySelector, 2, executor);
+            RecordingDeleteStrategy deleteStrategy = new RecordingDeleteStrategy();
+            Container metadata = container(deleteStrategy);
+
+            for (long id = 0; id < 30; id += 3) {
+                getter.accept(chunk(id, id + 1, id + 2), metadata);
+            }
+            getter.commit(metadata);
+
+            Assert.assertEquals(20, deleteStrategy.accepted.size());
+            Assert.assertEquals(1L, deleteStrategy.accepted.get(0));
+            Assert.assertEquals(2L, deleteStrategy.accepted.get(1));
+            Assert.assertEquals(Collections.singleton(Thread.currentThread()), deleteStrategy.threads);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testClonesDontShareLookups() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            ExistingValuesLookup<Item> lookup = ids -> {
+                if (ids[0] == 1L) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+                return Collections.emptyList();
+            };
+            RecordingTarget target = new RecordingTarget();
+            ExistingValuesGetter<Item> getter = new ExistingValuesGetter<>(target, lookup, deleteStrategySelector,
+                    4, executor);
+            ExistingValuesGetter<Item> clone = getter.createClone();
+            Container metadata = container(new RecordingDeleteStrategy());
+
+            getter.accept(chunk(1), metadata);
+            clone.accept(chunk(2), metadata);
+            clone.partialCommit(metadata);
+            Assert.assertEquals(1, target.chunks.size());
+            Assert.assertEquals(2L, target.chunks.get(0).get(0).getUpdate().getId().longValue());
+
+            release.countDown();
+            getter.commit(metadata);
+            Assert.assertEquals(2, target.chunks.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Container container(DeleteStrategy deleteStrategy) {
+        Container metadata = schema.createContainer();
+        metadata.set(deleteStrategySelector, deleteStrategy);
+        return metadata;
+    }
+
+    private static List<Item> chunk(long... ids) {
+        List<Item> items = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            items.add(new Item(id, "new"));
+        }
+        return items;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static final class Item implements Identified {
+        private final Long id;
+        private final String state;
+
+        Item(long id, String state) {
+            this.id = id;
+            this.state = state;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return state + " " + id;
+        }
+    }
+
+    private static final class RecordingTarget implements ThreadsafeSink<List<UpdatePair<Item>>> {
+        final List<List<UpdatePair<Item>>> chunks = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger commits = new AtomicInteger();
+
+        @Override
+        public void accept(List<UpdatePair<Item>> value, Container metadata) {
+            chunks.add(value);
+        }
+
+        @Override
+        public void commit(Container metadata) {
+            commits.incrementAndGet();
+        }
+    }
+
+    private static final class RecordingDeleteStrategy implements DeleteStrategy {
+        final List<Object> accepted = Collections.synchronizedList(new ArrayList<>());
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+
+        @Override
+        public void accept(Object id) {
+            accepted.add(id);
+            threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public boolean deleteRemaining(Cleaner cleaner) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.processing.sink.ThreadsafeSink;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class FingerprintFilterTest {
+
+    @Test
+    public void testFingerprintIgnoresOrderAndTimestamp() {
+        SolrInputDocument first = new SolrInputDocument();
+        first.addField("id", "MLS_1");
+        first.addField("name_s", "Name");
+        first.addField("tag_ss", "a");
+        first.addField("tag_ss", "b");
+        first.addField(TimestampSetter.TIMESTAMP_FIELD, 1000L);
+
+        SolrInputDocument second = new SolrInputDocument();
+        second.addField(TimestampSetter.TIMESTAMP_FIELD, 2000L);
+        second.addField("tag_ss", "a");
+        second.addField("tag_ss", "b");
+        second.addField("name_s", "Name");
+        second.addField("id", "MLS_1");
+
+        Assert.assertEquals(FingerprintFilter.fingerprintOf(first), FingerprintFilter.fingerprintOf(second));
+
+        second.setField("tag_ss", Arrays.asList("b", "a"));
+        Assert.assertNotEquals(FingerprintFilter.fingerprintOf(first), FingerprintFilter.fingerprintOf(second));
+    }
+
+    @Test
+    public void testUnchangedDocumentsOnlyGetNewTimestamp() throws Exception {
+        SolrInputDocument unchanged = document("MLS_1", "Same");
+        SolrInputDocument changed = document("MLS_2", "New");
+        FingerprintClient client = new FingerprintClient();
+        client.indexed("MLS_1", FingerprintFilter.fingerprintOf(unchanged));
+        client.indexed("MLS_2", FingerprintFilter.fingerprintOf(document("MLS_2", "Old")));
+
+        RecordingTarget target = new RecordingTarget();
+        FingerprintFilter filter = new FingerprintFilter(target, client, "id");
+        filter.accept(new ArrayList<>(Arrays.asList(unchanged, changed)), container());
+
+        Assert.assertEquals(2, target.docs.size());
+        SolrInputDocument update = target.docs.get(0);
+        Assert.assertEquals("MLS_1", update.getFieldValue("id"));
+        Assert.assertEquals(Collections.singletonMap("set", 4711L),
+                update.getFieldValue(TimestampSetter.TIMESTAMP_FIELD));
+        Assert.assertNull(update.getFieldValue("name_s"));
+        Assert.assertSame(changed, target.docs.get(1));
+        Assert.assertEquals(FingerprintFilter.fingerprintOf(changed),
+                changed.getFieldValue(FingerprintFilter.FINGERPRINT_FIELD));
+        Assert.assertEquals("{!terms f=id}MLS_1,MLS_2", sorted(client.filter));
+    }
+
+    @Test
+    public void testNumericIDsMatchStringResponse() throws Exception {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("model_id", 17L);
+        doc.addField("name_s", "Same");
+        doc.addField(TimestampSetter.TIMESTAMP_FIELD, 4711L);
+        FingerprintClient client = new FingerprintClient();
+        client.idField = "model_id";
+        // The response contains the ID as a String
+        client.indexed("17", FingerprintFilter.fingerprintOf(doc));
+
+        RecordingTarget target = new RecordingTarget();
+        new FingerprintFilter(target, client, "model_id").accept(new ArrayList<>(Collections.singletonList(doc)),
+                container());
+
+        Assert.assertEquals(1, target.docs.size());
+        Assert.assertNotSame(doc, target.docs.get(0));
+        Assert.assertEquals(17L, target.docs.get(0).getFieldValue("model_id"));
+    }
+
+    @Test
+    public void testAtomicUpdatesResetFingerprint() throws Exception {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", "MLS_3");
+        doc.addField("name_s", Collections.singletonMap("set", "Changed"));
+        FingerprintClient client = new FingerprintClient();
+
+        RecordingTarget target = new RecordingTarget();
+        new FingerprintFilter(target, client, "id").accept(new ArrayList<>(Collections.singletonList(doc)),
+                container());
+
+        Assert.assertSame(doc, target.docs.get(0));
+        Assert.assertEquals(Collections.singletonMap("set", null),
+                doc.getFieldValue(FingerprintFilter.FINGERPRINT_FIELD));
+        // Nothing to look up
+        Assert.assertNull(client.filter);
+    }
+
+    private static String sorted(String termsFilter) {
+        int start = termsFilter.indexOf('}') + 1;
+        List<String> ids = Arrays.asList(termsFilter.substring(start).split(","));
+        Collections.sort(ids);
+        return termsFilter.substring(0, start) + String.join(",", ids);
+    }
+
+    private static SolrInputDocument document(String id, String name) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", id);
+        doc.addField("name_s", name);
+        doc.addField(TimestampSetter.TIMESTAMP_FIELD, 4711L);
+        return doc;
+    }
+
+    private static Container container() {
+        return new Schema("Test").createContainer();
+    }
+
+    private static final class RecordingTarget implements ThreadsafeSink<List<SolrInputDocument>> {
+        final List<SolrInputDocument> docs = new ArrayList<>();
+
+        @Override
+        public void accept(List<SolrInputDocument> value, Container metadata) {
+            docs.addAll(value);
+        }
+
+        @Override
+        public void commit(Container metadata) {
+        }
+    }
+
+    private static final class FingerprintClient extends SolrClient {
+        private static final long serialVersionUID = 1L;
+
+        final SolrDocumentList indexed = new SolrDocumentList();
+        String idField = "id";
+        String filter;
+
+        void indexed(Object id, long fingerprint) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField(idField, id);
+            doc.setField(FingerprintFilter.FINGERPRINT_FIELD, fingerprint);
+            indexed.add(doc);
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection) {
+            filter = request.getParams().get(CommonParams.FQ);
+            NamedList<Object> response = new NamedList<>();
+            response.add("response", indexed);
+            return response;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
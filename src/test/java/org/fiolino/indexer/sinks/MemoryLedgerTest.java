@@ -0,0 +1,188 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.processing.sink.Sink;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MemoryLedgerTest {
+
+    @Test(timeout = 10000)
+    public void testThrottlesUntilReleased() throws Exception {
+        MemoryLedger ledger = new MemoryLedger(new MemoryGovernor(100));
+        List<String> queued = new ArrayList<>();
+        Sink<String> throttling = new ThrottlingSink<>(new Collecting<>(queued), ledger, s -> 60);
+        Container metadata = container();
+
+        throttling.accept("first", metadata);
+        Assert.assertEquals(60, ledger.getGovernor().getUsedBytes());
+
+        CountDownLatch accepted = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            try {
+                throttling.accept("second", metadata);
+                accepted.countDown();
+            } catch (Exception ex) {
+                failure.set(ex);
+            }
+        });
+        producer.start();
+        Assert.assertFalse(accepted.await(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, ledger.getGovernor().getThrottleCount());
+
+        ledger.release(queued.get(0));
+        Assert.assertTrue(accepted.await(5, TimeUnit.SECONDS));
+        producer.join();
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(60, ledger.getGovernor().getUsedBytes());
+    }
+
+    @Test
+    public void testFailedHandOverIsReleased() throws Exception {
+        MemoryLedger ledger = new MemoryLedger(new MemoryGovernor(100));
+        Sink<String> throttling = new ThrottlingSink<>(new Collecting<String>(new ArrayList<>()) {
+            @Override
+            public void accept(String value, Container metadata) {
+                throw new IllegalStateException("Queue is closed");
+            }
+        }, ledger, s -> 60);
+        try {
+            throttling.accept("item", container());
+            Assert.fail("Should have failed");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("Queue is closed", ex.getMessage());
+        }
+        Assert.assertEquals(0, ledger.getGovernor().getUsedBytes());
+        Assert.assertEquals(0, ledger.getHeldCount());
+    }
+
+    @Test
+    public void testDocumentsCountUntilTheyAreBatched() throws Exception {
+        MemoryLedger ledger = new MemoryLedger(new MemoryGovernor(1000));
+        List<String> batched = new ArrayList<>();
+        Sink<String> batching = ReleasingSink.releasingItems(new Collecting<String>(batched) {
+            @Override
+            public void accept(String doc, Container metadata) {
+                Assert.assertEquals(150, ledger.getGovernor().getUsedBytes());
+                super.accept(doc, metadata);
+            }
+        }, ledger);
+        Sink<String> throttling = new ThrottlingSink<>(lane(ledger, batching), ledger, s -> 100);
+
+        throttling.accept("first", container());
+        // The model's reservation was replaced by the document's, which was released when batched
+        Assert.assertEquals(Arrays.asList("first as document"), batched);
+        Assert.assertEquals(0, ledger.getGovernor().getUsedBytes());
+        Assert.assertEquals(0, ledger.getHeldCount());
+        Assert.assertEquals(150, ledger.getAverageTransferredSize(8192));
+    }
+
+    @Test(timeout = 10000)
+    public void testPartialChunksDontBlockTheProducer() throws Exception {
+        // Smaller than one chunk of documents
+        MemoryLedger ledger = new MemoryLedger(new MemoryGovernor(200));
+        List<List<String>> uploaded = new ArrayList<>();
+        Sink<String> batching = ReleasingSink.releasingItems(new Sink<String>() {
+            private final List<String> chunk = new ArrayList<>();
+
+            @Override
+            public void accept(String doc, Container metadata) {
+                chunk.add(doc);
+                if (chunk.size() == 10) {
+                    uploaded.add(new ArrayList<>(chunk));
+                    chunk.clear();
+                }
+            }
+
+            @Override
+            public void commit(Container metadata) {
+            }
+        }, ledger);
+        Sink<String> throttling = new ThrottlingSink<>(lane(ledger, batching), ledger, s -> 100);
+        Container metadata = container();
+
+        for (int i = 0; i < 25; i++) {
+            throttling.accept("item " + i, metadata);
+        }
+        Assert.assertEquals(2, uploaded.size());
+        Assert.assertEquals(0, ledger.getGovernor().getUsedBytes());
+        Assert.assertEquals(0, ledger.getGovernor().getThrottleCount());
+    }
+
+    /**
+     * Creates a document for each model and passes it to the batching sink, like the lanes do.
+     */
+    private static Sink<String> lane(MemoryLedger ledger, Sink<String> batching) {
+        return ReleasingSink.releasingItems(new Sink<String>() {
+            @Override
+            public void accept(String model, Container metadata) throws Exception {
+                String doc = model + " as document";
+                ledger.transfer(model, doc, 150);
+                batching.accept(doc, metadata);
+            }
+
+            @Override
+            public void commit(Container metadata) {
+            }
+        }, ledger);
+    }
+
+    @Test
+    public void testUntransferredItemsAreReleasedByTheLane() throws Exception {
+        MemoryLedger ledger = new MemoryLedger(new MemoryGovernor(1000));
+        Assert.assertEquals(8192, ledger.getAverageTransferredSize(8192));
+        List<String> processed = new ArrayList<>();
+        Sink<String> throttling = new ThrottlingSink<>(
+                ReleasingSink.releasingItems(new Collecting<>(processed), ledger), ledger, s -> 100);
+        throttling.accept("item", container());
+        Assert.assertEquals(Arrays.asList("item"), processed);
+        Assert.assertEquals(0, ledger.getGovernor().getUsedBytes());
+    }
+
+    @Test
+    public void testReleaseAll() throws Exception {
+        MemoryLedger ledger = new MemoryLedger(new MemoryGovernor(1000));
+        ledger.acquire("dropped", 100);
+        ledger.transfer("dropped", new Object(), 200);
+        ledger.acquire("queued", 100);
+        Assert.assertEquals(300, ledger.getGovernor().getUsedBytes());
+        ledger.releaseAll();
+        Assert.assertEquals(0, ledger.getGovernor().getUsedBytes());
+        Assert.assertEquals(0, ledger.getHeldCount());
+
+        // Nothing is released twice
+        ledger.release("queued");
+        ledger.acquire("next", 100);
+        Assert.assertEquals(100, ledger.getGovernor().getUsedBytes());
+    }
+
+    private static Container container() {
+        return new Schema("Test").createContainer();
+    }
+
+    private static class Collecting<T> implements Sink<T> {
+        private final List<T> items;
+
+        Collecting(List<T> items) {
+            this.items = items;
+        }
+
+        @Override
+        public void accept(T value, Container metadata) {
+            items.add(value);
+        }
+
+        @Override
+        public void commit(Container metadata) {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.processing.sink.Sink;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PartialUpdateSinkTest {
+
+    private static final SolrDocumentFiller<Item> FILLER = (model, doc, count) -> {
+        doc.addField("id", model.id);
+        doc.addField("name_s", model.name);
+        for (String v : model.views) {
+            doc.addField("views_ss", v);
+        }
+    };
+
+    @Test
+    public void testSetChangedValue() throws Exception {
+        SolrInputDocument doc = send(new Item("Name", "a", "b"), new Item("Name", "a"));
+        Assert.assertTrue(PartialUpdateSink.isAtomicUpdate(doc));
+        Assert.assertEquals("MLS_1", doc.getFieldValue("id"));
+        Assert.assertNull(doc.getField("name_s"));
+        Assert.assertEquals(Collections.singletonMap("add", Collections.singletonList("b")),
+                doc.getFieldValue("views_ss"));
+
+        doc = send(new Item("Name", "x", "y"), new Item("Name", "a"));
+        Assert.assertEquals(Collections.singletonMap("set", Arrays.asList("x", "y")), doc.getFieldValue("views_ss"));
+
+        doc = send(new Item("Name", "x"), new Item("Name", "a", "b"));
+        Assert.assertEquals(Collections.singletonMap("set", "x"), doc.getFieldValue("views_ss"));
+
+        doc = send(new Item("Name"), new Item("Name", "a"));
+        Assert.assertEquals(Collections.singletonMap("set", null), doc.getFieldValue("views_ss"));
+    }
+
+    @Test
+    public void testAddDoesNotNeedPrefix() throws Exception {
+        // The old values are not at the beginning, but all of them are kept
+        SolrInputDocument doc = send(new Item("Name", "c", "b", "a", "b"), new Item("Name", "a", "b"));
+        Assert.assertEquals(Collections.singletonMap("add", Arrays.asList("c", "b")), doc.getFieldValue("views_ss"));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        SolrInputDocument doc = send(new Item("Name", "c", "a"), new Item("Name", "a", "b", "c", "b"));
+        Assert.assertEquals(Collections.singletonMap("remove", Arrays.asList("b", "b")),
+                doc.getFieldValue("views_ss"));
+
+        // Solr would remove both occurrences of a, so that's a set
+        doc = send(new Item("Name", "a", "b"), new Item("Name", "a", "b", "a"));
+        Assert.assertEquals(Collections.singletonMap("set", Arrays.asList("a", "b")), doc.getFieldValue("views_ss"));
+    }
+
+    @Test
+    public void testFullDocumentIfOtherFieldChanged() throws Exception {
+        SolrInputDocument doc = send(new Item("New", "a", "b"), new Item("Old", "a"));
+        Assert.assertFalse(PartialUpdateSink.isAtomicUpdate(doc));
+        Assert.assertEquals("New", doc.getFieldValue("name_s"));
+        Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<>(doc.getFieldValues("views_ss")));
+    }
+
+    @Test
+    public void testFullDocumentIfNothingChanged() throws Exception {
+        SolrInputDocument doc = send(new Item("Name", "a"), new Item("Name", "a"));
+        Assert.assertFalse(PartialUpdateSink.isAtomicUpdate(doc));
+        Assert.assertEquals("Name", doc.getFieldValue("name_s"));
+
+        doc = send(new Item("Name", "a"), null);
+        Assert.assertFalse(PartialUpdateSink.isAtomicUpdate(doc));
+    }
+
+    private static SolrInputDocument send(Item update, Item existing) throws Exception {
+        RecordingTarget target = new RecordingTarget();
+        PartialUpdateSink<Item> sink = new PartialUpdateSink<>(target, FILLER, "id",
+                Collections.singletonList("views_*"));
+        sink.accept(UpdatePair.withExisting(update, existing), new Schema("Test").createContainer());
+        Assert.assertEquals(1, target.docs.size());
+        return target.docs.get(0);
+    }
+
+    private static final class Item {
+        final String id = "MLS_1";
+        final String name;
+        final List<String> views;
+
+        Item(String name, String... views) {
+            this.name = name;
+            this.views = Arrays.asList(views);
+        }
+    }
+
+    private static final class RecordingTarget implements Sink<SolrInputDocument> {
+        final List<SolrInputDocument> docs = new ArrayList<>();
+
+        @Override
+        public void accept(SolrInputDocument value, Container metadata) {
+            docs.add(value);
+        }
+
+        @Override
+        public void commit(Container metadata) {
+        }
+    }
+}
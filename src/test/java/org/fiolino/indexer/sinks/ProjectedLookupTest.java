@@ -0,0 +1,81 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ProjectedLookupTest {
+
+    @Test
+    public void testQueriesUniqueKeyAndOnlyDeclaredFields() {
+        QueryClient client = new QueryClient();
+        client.results.add(document("MLS_12", "Twelve"));
+        ProjectedLookup<String> lookup = new ProjectedLookup<>(client,
+                d -> d.getFieldValue("id") + ":" + d.getFieldValue("content_txt"), "content_txt", "stats_*");
+
+        List<String> found = lookup.findByIDs(new Long[]{12L, 13L});
+
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals("MLS_12:Twelve", found.get(0));
+        SolrParams params = client.params;
+        Assert.assertEquals("{!terms f=id}MLS_12,MLS_13", params.get(CommonParams.FQ));
+        Assert.assertEquals("id,content_txt,stats_*", params.get(CommonParams.FL));
+        Assert.assertEquals("2", params.get(CommonParams.ROWS));
+        Assert.assertEquals(SolrRequest.METHOD.POST, client.method);
+    }
+
+    @Test
+    public void testCustomIDField() {
+        QueryClient client = new QueryClient();
+        ProjectedLookup<Object> lookup = new ProjectedLookup<>(client, "model_id_l", d -> d, "content_txt");
+
+        Assert.assertTrue(lookup.findByIDs(new Long[]{1L, 2L, 3L}).isEmpty());
+        Assert.assertEquals("{!terms f=model_id_l}1,2,3", client.params.get(CommonParams.FQ));
+        Assert.assertEquals("model_id_l,content_txt", client.params.get(CommonParams.FL));
+    }
+
+    @Test
+    public void testNoQueryWithoutIDs() {
+        QueryClient client = new QueryClient();
+        ProjectedLookup<Object> lookup = new ProjectedLookup<>(client, d -> d, "content_txt");
+
+        Assert.assertTrue(lookup.findByIDs(new Long[0]).isEmpty());
+        Assert.assertNull(client.params);
+    }
+
+    private static SolrDocument document(String id, String content) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", id);
+        doc.setField("content_txt", content);
+        return doc;
+    }
+
+    private static final class QueryClient extends SolrClient {
+        private static final long serialVersionUID = 1L;
+
+        final SolrDocumentList results = new SolrDocumentList();
+        SolrParams params;
+        SolrRequest.METHOD method;
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection) {
+            params = request.getParams();
+            method = request.getMethod();
+            NamedList<Object> response = new NamedList<>();
+            response.add("response", results);
+            return response;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
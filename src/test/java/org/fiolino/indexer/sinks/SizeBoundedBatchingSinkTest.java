@@ -0,0 +1,133 @@
+package org.fiolino.indexer.sinks;
+
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.processing.sink.ThreadsafeSink;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SizeBoundedBatchingSinkTest {
+
+    @Test
+    public void testSendsWhenBytesAreReached() throws Exception {
+        RecordingTarget target = new RecordingTarget();
+        SizeBoundedBatchingSink<String> sink = new SizeBoundedBatchingSink<>(target, String::length,
+                10, 100, null, 0);
+        Container metadata = container();
+        sink.accept("aaaa", metadata);
+        sink.accept("bbbb", metadata);
+        Assert.assertTrue(target.batches.isEmpty());
+        sink.accept("cc", metadata);
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("aaaa", "bbbb", "cc")), target.batches);
+
+        // The bytes are counted per batch
+        sink.accept("dddddddd", metadata);
+        Assert.assertEquals(1, target.batches.size());
+        sink.commit(metadata);
+        Assert.assertEquals(Arrays.asList("dddddddd"), target.batches.get(1));
+        Assert.assertEquals(1, target.commits);
+    }
+
+    @Test
+    public void testSendsWhenCountIsReached() throws Exception {
+        RecordingTarget target = new RecordingTarget();
+        SizeBoundedBatchingSink<String> sink = new SizeBoundedBatchingSink<>(target, String::length,
+                0, 2, null, 0);
+        Container metadata = container();
+        for (int i = 0; i < 5; i++) {
+            sink.accept("x" + i, metadata);
+        }
+        Assert.assertEquals(Arrays.asList(Arrays.asList("x0", "x1"), Arrays.asList("x2", "x3")), target.batches);
+        sink.partialCommit(metadata);
+        Assert.assertEquals(Arrays.asList("x4"), target.batches.get(2));
+        Assert.assertEquals(0, target.commits);
+    }
+
+    @Test(timeout = 10000)
+    public void testLingeringBatchDoesNotBlockTheLane() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingTarget target = new RecordingTarget() {
+            @Override
+            public void accept(List<String> value, Container metadata) throws Exception {
+                if (value.contains("first")) {
+                    sending.countDown();
+                    release.await();
+                }
+                super.accept(value, metadata);
+            }
+        };
+        SizeBoundedBatchingSink<String> sink = new SizeBoundedBatchingSink<>(target, String::length,
+                0, 100, null, 20);
+        Container metadata = container();
+        sink.accept("first", metadata);
+        sending.await();
+
+        // The lingering batch is being sent, but the lane can go on
+        sink.accept("second", metadata);
+        sink.accept("third", metadata);
+        release.countDown();
+
+        sink.commit(metadata);
+        // The next batches may linger as well, but they're sent in order
+        List<String> sent = new ArrayList<>();
+        target.batches.forEach(sent::addAll);
+        Assert.assertEquals(Arrays.asList("first"), target.batches.get(0));
+        Assert.assertEquals(Arrays.asList("first", "second", "third"), sent);
+        Assert.assertEquals(1, target.commits);
+    }
+
+    @Test(timeout = 10000)
+    public void testLingeringFailureIsThrownToTheLane() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        RecordingTarget target = new RecordingTarget() {
+            @Override
+            public void accept(List<String> value, Container metadata) {
+                failed.countDown();
+                throw new IllegalStateException("Solr is down");
+            }
+        };
+        SizeBoundedBatchingSink<String> sink = new SizeBoundedBatchingSink<>(target, String::length,
+                0, 100, null, 20);
+        Container metadata = container();
+        sink.accept("lingering", metadata);
+        failed.await();
+        // The failure is recorded after the send lock is released
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                sink.accept("next", metadata);
+                Thread.sleep(5);
+            }
+            Assert.fail("Failure was not thrown");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("Solr is down", ex.getMessage());
+        }
+    }
+
+    private static Container container() {
+        return new Schema("Test").createContainer();
+    }
+
+    private static class RecordingTarget implements ThreadsafeSink<List<String>> {
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        volatile int commits;
+
+        @Override
+        public void accept(List<String> value, Container metadata) throws Exception {
+            batches.add(value);
+        }
+
+        @Override
+        public void commit(Container metadata) {
+            commits++;
+        }
+    }
+}
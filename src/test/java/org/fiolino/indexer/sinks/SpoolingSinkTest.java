@@ -0,0 +1,175 @@
+package org.fiolino.indexer.sinks;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.fiolino.common.container.Container;
+import org.fiolino.common.container.Schema;
+import org.fiolino.common.processing.sink.Sink;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SpoolingSinkTest {
+
+    private Path directory;
+    private final List<SpoolingSink> sinks = new ArrayList<>();
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("spool");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        sinks.forEach(SpoolingSink::close);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCommitsAfterDrain() throws Exception {
+        Uploader uploader = new Uploader();
+        SpoolingSink sink = sink(uploader, new UploadSpool(directory, 1024, -1));
+        Container metadata = container();
+        for (int i = 0; i < 5; i++) {
+            sink.accept(chunk(i), metadata);
+        }
+        sink.commit(metadata);
+
+        Assert.assertEquals(ids(0, 1, 2, 3, 4), uploader.uploadedIds());
+        // The target was committed only after all chunks were uploaded
+        Assert.assertEquals(5, uploader.uploadedBeforeCommit);
+    }
+
+    @Test(timeout = 10000)
+    public void testRetriesFailedUploads() throws Exception {
+        Uploader uploader = new Uploader();
+        uploader.failures.add(new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "Down"));
+        uploader.failures.add(new IOException("Connection refused"));
+        SpoolingSink sink = sink(uploader, new UploadSpool(directory, 1024, -1));
+        Container metadata = container();
+        sink.accept(chunk(1), metadata);
+        sink.accept(chunk(2), metadata);
+        sink.commit(metadata);
+
+        Assert.assertEquals(4, uploader.attempts);
+        Assert.assertEquals(ids(1, 2), uploader.uploadedIds());
+        Assert.assertEquals(2, uploader.uploadedBeforeCommit);
+    }
+
+    @Test(timeout = 10000)
+    public void testRejectedChunksAreMovedAside() throws Exception {
+        Uploader uploader = new Uploader();
+        uploader.failures.add(new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Unknown field"));
+        UploadSpool spool = new UploadSpool(directory, 1024, -1);
+        SpoolingSink sink = sink(uploader, spool);
+        Container metadata = container();
+        sink.accept(chunk(1), metadata);
+        sink.accept(chunk(2), metadata);
+        sink.commit(metadata);
+
+        // The rejected chunk is not retried, but the next one is uploaded
+        Assert.assertEquals(2, uploader.attempts);
+        Assert.assertEquals(ids(2), uploader.uploadedIds());
+        Assert.assertEquals(0, spool.getPendingRecords());
+
+        List<Path> rejected;
+        try (Stream<Path> files = Files.list(directory.resolve("rejected"))) {
+            rejected = files.collect(Collectors.toList());
+        }
+        Assert.assertEquals(1, rejected.size());
+        try (InputStream in = Files.newInputStream(rejected.get(0))) {
+            List<?> docs = (List<?>) new JavaBinCodec().unmarshal(in);
+            Assert.assertEquals(1, docs.size());
+            Assert.assertEquals("1", ((SolrInputDocument) docs.get(0)).getFieldValue("id"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCommitFailsWhenAnotherSinkTookOver() throws Exception {
+        UploadSpool spool = new UploadSpool(directory, 1024, -1);
+        Uploader first = new Uploader();
+        SpoolingSink sink = sink(first, spool);
+        // The new sink has no metadata yet, so it doesn't drain
+        sink(new Uploader(), spool);
+        sink.accept(chunk(1), container());
+        try {
+            sink.commit(container());
+            Assert.fail("Should have failed");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("The spool of Test isn't drained by this sink any more.", ex.getMessage());
+        }
+        Assert.assertEquals(0, first.uploadedBeforeCommit);
+        Assert.assertTrue(first.uploadedIds().isEmpty());
+    }
+
+    private SpoolingSink sink(Sink<List<SolrInputDocument>> target, UploadSpool spool) {
+        SpoolingSink sink = new SpoolingSink(target, spool, "Test");
+        sinks.add(sink);
+        return sink;
+    }
+
+    private static List<SolrInputDocument> chunk(int id) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", String.valueOf(id));
+        List<SolrInputDocument> chunk = new ArrayList<>();
+        chunk.add(doc);
+        return chunk;
+    }
+
+    private static List<String> ids(Integer... ids) {
+        List<String> result = new ArrayList<>();
+        for (Integer id : ids) {
+            result.add(String.valueOf(id));
+        }
+        return result;
+    }
+
+    private static Container container() {
+        return new Schema("Test").createContainer();
+    }
+
+    /**
+     * Fails with the queued exceptions first, and collects the uploaded documents then.
+     */
+    private static class Uploader implements Sink<List<SolrInputDocument>> {
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+        private final List<SolrInputDocument> uploaded = Collections.synchronizedList(new ArrayList<>());
+        volatile int attempts;
+        volatile int uploadedBeforeCommit;
+
+        @Override
+        public void accept(List<SolrInputDocument> docs, Container metadata) throws Exception {
+            attempts++;
+            if (!failures.isEmpty()) {
+                throw failures.remove(0);
+            }
+            uploaded.addAll(docs);
+        }
+
+        @Override
+        public void commit(Container metadata) {
+            uploadedBeforeCommit = uploaded.size();
+        }
+
+        List<String> uploadedIds() {
+            synchronized (uploaded) {
+                return uploaded.stream().map(d -> (String) d.getFieldValue("id")).collect(Collectors.toList());
+            }
+        }
+    }
+}
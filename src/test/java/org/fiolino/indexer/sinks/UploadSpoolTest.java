@@ -0,0 +1,99 @@
+package org.fiolino.indexer.sinks;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class UploadSpoolTest {
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("spool");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws Exception {
+        UploadSpool spool = new UploadSpool(directory, 64, -1);
+        for (int i = 0; i < 10; i++) {
+            // Each record takes 5 + 20 bytes, so segments roll over
+            spool.append(payload(i));
+        }
+        Assert.assertEquals(10, spool.getPendingRecords());
+
+        for (int i = 0; i < 4; i++) {
+            UploadSpool.Record r = spool.take(0, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(payload(i), r.payload);
+            spool.drained(r);
+        }
+        // Taken, but not drained before the "crash"
+        UploadSpool.Record notDrained = spool.take(0, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(payload(4), notDrained.payload);
+
+        UploadSpool restarted = new UploadSpool(directory, 64, -1);
+        Assert.assertEquals(6, restarted.getPendingRecords());
+        for (int i = 4; i < 10; i++) {
+            UploadSpool.Record r = restarted.take(0, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(payload(i), r.payload);
+            restarted.drained(r);
+        }
+        Assert.assertNull(restarted.take(0, TimeUnit.SECONDS));
+        Assert.assertTrue(restarted.awaitDrained(0, TimeUnit.SECONDS));
+
+        restarted.append(payload(10));
+        Assert.assertArrayEquals(payload(10), restarted.take(0, TimeUnit.SECONDS).payload);
+    }
+
+    @Test
+    public void testReleasedRecordIsTakenAgain() throws Exception {
+        UploadSpool spool = new UploadSpool(directory, 1024, -1);
+        spool.append(payload(1));
+        spool.append(payload(2));
+        UploadSpool.Record r = spool.take(0, TimeUnit.SECONDS);
+        spool.release(r);
+        UploadSpool.Record again = spool.take(0, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(payload(1), again.payload);
+        spool.drained(again);
+        Assert.assertArrayEquals(payload(2), spool.take(0, TimeUnit.SECONDS).payload);
+    }
+
+    @Test
+    public void testDrainedSegmentsAreDeleted() throws Exception {
+        UploadSpool spool = new UploadSpool(directory, 64, -1);
+        for (int i = 0; i < 10; i++) {
+            spool.append(payload(i));
+        }
+        for (int i = 0; i < 10; i++) {
+            spool.drained(spool.take(0, TimeUnit.SECONDS));
+        }
+        spool.take(0, TimeUnit.SECONDS);
+        try (Stream<Path> files = Files.list(directory)) {
+            // Only the segment that's still written remains
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    private static byte[] payload(int i) {
+        byte[] b = new byte[20];
+        for (int j = 0; j < b.length; j++) {
+            b[j] = (byte) (i * 31 + j);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,134 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class DefaultCleanerTest {
+
+    @Test
+    public void testIDsAreDeletedInChunks() throws Exception {
+        DeletingClient client = new DeletingClient();
+        DefaultCleaner cleaner = new DefaultCleaner(client, 10, 1, Runnable::run);
+
+        Assert.assertEquals(25, cleaner.deleteByIDs(ids(25).iterator()));
+        Assert.assertEquals(3, client.requests.size());
+        Assert.assertEquals(ids(10), client.requests.get(0));
+        Assert.assertEquals(5, client.requests.get(2).size());
+        Assert.assertEquals("MLS_24", client.requests.get(2).get(4));
+    }
+
+    @Test
+    public void testNothingToDelete() throws Exception {
+        DeletingClient client = new DeletingClient();
+        DefaultCleaner cleaner = new DefaultCleaner(client, 10, 4, Runnable::run);
+
+        Assert.assertEquals(0, cleaner.deleteByIDs(Collections.<String>emptyIterator()));
+        Assert.assertTrue(client.requests.isEmpty());
+    }
+
+    @Test(timeout = 10_000)
+    public void testChunksAreDeletedInParallel() throws Exception {
+        DeletingClient client = new DeletingClient();
+        // Each request waits until three of them are running
+        client.barrier = new CyclicBarrier(3);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            DefaultCleaner cleaner = new DefaultCleaner(client, 4, 3, executor);
+            Assert.assertEquals(24, cleaner.deleteByIDs(ids(24).iterator()));
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(6, client.requests.size());
+        List<String> all = new ArrayList<>();
+        client.requests.forEach(all::addAll);
+        Collections.sort(all);
+        List<String> expected = ids(24);
+        Collections.sort(expected);
+        Assert.assertEquals(expected, all);
+    }
+
+    @Test(timeout = 10_000)
+    public void testParallelFailureIsThrown() throws Exception {
+        DeletingClient client = new DeletingClient();
+        client.failAt = 2;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            DefaultCleaner cleaner = new DefaultCleaner(client, 5, 2, executor);
+            cleaner.deleteByIDs(ids(100).iterator());
+            Assert.fail("Delete should have failed");
+        } catch (SolrServerException ex) {
+            Assert.assertEquals("Delete failed", ex.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testRejectedDeleteIsThrown() throws Exception {
+        DeletingClient client = new DeletingClient();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        executor.shutdown();
+        try {
+            DefaultCleaner cleaner = new DefaultCleaner(client, 5, 2, executor);
+            cleaner.deleteByIDs(ids(20).iterator());
+            Assert.fail("Delete should have been rejected");
+        } catch (RejectedExecutionException ex) {
+            // expected
+        }
+        Assert.assertTrue(client.requests.isEmpty());
+    }
+
+    private static List<String> ids(int n) {
+        return IntStream.range(0, n).mapToObj(i -> "MLS_" + i).collect(Collectors.toList());
+    }
+
+    private static final class DeletingClient extends SolrClient {
+        private static final long serialVersionUID = 1L;
+
+        final List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+        volatile CyclicBarrier barrier;
+        volatile int failAt = -1;
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException {
+            List<String> ids = ((UpdateRequest) request).getDeleteById();
+            int n;
+            synchronized (requests) {
+                n = requests.size();
+                requests.add(new ArrayList<>(ids));
+            }
+            if (n == failAt) {
+                throw new SolrServerException("Delete failed");
+            }
+            CyclicBarrier b = barrier;
+            if (b != null) {
+                try {
+                    b.await(5, TimeUnit.SECONDS);
+                } catch (Exception ex) {
+                    throw new SolrServerException("Requests didn't run in parallel", ex);
+                }
+            }
+            return new NamedList<>();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
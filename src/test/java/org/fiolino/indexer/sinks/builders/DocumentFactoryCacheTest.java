@@ -0,0 +1,99 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class DocumentFactoryCacheTest {
+
+    @Before
+    @After
+    public void clearCache() {
+        DocumentFactoryCache.clear();
+    }
+
+    @Test
+    public void testHitsPerClass() {
+        SolrDocumentFiller<TestModels.Article> article = DocumentFactoryCache.get(TestModels.Article.class, false);
+        SolrDocumentFiller<TestModels.Person> person = DocumentFactoryCache.get(TestModels.Person.class, false);
+
+        Assert.assertSame(article, DocumentFactoryCache.get(TestModels.Article.class, false));
+        Assert.assertSame(person, DocumentFactoryCache.get(TestModels.Person.class, false));
+        Assert.assertNotSame(article, person);
+    }
+
+    @Test
+    public void testCompileFlagIsPartOfTheKey() {
+        SolrDocumentFiller<TestModels.Article> interpreted = DocumentFactoryCache.get(TestModels.Article.class, false);
+        SolrDocumentFiller<TestModels.Article> compiled = DocumentFactoryCache.get(TestModels.Article.class, true);
+
+        Assert.assertNotSame(interpreted, compiled);
+        Assert.assertFalse(interpreted.getClass().isSynthetic());
+        Assert.assertTrue(compiled.getClass().isSynthetic());
+        Assert.assertSame(compiled, DocumentFactoryCache.get(TestModels.Article.class, true));
+        Assert.assertSame(interpreted, DocumentFactoryCache.get(TestModels.Article.class, false));
+
+        TestModels.Article model = new TestModels.Article(7);
+        TestModels.assertSameDocument(TestModels.fill(interpreted, model), TestModels.fill(compiled, model));
+    }
+
+    @Test
+    public void testClearRebuilds() {
+        SolrDocumentFiller<TestModels.Article> before = DocumentFactoryCache.get(TestModels.Article.class, false);
+        DocumentFactoryCache.clear();
+        SolrDocumentFiller<TestModels.Article> after = DocumentFactoryCache.get(TestModels.Article.class, false);
+
+        Assert.assertNotSame(before, after);
+        Assert.assertSame(after, DocumentFactoryCache.get(TestModels.Article.class, false));
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentRequestsGetTheSameFiller() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<SolrDocumentFiller<TestModels.Article>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return DocumentFactoryCache.get(TestModels.Article.class, true);
+                }));
+            }
+            start.countDown();
+
+            SolrDocumentFiller<TestModels.Article> first = results.get(0).get();
+            for (Future<SolrDocumentFiller<TestModels.Article>> r : results) {
+                Assert.assertSame(first, r.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testPrebuild() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            DocumentFactoryCache.prebuild(Arrays.asList(TestModels.Article.class, TestModels.Tag.class), true,
+                    executor).get(20, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        SolrDocumentFiller<TestModels.Tag> tag = DocumentFactoryCache.get(TestModels.Tag.class, true);
+        Assert.assertTrue(tag.getClass().isSynthetic());
+        Assert.assertSame(tag, DocumentFactoryCache.get(TestModels.Tag.class, true));
+    }
+}
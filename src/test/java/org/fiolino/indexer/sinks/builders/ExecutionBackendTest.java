@@ -0,0 +1,93 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ExecutionBackendTest {
+
+    @Test(timeout = 10000)
+    public void testBoundedQueuesTasks() throws Exception {
+        ExecutionBackend backend = ExecutionBackend.bounded("Test thread", 1);
+        Assert.assertEquals(ExecutionBackend.Kind.BOUNDED, backend.getKind());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        Runnable blocking = () -> {
+            started.countDown();
+            await(release);
+            done.countDown();
+        };
+        backend.execute(blocking);
+        started.await();
+        for (int i = 0; i < 3; i++) {
+            backend.execute(done::countDown);
+        }
+
+        Assert.assertEquals(1, backend.getThreadCount());
+        Assert.assertEquals(3, backend.getQueueDepth());
+        // Each of them waited, but the warning is logged only once
+        Assert.assertEquals(3, backend.getDelayedTaskCount());
+
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, backend.getQueueDepth());
+    }
+
+    @Test(timeout = 10000)
+    public void testPlatformGrows() throws Exception {
+        ExecutionBackend backend = ExecutionBackend.platform("Test thread");
+        Assert.assertEquals(ExecutionBackend.Kind.PLATFORM, backend.getKind());
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            backend.execute(() -> {
+                started.countDown();
+                await(release);
+            });
+        }
+        // All of them run at the same time
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, backend.getThreadCount());
+        Assert.assertEquals(0, backend.getQueueDepth());
+        Assert.assertEquals(0, backend.getDelayedTaskCount());
+        release.countDown();
+    }
+
+    @Test(timeout = 10000)
+    public void testVirtualRunsEveryTask() throws Exception {
+        ExecutionBackend backend = ExecutionBackend.virtual("Test thread");
+        CountDownLatch started = new CountDownLatch(10);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            backend.execute(() -> {
+                started.countDown();
+                await(release);
+                done.countDown();
+            });
+        }
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, backend.getQueueDepth());
+        if (backend.getKind() == ExecutionBackend.Kind.VIRTUAL) {
+            Assert.assertEquals(10, backend.getThreadCount());
+        }
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBoundedNeedsThreads() {
+        ExecutionBackend.bounded("Test thread", 0);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
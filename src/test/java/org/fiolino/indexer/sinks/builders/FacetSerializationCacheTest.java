@@ -0,0 +1,87 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.common.util.Serializer;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FacetSerializationCacheTest {
+
+    @SuppressWarnings("unchecked")
+    private final Serializer<Object> serializer = (Serializer<Object>) Serializer.get(TestModels.Person.class);
+
+    @Test
+    public void testCachesUntilCleared() {
+        FacetSerializationCache cache = new FacetSerializationCache(10);
+        TestModels.Person person = new TestModels.Person(1);
+        String original = cache.serialize(TestModels.Person.class, serializer, person);
+        Assert.assertEquals(1, cache.size());
+
+        person.setName("Renamed");
+        Assert.assertEquals(original, cache.serialize(TestModels.Person.class, serializer, person));
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        String renamed = cache.serialize(TestModels.Person.class, serializer, person);
+        Assert.assertNotEquals(original, renamed);
+        Assert.assertEquals(serializer.serialize(person), renamed);
+    }
+
+    @Test
+    public void testRenewsChangedVersions() {
+        FacetSerializationCache cache = new FacetSerializationCache(10);
+        cache.setVersionHook(e -> ((TestModels.Person) e).getName());
+        TestModels.Person person = new TestModels.Person(1);
+        String original = cache.serialize(TestModels.Person.class, serializer, person);
+        Assert.assertEquals(original, cache.serialize(TestModels.Person.class, serializer, person));
+
+        person.setName("Renamed");
+        String renamed = cache.serialize(TestModels.Person.class, serializer, person);
+        Assert.assertNotEquals(original, renamed);
+        Assert.assertEquals(serializer.serialize(person), renamed);
+        // Renewing doesn't count as another entry
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testClearsWhenFull() {
+        FacetSerializationCache cache = new FacetSerializationCache(2);
+        for (long id = 1; id <= 5; id++) {
+            cache.serialize(TestModels.Person.class, serializer, new TestModels.Person(id));
+            Assert.assertTrue(cache.size() <= 2);
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        FacetSerializationCache cache = new FacetSerializationCache(0);
+        TestModels.Person person = new TestModels.Person(1);
+        cache.serialize(TestModels.Person.class, serializer, person);
+        person.setName("Renamed");
+        Assert.assertEquals(serializer.serialize(person), cache.serialize(TestModels.Person.class, serializer, person));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEachRunHasItsOwnCache() {
+        SolrDocumentFiller<TestModels.Person> filler = (model, doc, count) -> doc.addField("person_facet",
+                FacetSerializationCache.serializeInRun(TestModels.Person.class, serializer, model));
+        SolrDocumentFiller<TestModels.Person> firstRun = new FacetSerializationCache(10).bind(filler);
+        TestModels.Person person = new TestModels.Person(1);
+        String original = serializer.serialize(person);
+        Assert.assertEquals(original, facetOf(firstRun, person));
+
+        person.setName("Renamed");
+        String renamed = serializer.serialize(person);
+        Assert.assertEquals(original, facetOf(firstRun, person));
+        // Neither unbound fillers nor the next run see the first run's cache
+        Assert.assertEquals(renamed, facetOf(filler, person));
+        Assert.assertEquals(renamed, facetOf(new FacetSerializationCache(10).bind(filler), person));
+    }
+
+    private static Object facetOf(SolrDocumentFiller<TestModels.Person> filler, TestModels.Person person) {
+        SolrInputDocument doc = TestModels.fill(filler, person);
+        return doc.getFieldValue("person_facet");
+    }
+}
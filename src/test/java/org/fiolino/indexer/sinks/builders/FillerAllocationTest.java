@@ -0,0 +1,142 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class FillerAllocationTest {
+
+    private static final int ROUNDS = 100_000;
+
+    @Test
+    public void testMonthsSameAsCalendar() {
+        Random random = new Random(4711);
+        for (String zoneId : new String[] {"UTC", "Europe/Berlin", "America/New_York", "Asia/Kolkata"}) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            Calendar cal = Calendar.getInstance(zone);
+            for (int i = 0; i < 10_000; i++) {
+                // Between 1700 and 2300
+                long millis = (long) ((random.nextDouble() * 600 - 270) * 365.25 * 24 * 60 * 60 * 1000);
+                cal.setTime(new Date(millis));
+                int expected = cal.get(Calendar.YEAR) * 12 + cal.get(Calendar.MONTH);
+                Assert.assertEquals(zoneId + " at " + millis, expected,
+                        SolrDocumentFactoryBuilder.monthsSinceYearZero(millis, zone));
+            }
+        }
+    }
+
+    @Test
+    public void testMonthsDontAllocate() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+        long start = 1_500_000_000_000L;
+        // Warm up so that the measurement doesn't see class loading or interpreter allocations
+        long sum = sumMonths(zone, start);
+
+        long before = allocatedBytes();
+        sum += sumMonths(zone, start);
+        long allocated = allocatedBytes() - before;
+
+        Assert.assertTrue(sum != 0);
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < ROUNDS);
+    }
+
+    private static long sumMonths(TimeZone zone, long start) {
+        long sum = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            sum += SolrDocumentFactoryBuilder.monthsSinceYearZero(start + i * 3_600_000L, zone);
+        }
+        return sum;
+    }
+
+    @Test
+    public void testMapKeyNames() {
+        MapKeyFieldNames names = new MapKeyFieldNames("title_*_txt", 2);
+        String de = names.nameFor("de");
+        Assert.assertTrue(de.startsWith("title_") && de.endsWith("_txt"));
+        Assert.assertSame(de, names.nameFor("de"));
+        names.nameFor("en");
+        // The cache is full now, but the names are still correct
+        Assert.assertEquals(names.nameFor("fr"), names.nameFor("fr"));
+    }
+
+    @Test
+    public void testCachedMapKeyNamesDontAllocate() {
+        MapKeyFieldNames names = new MapKeyFieldNames("title_*_txt");
+        String[] keys = {"de", "en", "fr", "it", "es"};
+        // Warm up
+        int length = sumLengths(names, keys);
+
+        long before = allocatedBytes();
+        length += sumLengths(names, keys);
+        long allocated = allocatedBytes() - before;
+
+        Assert.assertTrue(length > 0);
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < ROUNDS);
+    }
+
+    private static int sumLengths(MapKeyFieldNames names, String[] keys) {
+        int length = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            length += names.nameFor(keys[i % keys.length]).length();
+        }
+        return length;
+    }
+
+    @Test
+    public void testCompiledFillerOnlyAllocatesTheFields() {
+        SolrDocumentFiller<TestModels.Person> compiled = TestModels.fillerFor(TestModels.Person.class, true);
+        Assert.assertTrue(compiled.getClass().isSynthetic());
+        TestModels.Person person = new TestModels.Person(1);
+        SolrInputDocument doc = TestModels.fill(compiled, person);
+        Assert.assertFalse(doc.isEmpty());
+
+        // The same fields, added by hand
+        String[] names = doc.getFieldNames().toArray(new String[0]);
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = doc.getFieldValue(names[i]);
+        }
+        SolrDocumentFiller<TestModels.Person> byHand = (model, d, count) -> {
+            for (int i = 0; i < names.length; i++) {
+                d.addField(names[i], values[i]);
+            }
+        };
+
+        // Warm up, so that the generated class is loaded and compiled
+        fillAll(compiled, person, doc);
+        fillAll(byHand, person, doc);
+
+        long before = allocatedBytes();
+        fillAll(compiled, person, doc);
+        long allocated = allocatedBytes() - before;
+        before = allocatedBytes();
+        fillAll(byHand, person, doc);
+        long expected = allocatedBytes() - before;
+
+        Assert.assertTrue("Allocated " + allocated + " bytes instead of " + expected,
+                allocated < expected + ROUNDS);
+    }
+
+    private static <T> void fillAll(SolrDocumentFiller<T> filler, T model, SolrInputDocument doc) {
+        for (int i = 0; i < ROUNDS; i++) {
+            doc.clear();
+            filler.process(model, doc, 1);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled());
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,108 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+public class FillerCompilerTest {
+
+    @Test
+    public void testCompiledSameAsInterpreted() {
+        SolrDocumentFiller<TestModels.Article> interpreted = TestModels.fillerFor(TestModels.Article.class, false);
+        SolrDocumentFiller<TestModels.Article> compiled = TestModels.fillerFor(TestModels.Article.class, true);
+        Assert.assertTrue(compiled.getClass().isSynthetic());
+
+        for (long id = 1; id <= 20; id++) {
+            TestModels.Article article = new TestModels.Article(id);
+            SolrInputDocument expected = TestModels.fill(interpreted, article);
+            Assert.assertFalse(expected.isEmpty());
+            TestModels.assertSameDocument(expected, TestModels.fill(compiled, article));
+        }
+    }
+
+    @Test
+    public void testLargeListsAreSplit() {
+        int n = FillerCompiler.MAX_FILLERS_PER_CLASS * 2 + 3;
+        List<SolrDocumentFiller<Integer>> fillers = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String name = "f" + i + "_i";
+            int offset = i;
+            fillers.add((model, doc, count) -> doc.addField(name, model + offset * count));
+        }
+        SolrDocumentFiller<Integer> compiled = FillerCompiler.compile(fillers);
+
+        SolrInputDocument doc = new SolrInputDocument();
+        compiled.process(1000, doc, 2);
+        Assert.assertEquals(n, doc.size());
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(1000 + i * 2, doc.getFieldValue("f" + i + "_i"));
+        }
+    }
+
+    @Test
+    public void testTransportersAreUnrolled() {
+        List<SolrDocumentFiller<Integer>> fillers = new ArrayList<>();
+        fillers.add(new Transporter("plus_i", x -> x + 1));
+        fillers.add((model, doc, count) -> doc.addField("generic_i", model));
+        fillers.add(new Transporter("none_i", x -> null));
+        fillers.add(new Transporter("times_i", x -> x * 2));
+        SolrDocumentFiller<Integer> compiled = FillerCompiler.compile(fillers);
+
+        SolrInputDocument doc = new SolrInputDocument();
+        compiled.process(10, doc, 3);
+        Assert.assertEquals(3, doc.size());
+        Assert.assertEquals("plus_i:11:3", doc.getFieldValue("plus_i"));
+        Assert.assertEquals(10, doc.getFieldValue("generic_i"));
+        Assert.assertEquals("times_i:20:3", doc.getFieldValue("times_i"));
+    }
+
+    @Test
+    public void testEachCompilationHasItsOwnClassLoader() {
+        List<SolrDocumentFiller<Object>> fillers = new ArrayList<>();
+        fillers.add((model, doc, count) -> doc.addField("a_s", "a"));
+        fillers.add((model, doc, count) -> doc.addField("b_s", "b"));
+
+        ClassLoader first = FillerCompiler.compile(fillers).getClass().getClassLoader();
+        ClassLoader second = FillerCompiler.compile(fillers).getClass().getClassLoader();
+        Assert.assertNotSame(first, second);
+        Assert.assertNotSame(SolrDocumentFiller.class.getClassLoader(), first);
+    }
+
+    /**
+     * Fails when it's called as a plain filler.
+     */
+    private static final class Transporter implements FieldTransporter<Integer> {
+        private final String name;
+        private final Function<Object, ?> getter;
+
+        Transporter(String name, Function<Integer, Integer> getter) {
+            this.name = name;
+            this.getter = x -> getter.apply((Integer) x);
+        }
+
+        @Override
+        public Function<Object, ?> getGetter() {
+            return getter;
+        }
+
+        @Override
+        public String getSolrName() {
+            return name;
+        }
+
+        @Override
+        public void transport(SolrInputDocument doc, String solrName, Object value, int count) {
+            doc.addField(solrName, solrName + ":" + value + ":" + count);
+        }
+
+        @Override
+        public void process(Integer model, SolrInputDocument doc, int count) {
+            throw new AssertionError("Not unrolled");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class FillerProfileTest {
+
+    @Test
+    public void testCountsAddedValues() {
+        FillerProfile profile = new FillerProfile("Item", 1);
+        SolrDocumentFiller<String> name = profile.profile("name", (model, doc, count) -> doc.addField("name", model));
+        SolrDocumentFiller<String> tags = profile.profile("tags",
+                (model, doc, count) -> doc.addField("tags", Arrays.asList("a", "b", "c")));
+
+        for (SolrInputDocument doc : Arrays.asList(new FillerProfile.CountingDocument(), new SolrInputDocument())) {
+            name.process("first", doc, 1);
+            tags.process("first", doc, 1);
+            // Values added to an existing field count as well
+            name.process("second", doc, 1);
+        }
+
+        List<FillerProfile.Entry> entries = profile.getEntries();
+        Assert.assertEquals(2, entries.size());
+        FillerProfile.Entry nameEntry = entry(entries, "name");
+        Assert.assertEquals(4, nameEntry.getSamples());
+        Assert.assertEquals(1.0, nameEntry.getAverageValues(), 0.0);
+        FillerProfile.Entry tagsEntry = entry(entries, "tags");
+        Assert.assertEquals(2, tagsEntry.getSamples());
+        Assert.assertEquals(3.0, tagsEntry.getAverageValues(), 0.0);
+    }
+
+    @Test
+    public void testCountingDocumentCountsValues() {
+        FillerProfile.CountingDocument doc = new FillerProfile.CountingDocument();
+        doc.addField("id", 1L);
+        doc.addField("tags", new Object[] {"a", "b"});
+        doc.addField("tags", Arrays.asList("c", "d", "e"), 2.0f);
+        Assert.assertEquals(6, doc.getValueCount());
+        Assert.assertEquals(5, doc.getField("tags").getValueCount());
+    }
+
+    @Test
+    public void testReportsMostExpensiveFirst() {
+        FillerProfile profile = new FillerProfile("Item", 1);
+        SolrDocumentFiller<String> cheap = profile.profile("cheap", (model, doc, count) -> doc.addField("c", model));
+        SolrDocumentFiller<String> expensive = profile.profile("expensive", (model, doc, count) -> {
+            sleep();
+            doc.addField("e", model);
+        });
+        profile.profile("unused", (model, doc, count) -> doc.addField("u", model));
+
+        SolrInputDocument doc = new FillerProfile.CountingDocument();
+        cheap.process("x", doc, 1);
+        expensive.process("x", doc, 1);
+
+        Assert.assertEquals("expensive", profile.getEntries().get(0).getLabel());
+        String report = profile.report(20);
+        String[] lines = report.split("\n");
+        Assert.assertEquals("Filler costs of Item (sampled 1 of 1):", lines[0]);
+        // Fillers without samples are not reported
+        Assert.assertEquals(3, lines.length);
+        Assert.assertTrue(lines[1], lines[1].startsWith("  expensive: "));
+        Assert.assertTrue(lines[1], lines[1].endsWith(" values per call (1 samples)"));
+        Assert.assertTrue(lines[2], lines[2].startsWith("  cheap: "));
+
+        Assert.assertEquals(2, profile.report(1).split("\n").length);
+    }
+
+    @Test
+    public void testReset() {
+        FillerProfile profile = new FillerProfile("Item", 1);
+        SolrDocumentFiller<String> filler = profile.profile("name", (model, doc, count) -> doc.addField("n", model));
+        filler.process("x", new SolrInputDocument(), 1);
+        Assert.assertEquals(1, profile.getEntries().get(0).getSamples());
+
+        profile.reset();
+        FillerProfile.Entry entry = profile.getEntries().get(0);
+        Assert.assertEquals(0, entry.getSamples());
+        Assert.assertEquals(0.0, entry.getAverageMicros(), 0.0);
+        Assert.assertEquals("Filler costs of Item (sampled 1 of 1):", profile.report(20));
+    }
+
+    @Test
+    public void testSamplesSomeCalls() {
+        FillerProfile profile = new FillerProfile("Item", 10);
+        int[] calls = new int[1];
+        SolrDocumentFiller<String> filler = profile.profile("name", (model, doc, count) -> calls[0]++);
+        for (int i = 0; i < 1000; i++) {
+            filler.process("x", new SolrInputDocument(), 1);
+        }
+        // Every call is processed, but only about a tenth is measured
+        Assert.assertEquals(1000, calls[0]);
+        long samples = profile.getEntries().get(0).getSamples();
+        Assert.assertTrue("Sampled " + samples, samples > 30 && samples < 300);
+    }
+
+    private static FillerProfile.Entry entry(List<FillerProfile.Entry> entries, String label) {
+        for (FillerProfile.Entry e : entries) {
+            if (e.getLabel().equals(label)) {
+                return e;
+            }
+        }
+        throw new AssertionError("No entry " + label);
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
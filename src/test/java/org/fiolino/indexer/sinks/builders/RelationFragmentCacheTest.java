@@ -0,0 +1,130 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class RelationFragmentCacheTest {
+
+    /**
+     * Fills a person like a relation's sub filler, with a multi-valued field, boosts and a document boost.
+     */
+    private static final SolrDocumentFiller<Object> SUB_FILLER = (model, doc, count) -> {
+        TestModels.Person person = (TestModels.Person) model;
+        doc.addField("author_name_s", person.getName(), 2.0f);
+        doc.addField("author_aliases_ss", Arrays.asList("alias", "other"));
+        doc.addField("author_id_l", person.getId());
+        doc.setDocumentBoost(doc.getDocumentBoost() * 1.5f);
+    };
+
+    @Test
+    public void testReplayedSameAsUncached() {
+        RelationFragmentCache cache = new RelationFragmentCache(10);
+        TestModels.Person author = new TestModels.Person(1);
+        for (int i = 0; i < 3; i++) {
+            SolrInputDocument expected = prefilled();
+            SUB_FILLER.process(author, expected, 1);
+            SolrInputDocument actual = prefilled();
+            cache.process(SUB_FILLER, author, actual, 1);
+            TestModels.assertSameDocument(expected, actual);
+
+            // Further values must not change the cached fragment
+            actual.addField("author_aliases_ss", "added");
+        }
+    }
+
+    @Test
+    public void testBoostedDocumentsSameAsUncached() {
+        RelationFragmentCache cache = new RelationFragmentCache(10);
+        TestModels.Person author = new TestModels.Person(1);
+        cache.process(SUB_FILLER, author, new SolrInputDocument(), 1);
+
+        SolrInputDocument expected = prefilled();
+        expected.setDocumentBoost(0.3f);
+        SUB_FILLER.process(author, expected, 1);
+        SolrInputDocument actual = prefilled();
+        actual.setDocumentBoost(0.3f);
+        cache.process(SUB_FILLER, author, actual, 1);
+        TestModels.assertSameDocument(expected, actual);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        Set<Long> filled = new HashSet<>();
+        SolrDocumentFiller<Object> counting = (model, doc, count) -> {
+            filled.add(((TestModels.Person) model).getId());
+            SUB_FILLER.process(model, doc, count);
+        };
+        RelationFragmentCache cache = new RelationFragmentCache(4);
+        for (long id = 1; id <= 4; id++) {
+            process(cache, counting, id);
+        }
+        // 1 and 2 are used again, so 3 and 4 are the oldest ones
+        process(cache, counting, 1);
+        process(cache, counting, 2);
+        filled.clear();
+
+        process(cache, counting, 5);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(5L)), filled);
+        for (long id : Arrays.asList(1L, 2L, 5L)) {
+            process(cache, counting, id);
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(5L)), filled);
+        process(cache, counting, 3);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(3L, 5L)), filled);
+    }
+
+    @Test
+    public void testEachRunHasItsOwnCaches() {
+        List<Long> filled = new ArrayList<>();
+        SolrDocumentFiller<Object> counting = (model, doc, count) -> {
+            filled.add(((TestModels.Person) model).getId());
+            SUB_FILLER.process(model, doc, count);
+        };
+        Object relation = new Object();
+        SolrDocumentFiller<Object> filler = (model, doc, count) ->
+                RelationFragmentCache.processInRun(relation, 10, counting, model, doc, count);
+        TestModels.Person author = new TestModels.Person(1);
+
+        RelationFragmentCache.Run first = new RelationFragmentCache.Run();
+        SolrDocumentFiller<Object> firstFiller = first.bind(filler);
+        firstFiller.process(author, new SolrInputDocument(), 1);
+        firstFiller.process(author, new SolrInputDocument(), 1);
+        Assert.assertEquals(1, filled.size());
+
+        // A concurrent run doesn't see the fragments of the first one
+        SolrDocumentFiller<Object> secondFiller = new RelationFragmentCache.Run().bind(filler);
+        secondFiller.process(author, new SolrInputDocument(), 1);
+        Assert.assertEquals(2, filled.size());
+        firstFiller.process(author, new SolrInputDocument(), 1);
+        Assert.assertEquals(2, filled.size());
+
+        first.clear();
+        firstFiller.process(author, new SolrInputDocument(), 1);
+        Assert.assertEquals(3, filled.size());
+
+        // Not cached outside of a run
+        filler.process(author, new SolrInputDocument(), 1);
+        Assert.assertEquals(4, filled.size());
+    }
+
+    private static void process(RelationFragmentCache cache, SolrDocumentFiller<Object> filler, long id)
+            throws InterruptedException {
+        cache.process(filler, new TestModels.Person(id), new SolrInputDocument(), 1);
+        // Keeps the usage times apart
+        Thread.sleep(2);
+    }
+
+    private static SolrInputDocument prefilled() {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("title_s", "Title");
+        return doc;
+    }
+}
@@ -0,0 +1,23 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SolrDocumentFactoryBuilderTest {
+
+    @Test
+    public void testToManyRelationsAreNotIndexed() {
+        // Only relations which shall be hidden pass the filter, and none is hidden
+        for (boolean compiled : new boolean[] {false, true}) {
+            SolrDocumentFiller<TestModels.Article> filler = TestModels.fillerFor(TestModels.Article.class, compiled);
+            SolrInputDocument doc = TestModels.fill(filler, new TestModels.Article(1));
+
+            Assert.assertFalse(doc.isEmpty());
+            for (String name : doc.getFieldNames()) {
+                Assert.assertFalse(name, name.contains("reviewers"));
+            }
+        }
+    }
+}
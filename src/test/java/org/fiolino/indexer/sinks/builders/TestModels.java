@@ -0,0 +1,166 @@
+package org.fiolino.indexer.sinks.builders;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.fiolino.common.analyzing.ModelInconsistencyException;
+import org.fiolino.common.processing.Analyzer;
+import org.fiolino.common.processing.ModelDescription;
+import org.fiolino.data.annotation.Facet;
+import org.fiolino.data.annotation.Indexed;
+import org.fiolino.data.base.Identified;
+import org.fiolino.indexer.SolrDocumentFiller;
+import org.junit.Assert;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Small models and helpers for the filler tests.
+ */
+final class TestModels {
+
+    private TestModels() {
+        throw new AssertionError("Static class");
+    }
+
+    static <T> SolrDocumentFiller<T> fillerFor(Class<T> type, boolean compiled) {
+        return fillerFor(type, compiled, null);
+    }
+
+    /**
+     * Analyzes the given type the same way as {@link SolrSinkBuilder} does.
+     */
+    static <T> SolrDocumentFiller<T> fillerFor(Class<T> type, boolean compiled, @Nullable FillerProfile profile) {
+        ModelDescription description = new ModelDescription(type, SolrDocumentFactoryBuilder.SCHEMA.createContainer());
+        SolrDocumentFactoryBuilder<T> factoryBuilder = new SolrDocumentFactoryBuilder<>(compiled, profile);
+        try {
+            Analyzer.analyzeAll(description, factoryBuilder);
+        } catch (ModelInconsistencyException ex) {
+            throw new AssertionError(ex);
+        }
+        return factoryBuilder.getFiller();
+    }
+
+    static <T> SolrInputDocument fill(SolrDocumentFiller<T> filler, T model) {
+        SolrInputDocument doc = new SolrInputDocument();
+        filler.process(model, doc, 1);
+        return doc;
+    }
+
+    /**
+     * Compares field names, values in their order, boosts and the document boost.
+     */
+    static void assertSameDocument(SolrInputDocument expected, SolrInputDocument actual) {
+        Assert.assertEquals(expected.getFieldNames(), actual.getFieldNames());
+        Assert.assertEquals(expected.getDocumentBoost(), actual.getDocumentBoost(), 0.0f);
+        for (SolrInputField field : expected) {
+            SolrInputField other = actual.getField(field.getName());
+            Assert.assertEquals(field.getName(), new ArrayList<>(field.getValues()), new ArrayList<>(other.getValues()));
+            Assert.assertEquals(field.getName(), field.getBoost(), other.getBoost(), 0.0f);
+        }
+    }
+
+    public static class Article implements Identified {
+        private Long id;
+        @Indexed
+        private String title;
+        @Indexed
+        private List<String> keywords = new ArrayList<>();
+        @Indexed
+        private Date created;
+        @Indexed
+        private Person author;
+        @Facet("Tag")
+        private List<Tag> tags = new ArrayList<>();
+        @Indexed
+        private List<Person> reviewers = new ArrayList<>();
+
+        public Article(long id) {
+            this.id = id;
+            title = "Article " + id;
+            keywords.add("first");
+            keywords.add("second " + id);
+            created = new Date(1_500_000_000_000L + id);
+            author = new Person(id % 10);
+            for (int i = 0; i < 3; i++) {
+                tags.add(new Tag(id + i));
+                reviewers.add(new Person(100 + i));
+            }
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public List<String> getKeywords() {
+            return keywords;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        public Person getAuthor() {
+            return author;
+        }
+
+        public List<Tag> getTags() {
+            return tags;
+        }
+
+        public List<Person> getReviewers() {
+            return reviewers;
+        }
+    }
+
+    public static class Person implements Identified {
+        private Long id;
+        @Indexed
+        private String name;
+
+        public Person(long id) {
+            this.id = id;
+            name = "Person " + id;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class Tag implements Identified {
+        private Long id;
+        @Indexed
+        private String label;
+
+        public Tag(long id) {
+            this.id = id;
+            label = "Tag " + id;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+}